@@ -0,0 +1,11 @@
+(defproject io.tilde.momentum/momentum-bench "0.3.0-SNAPSHOT"
+  :description "JMH benchmarks for momentum"
+
+  :dependencies [[org.clojure/clojure                      "1.3.0"]
+                 [io.tilde.momentum/momentum               "0.3.0-SNAPSHOT"]
+                 [org.openjdk.jmh/jmh-core                 "1.37"]
+                 [org.openjdk.jmh/jmh-generator-annprocess "1.37"]]
+
+  :source-path      "src/clj"
+  :java-source-path "src/jvm"
+  :javac-options    {:debug "true"})
@@ -0,0 +1,9 @@
+(ns momentum.bench
+  (:import
+   [org.openjdk.jmh Main]))
+
+(defn -main
+  "Runs the benchmarks matching the given JMH arguments. The gc profiler is
+  always on so that allocation rates show up next to the timings."
+  [& args]
+  (Main/main (into-array String (concat ["-prof" "gc"] args))))
@@ -0,0 +1,111 @@
+package momentum.async;
+
+/*
+ * The transfer queue as it was before it went lock-free: a linked list with
+ * every operation guarded by the queue's monitor. Kept around as the baseline
+ * for TransferQueueBenchmark.
+ */
+final class LockingTransferQueue {
+
+  static final class Node {
+
+    Node next;
+
+    final Object val;
+
+    final AsyncVal request;
+
+    Node(Object o, AsyncVal req) {
+      val     = o;
+      request = req;
+    }
+
+    boolean isData() {
+      return request == null;
+    }
+
+    void realize(Object o, AsyncVal req) {
+      if (request == null) {
+        req.put(val);
+      }
+      else {
+        request.put(o);
+      }
+    }
+  }
+
+  static final Node CLOSED = new Node(null, null);
+
+  int count = 0;
+
+  Node head;
+
+  Node tail;
+
+  final Object defaultVal;
+
+  LockingTransferQueue(Object defaultVal) {
+    this.defaultVal = defaultVal;
+  }
+
+  boolean put(Object o) {
+    return transfer(o, null);
+  }
+
+  AsyncVal take() {
+    AsyncVal request = new AsyncVal();
+
+    if (!transfer(null, request)) {
+      request.put(defaultVal);
+    }
+
+    return request;
+  }
+
+  synchronized int count() {
+    return count;
+  }
+
+  private boolean transfer(Object o, AsyncVal request) {
+    boolean haveData = request == null;
+
+    Node matched = null;
+
+    synchronized (this) {
+      if (tail == CLOSED && (haveData || head == null)) {
+        return false;
+      }
+
+      if (head != null && haveData != head.isData()) {
+        matched = head;
+
+        if (tail == matched) {
+          tail = head = null;
+        }
+        else {
+          head = matched.next;
+        }
+
+        matched.next = null;
+      }
+      else {
+        Node s = new Node(o, request);
+
+        if (tail != null) {
+          tail = tail.next = s;
+        }
+        else {
+          tail = head = s;
+        }
+      }
+
+      count += haveData ? 1 : -1;
+    }
+
+    if (matched != null) {
+      matched.realize(o, request);
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,87 @@
+package momentum.async;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Compares the lock-free AsyncTransferQueue with the monitor based queue it
+ * replaced, with producers and consumers hammering a single queue.
+ *
+ * The thread count is set from the command line, from -t 1 up to -t 64 for
+ * putTake, and with -tg (for example -tg 32,32) for the producer / consumer
+ * group.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransferQueueBenchmark {
+
+  @Param({"lock-free", "locking"})
+  String impl;
+
+  AsyncTransferQueue lockFree;
+
+  LockingTransferQueue locking;
+
+  @Setup
+  public void setup() {
+    lockFree = new AsyncTransferQueue(null);
+    locking  = new LockingTransferQueue(null);
+  }
+
+  boolean put(Object o) {
+    if (impl.equals("lock-free")) {
+      return lockFree.put(o);
+    }
+
+    return locking.put(o);
+  }
+
+  AsyncVal take() {
+    if (impl.equals("lock-free")) {
+      return lockFree.take();
+    }
+
+    return locking.take();
+  }
+
+  /*
+   * Each thread puts a value and then takes one, so the queue stays short
+   * while every thread contends on both ends.
+   */
+  @Benchmark
+  public AsyncVal putTake() {
+    put(Boolean.TRUE);
+    return take();
+  }
+
+  @Benchmark
+  @Group("transfer")
+  @GroupThreads(1)
+  public boolean producer() {
+    return put(Boolean.TRUE);
+  }
+
+  @Benchmark
+  @Group("transfer")
+  @GroupThreads(1)
+  public AsyncVal consumer() {
+    return take();
+  }
+}
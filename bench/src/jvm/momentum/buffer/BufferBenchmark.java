@@ -0,0 +1,114 @@
+package momentum.buffer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Measures the basic operations on each kind of buffer across payload sizes.
+ *
+ * Single value accesses walk the buffer one position per invocation so that
+ * the whole payload is touched over a run. The sizes are all powers of two,
+ * which lets the index wrap around with a mask.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferBenchmark {
+
+  @Param({"heap", "direct", "byte-buffer", "channel-buffer", "composite"})
+  String kind;
+
+  @Param({"16", "1024", "65536", "1048576", "16777216"})
+  int size;
+
+  Buffer buf;
+
+  // An equal buffer of the same kind, so that equals has to compare every
+  // byte
+  Buffer other;
+
+  int mask;
+
+  // Masks indices for long accesses so that they stay in bounds
+  int wordMask;
+
+  int idx;
+
+  @Setup
+  public void setup() {
+    buf      = Buffers.create(kind, size);
+    other    = Buffers.create(kind, size);
+    mask     = size - 1;
+    wordMask = (size - 1) & ~7;
+  }
+
+  @Benchmark
+  public byte getByte() {
+    return buf.get(idx++ & mask);
+  }
+
+  @Benchmark
+  public Buffer putByte() {
+    return buf.put(idx++ & mask, (byte) idx);
+  }
+
+  @Benchmark
+  public int getInt() {
+    return buf.getInt((idx += 4) & wordMask);
+  }
+
+  @Benchmark
+  public Buffer putInt() {
+    return buf.putInt((idx += 4) & wordMask, idx);
+  }
+
+  @Benchmark
+  public long getLong() {
+    return buf.getLong((idx += 8) & wordMask);
+  }
+
+  @Benchmark
+  public Buffer putLong() {
+    return buf.putLong((idx += 8) & wordMask, idx);
+  }
+
+  @Benchmark
+  public Buffer slice() {
+    return buf.slice(size / 4, size / 2);
+  }
+
+  @Benchmark
+  public Buffer duplicate() {
+    return buf.duplicate();
+  }
+
+  @Benchmark
+  public byte[] toByteArray() {
+    return buf.toByteArray();
+  }
+
+  @Benchmark
+  public ChannelBuffer toChannelBuffer() {
+    return buf.toChannelBuffer();
+  }
+
+  @Benchmark
+  public boolean equality() {
+    return buf.equals(other);
+  }
+}
@@ -0,0 +1,52 @@
+package momentum.buffer;
+
+import java.nio.ByteBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/*
+ * Builds buffers of each kind for the benchmarks. The benchmarks live in
+ * momentum.buffer so that the backed buffers can be built directly instead of
+ * relying on which kind Buffer.wrap happens to pick.
+ */
+final class Buffers {
+
+  static final int SEGMENTS = 8;
+
+  static Buffer create(String kind, int size) {
+    Buffer ret;
+
+    if (kind.equals("heap")) {
+      ret = Buffer.allocate(size);
+    }
+    else if (kind.equals("direct")) {
+      ret = Buffer.allocateDirect(size);
+    }
+    else if (kind.equals("byte-buffer")) {
+      ret = new ByteBufferBackedBuffer(ByteBuffer.allocate(size));
+    }
+    else if (kind.equals("channel-buffer")) {
+      ret = new ChannelBufferBackedBuffer(ChannelBuffers.buffer(size), 0, size, size);
+    }
+    else if (kind.equals("composite")) {
+      Buffer[] segs = new Buffer[SEGMENTS];
+
+      for (int i = 0; i < SEGMENTS; ++i) {
+        segs[i] = Buffer.allocate(size / SEGMENTS);
+      }
+
+      ret = Buffer.wrap(segs);
+    }
+    else {
+      throw new IllegalArgumentException("Unknown buffer kind: " + kind);
+    }
+
+    fill(ret);
+    return ret;
+  }
+
+  static void fill(Buffer buf) {
+    for (int i = 0; i < buf.capacity(); ++i) {
+      buf.put(i, (byte) i);
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package momentum.buffer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Measures indexOf and indexOfAny against the get(i) loops that they
+ * replaced. The only match is the last byte of the buffer, so every search
+ * scans the whole payload.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+  static final byte CR = '\r';
+
+  // The bytes the HTTP parsers look for
+  static final byte[] SET = { '\r', '\n', ':' };
+
+  @Param({"heap", "direct", "byte-buffer", "channel-buffer", "composite"})
+  String kind;
+
+  @Param({"16", "1024", "65536", "1048576"})
+  int size;
+
+  Buffer buf;
+
+  @Setup
+  public void setup() {
+    buf = Buffers.create(kind, size);
+
+    for (int i = 0; i < size; ++i) {
+      buf.put(i, (byte) 'a');
+    }
+
+    buf.put(size - 1, CR);
+  }
+
+  @Benchmark
+  public int indexOf() {
+    return buf.indexOf(CR);
+  }
+
+  @Benchmark
+  public int indexOfAny() {
+    return buf.indexOfAny(SET);
+  }
+
+  @Benchmark
+  public int byteLoopIndexOf() {
+    int lim = buf.limit();
+
+    for (int i = buf.position(); i < lim; ++i) {
+      if (buf.get(i) == CR) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  @Benchmark
+  public int byteLoopIndexOfAny() {
+    int lim = buf.limit();
+
+    for (int i = buf.position(); i < lim; ++i) {
+      byte curr = buf.get(i);
+
+      for (int j = 0; j < SET.length; ++j) {
+        if (curr == SET[j]) {
+          return i;
+        }
+      }
+    }
+
+    return -1;
+  }
+}
@@ -0,0 +1,68 @@
+package momentum.buffer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Measures wrapping N segments into a composite buffer, and reading back out
+ * of the result.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WrapBenchmark {
+
+  @Param({"2", "16", "128"})
+  int segments;
+
+  @Param({"16", "1024", "65536", "1048576", "16777216"})
+  int size;
+
+  Buffer[] segs;
+
+  Buffer composite;
+
+  @Setup
+  public void setup() {
+    // Tiny payloads still get at least one byte per segment
+    int len = Math.max(size / segments, 1);
+
+    segs = new Buffer[segments];
+
+    for (int i = 0; i < segments; ++i) {
+      segs[i] = Buffer.allocate(len);
+      Buffers.fill(segs[i]);
+    }
+
+    composite = Buffer.wrap(segs);
+  }
+
+  @Benchmark
+  public Buffer wrap() {
+    return Buffer.wrap(segs);
+  }
+
+  @Benchmark
+  public Buffer wrapComposites() {
+    return Buffer.wrap(new Buffer[] { composite, composite });
+  }
+
+  @Benchmark
+  public byte[] toByteArray() {
+    return composite.toByteArray();
+  }
+}
@@ -8,6 +8,7 @@
 ;; ==== Buffer helpers
 
 (import-fn #'buffer/buffer?)
+(import-fn #'buffer/buffer-pool)
 (import-fn #'buffer/capacity)
 (import-fn #'buffer/collapsed?)
 (import-fn #'buffer/direct-buffer)
@@ -15,9 +16,18 @@
 (import-fn #'buffer/duplicate)
 (import-fn #'buffer/flip)
 (import-fn #'buffer/focus)
+(import-fn #'buffer/free)
+(import-fn #'buffer/growth-policy)
 (import-fn #'buffer/holds?)
+(import-fn #'buffer/immutable)
+(import-fn #'buffer/immutable?)
 (import-fn #'buffer/limit)
+(import-fn #'buffer/mapped-buffer)
+(import-fn #'buffer/pooled-buffer)
+(import-fn #'buffer/pooled?)
 (import-fn #'buffer/position)
+(import-fn #'buffer/read-only)
+(import-fn #'buffer/read-only?)
 (import-fn #'buffer/remaining)
 (import-fn #'buffer/remaining?)
 (import-fn #'buffer/reset)
@@ -49,16 +59,36 @@
 (import-fn #'async/async-seq?)
 (import-fn #'async/batch)
 (import-fn #'async/blocking)
+(import-fn #'async/blocking-executor)
+(import-fn #'async/bounded-channel)
 (import-fn #'async/channel)
 (import-fn #'async/close)
+(import-fn #'async/concat*)
+(import-fn #'async/deadline)
+(import-fn #'async/dispatcher)
 (import-fn #'async/enqueue)
+(import-fn #'async/filter*)
+(import-fn #'async/future-call*)
 (import-fn #'async/interrupt)
 (import-fn #'async/join)
+(import-fn #'async/join-n)
+(import-fn #'async/map*)
+(import-fn #'async/merge*)
+(import-fn #'async/on-abort)
+(import-fn #'async/partition-by-size*)
 (import-fn #'async/put)
+(import-fn #'async/put-all)
 (import-fn #'async/recur*)
+(import-fn #'async/reduce*)
+(import-fn #'async/set-blocking-executor!)
 (import-fn #'async/sink)
 (import-fn #'async/splice)
 (import-fn #'async/success?)
+(import-fn #'async/take*)
+(import-fn #'async/take-batch)
+(import-fn #'async/timeout)
+(import-fn #'async/virtual-threads?)
+(import-fn #'async/with-deadline)
 
 (import-macro #'async/doasync)
 (import-macro #'async/async-seq)
@@ -138,13 +138,30 @@
     AsyncPipeline$Catcher
     AsyncPipeline$Recur
     AsyncVal
+    AsyncRingBuffer
+    AsyncSeqs
     AsyncTransferQueue
+    Deadline
+    Dispatcher
+    IAsync
     Join
     SplicedAsyncSeq]
+   [momentum.buffer
+    Buffer]
+   [clojure.lang
+    Agent
+    ArrayChunk]
    [java.io
     Writer]
+   [java.lang.reflect
+    InvocationTargetException
+    Method]
    [java.util
-    LinkedHashMap]))
+    LinkedHashMap]
+   [java.util.concurrent
+    Executor
+    Executors
+    RejectedExecutionException]))
 
 (declare doasync)
 
@@ -202,6 +219,14 @@
   (receive [this success-fn _]
     (success-fn this)))
 
+(defn on-abort
+  "Invokes f with the exception if the asynchronous value is aborted
+  rather than realized. Lets a producer opt in to being interrupted,
+  so that it stops work (and frees what it holds) once nobody is
+  waiting for the value anymore."
+  [async-val f]
+  (receive async-val (fn [_]) f))
+
 (defn interrupt
   "Interrupts an asynchronous type with an optionally supplied
   string. Returns true if successful. Returns false otherwise."
@@ -227,12 +252,33 @@
 
 ;; ==== Async value ====
 
+(defn dispatcher
+  "Returns a policy for running the callbacks of an asynchronous value
+  once it is realized. With :inline (the default), callbacks run on
+  whichever thread realizes the value. With :trampoline, they run
+  inline until max-depth callbacks are nested (64 by default) and the
+  rest run once the stack unwinds. With a java.util.concurrent.Executor,
+  every callback is submitted to the executor."
+  ([policy]
+     (cond
+      (instance? Dispatcher policy) policy
+      (= :inline policy)            Dispatcher/INLINE
+      (= :trampoline policy)        (dispatcher :trampoline 64)
+      (instance? Executor policy)   (Dispatcher/executor policy)
+      :else
+      (throw (IllegalArgumentException. (str "Unknown dispatch policy: " policy)))))
+  ([policy max-depth]
+     (if (= :trampoline policy)
+       (Dispatcher/trampoline max-depth)
+       (throw (IllegalArgumentException. (str "Unknown dispatch policy: " policy))))))
+
 (defn async-val
   "Returns a new unrealized asynchronous value. Dereferencing will
   cause the current thread to block until the asynchronous value is
-  realized."
-  []
-  (AsyncVal.))
+  realized. Callbacks are run according to the dispatch policy, if
+  one is given."
+  ([]       (AsyncVal.))
+  ([policy] (AsyncVal. (dispatcher policy))))
 
 (defn join
   "Returns an asynchronous value representing the realization of the
@@ -243,6 +289,15 @@
   [& args]
   (Join. args))
 
+(defn join-n
+  "Returns an asynchronous value that will be realized once k of the
+  supplied arguments are realized, with those k values in the order
+  they were realized. It will be aborted as soon as so many arguments
+  have been aborted that k of them can no longer be realized, in which
+  case the arguments that are still outstanding are aborted as well."
+  [k & args]
+  (Join. (or args ()) (int k)))
+
 (defn recur*
   "Accepts an aribtrary number of arguments, passing them to
   join. Once the joined asynchronous value is realized, the current
@@ -297,27 +352,72 @@
     `(fn ~binding ~@stmts)
     `(fn [_#] ~binding ~@stmts)))
 
+(defn deadline
+  "Returns the deadline ms milliseconds from now, in System/nanoTime
+  terms, to be passed to with-deadline."
+  [ms]
+  (+ (System/nanoTime) (* 1000000 (long ms))))
+
+(defn with-deadline
+  "Aborts the asynchronous value with a TimeoutException unless it is
+  realized by the deadline. Aborting a doasync aborts the stage it is
+  waiting on, so a single deadline governs the whole chain. Returns
+  the asynchronous value."
+  [^Async async deadline]
+  (.withDeadline async (long deadline)))
+
+(defn timeout
+  "Aborts the asynchronous value with a TimeoutException unless it is
+  realized within ms milliseconds. Returns the asynchronous value."
+  [async ms]
+  (with-deadline async (deadline ms)))
+
+(defn- partition-opts
+  [clauses]
+  (loop [opts {} [k v & more :as clauses] clauses]
+    (if (keyword? k)
+      (recur (assoc opts k v) more)
+      [opts clauses])))
+
 (defn- thread-doasync
-  [stmt [stage & more] catches finally]
+  [stmt [stage & more] catches finally d]
   (if more
     (thread-doasync
      `(AsyncPipeline.
        ~stmt
        ~stage
        []
-       nil)
-     more catches finally)
+       nil
+       ~d)
+     more catches finally d)
     `(AsyncPipeline.
       ~stmt
       ~stage
       ~(wrap-catches catches)
-      ~(to-finally finally))))
+      ~(to-finally finally)
+      ~d)))
 
 (defmacro doasync
+  "Registers the stages on the seed, each one invoked with the value
+  realized by the previous one, followed by optional catch and finally
+  clauses. Options may precede the stages:
+
+    :dispatch  How the stages are run once the values they wait on are
+               realized, see dispatcher.
+    :timeout   Milliseconds for the whole chain to be realized in,
+               after which it is aborted with a TimeoutException
+               (seen by the catch clauses), see timeout."
   [seed & clauses]
-  (let [[stages catches finally] (partition-clauses clauses)]
+  (let [[opts clauses]           (partition-opts clauses)
+        [stages catches finally] (partition-clauses clauses)
+        d                        (gensym "dispatcher")]
     (if (or (seq stages) (seq catches) finally)
-      (thread-doasync seed stages catches finally)
+      (let [pipeline `(let [~d ~(when-let [policy (opts :dispatch)]
+                                  `(dispatcher ~policy))]
+                        ~(thread-doasync seed stages catches finally d))]
+        (if-let [ms (opts :timeout)]
+          `(timeout ~pipeline ~ms)
+          pipeline))
       seed)))
 
 ;; ==== Async seq ====
@@ -421,21 +521,74 @@
        coll
        (doasync (join (dec n) coll)
          (fn [n realized]
-           (if (and realized (< 0 n))
-             (recur* (join (dec n) (next realized)))
-             coll))))))
+           ;; The rest of a chunk is realized along with its first
+           ;; element
+           (let [chunked? (chunked-seq? realized)
+                 n        (if chunked?
+                            (- n (dec (count (chunk-first realized))))
+                            n)]
+             (if (and realized (< 0 n))
+               (recur* (join (dec n) (if chunked?
+                                       (chunk-rest realized)
+                                       (next realized))))
+               coll)))))))
 
 (defn map*
   "Returns an asynchronous sequence consisting of the result of recursively
   applying f to the set of first items of each coll once they become
-  realized. Function f should accept the number of colls arguments."
+  realized. Function f should accept the number of colls arguments. A
+  chunk of realized items is mapped in a single step, into a chunk."
   ([f coll]
-     (async-seq
-       (doasync coll
-         (fn [[v & more]]
-           (cons v (map* f more))))))
+     (AsyncSeqs/map f coll))
   ([f c1 & colls]
-     (throw (Exception. "Not implemented yet."))))
+     (AsyncSeqs/mapAll f (to-array (cons c1 colls)))))
+
+(defn filter*
+  "Returns an asynchronous sequence of the items in coll for which (pred
+  item) returns true, as they become realized."
+  [pred coll]
+  (AsyncSeqs/filter pred coll))
+
+(defn take*
+  "Returns an asynchronous sequence of the first n items in coll. Items
+  past the nth are never pulled on."
+  [n coll]
+  (AsyncSeqs/take (long n) coll))
+
+(defn concat*
+  "Returns an asynchronous sequence of the concatenation of the items
+  in the supplied colls."
+  [& colls]
+  (AsyncSeqs/concat colls))
+
+(defn merge*
+  "Returns an asynchronous sequence of the items of all the supplied
+  colls in the order they are realized. When items of several colls
+  are realized by the time the next item is pulled on, the colls
+  passed first take priority."
+  [& colls]
+  (AsyncSeqs/merge colls))
+
+(defn- default-size
+  [x]
+  (if (instance? Buffer x)
+    (.remaining ^Buffer x)
+    (count x)))
+
+(defn partition-by-size*
+  "Returns an asynchronous sequence of vectors of consecutive items in
+  coll, each holding just enough items for their combined size to
+  reach n. The size of an item is (size-fn item), which defaults to
+  the number of remaining bytes of buffers and to count
+  otherwise. The last vector may be smaller."
+  ([n coll]         (partition-by-size* n default-size coll))
+  ([n size-fn coll] (AsyncSeqs/partitionBySize (long n) size-fn coll)))
+
+(defn reduce*
+  "Returns an async value that is realized with the result of reducing
+  coll with f, as reduce does, once all of its items are realized."
+  ([f coll]      (AsyncSeqs/reduce f coll))
+  ([f init coll] (AsyncSeqs/reduce f init coll)))
 
 (defmacro doseq*
   "Repeatedly executes body (presumably for side-effects) with
@@ -449,9 +602,17 @@
   (let [[binding seq] seq-exprs]
     `(doasync (seq ~seq)
        (fn [s#]
-         (when-let [[~binding & more#] s#]
-           ~@body
-           (recur* more#))))))
+         (when-let [s# (seq s#)]
+           (if (chunked-seq? s#)
+             ;; Run the body over a whole chunk in a single step
+             (let [c# ^clojure.lang.IChunk (chunk-first s#)]
+               (dotimes [i# (count c#)]
+                 (let [~binding (.nth c# i#)]
+                   ~@body))
+               (recur* (chunk-rest s#)))
+             (let [[~binding & more#] s#]
+               ~@body
+               (recur* more#))))))))
 
 (defn splice
   "Returns an async seq that consists of map entries of the values of
@@ -474,18 +635,86 @@
          (.put args k v))
        (SplicedAsyncSeq. args))))
 
+(def ^{:private true} virtual-thread-executor-method
+  ;; Looked up reflectively so that the library still runs on JVMs
+  ;; that predate virtual threads.
+  (try
+    (.getMethod Executors "newVirtualThreadPerTaskExecutor" (make-array Class 0))
+    (catch NoSuchMethodException _ nil)))
+
+(defn- new-virtual-thread-executor
+  []
+  (when virtual-thread-executor-method
+    (try
+      (.invoke ^Method virtual-thread-executor-method nil (object-array 0))
+      ;; Virtual threads are a preview feature on some JVMs and are
+      ;; unavailable unless it is enabled.
+      (catch InvocationTargetException _ nil))))
+
+(def ^{:private true} virtual-thread-executor
+  (delay (new-virtual-thread-executor)))
+
+(defn virtual-threads?
+  "Returns true if the JVM is able to run tasks on virtual threads."
+  []
+  (boolean @virtual-thread-executor))
+
+(defn blocking-executor
+  "Returns an executor to run blocking work on. With :threads, work
+  runs on the same unbounded pool of platform threads as
+  clojure.core/future. With :virtual, every task runs on a new virtual
+  thread, so that parking (dereferencing an unrealized asynchronous
+  value, or walking a blocking seq) does not tie up a platform
+  thread. JVMs without virtual threads fall back to :threads. A
+  java.util.concurrent.Executor is returned as is."
+  [policy]
+  (cond
+   (instance? Executor policy) policy
+   (= :threads policy)         Agent/soloExecutor
+   (= :virtual policy)         (or @virtual-thread-executor Agent/soloExecutor)
+   :else
+   (throw (IllegalArgumentException. (str "Unknown executor policy: " policy)))))
+
+(def ^{:dynamic true
+       :doc "The executor that future* and blocking endpoint handlers
+  run on. Either bind it or set it globally with
+  set-blocking-executor!"}
+  *blocking-executor* Agent/soloExecutor)
+
+(defn set-blocking-executor!
+  "Sets the executor that future* and blocking endpoint handlers run
+  on for every thread. Takes the same policies as blocking-executor,
+  so (set-blocking-executor! :virtual) opts in to virtual threads."
+  [policy]
+  (alter-var-root #'*blocking-executor* (constantly (blocking-executor policy))))
+
+(defn future-call*
+  "Invokes the function with no arguments on the blocking executor
+  (or the given executor). Returns an asynchronous value that will be
+  realized with the result once the call completes."
+  ([f] (future-call* *blocking-executor* f))
+  ([^Executor executor f]
+     (let [val (async-val)
+           f   (bound-fn* f)]
+       (try
+         (.execute
+          executor
+          (fn []
+            (try
+              (put val (f))
+              (catch Exception e
+                (abort val e)))))
+         (catch RejectedExecutionException e
+           (abort val e)))
+       val)))
+
 (defmacro future*
   "Takes a body of expressions and invoke it in another
   thread. Returns an asynchronous value that will be realized with the
-  result once the computation completes."
+  result once the computation completes. The body runs on
+  *blocking-executor*, which can be switched to virtual threads."
   [& body]
-  `(let [val# (async-val)]
-     (future
-       (try
-         (put val# (do ~@body))
-         (catch Exception e#
-           (abort val# e#))))
-     val#))
+  `(future-call* (fn [] ~@body)))
 
 (defmethod print-method AsyncSeq
   [seq ^Writer w]
@@ -538,6 +767,7 @@
           ;; the channel, then an event must be sent downstream
           (let [new-paused? (full? ch)]
             (when-not (= paused? new-paused?)
+              (reset! (.paused? ch) new-paused?)
               (f (if new-paused? :pause :resume) nil))
 
             ;; Now, the counter can be decremented by the value read
@@ -556,17 +786,36 @@
     (when-let [f (.f ch)]
       (f :abort err))))
 
+(defn- drain
+  "Returns a chunk of v followed by the values that are already in the
+  queue, up to n values."
+  [^AsyncTransferQueue transfer v n]
+  (let [buf (chunk-buffer n)]
+    (chunk-append buf v)
+    (loop [i 1]
+      (when (< i n)
+        (let [v (.poll transfer ::none)]
+          (when-not (= ::none v)
+            (chunk-append buf v)
+            (recur (inc i))))))
+    (chunk buf)))
+
 (defn- channel-seq
-  [ch]
+  [ch n]
   (async-seq
     (doasync (.. ch transfer take)
       (fn [v]
         (when-not (= ::close-channel v)
-          (when (.f ch)
-            (toggle-availability ch))
-          (let [nxt (channel-seq ch)]
+          ;; Values that piled up while the consumer was busy are
+          ;; handed over as one chunk, in a single step
+          (let [chunk (when (< 1 n) (drain (.transfer ch) v n))
+                nxt   (channel-seq ch n)]
+            (when (.f ch)
+              (toggle-availability ch))
             (reset! (.head ch) nxt)
-            (cons v nxt))))
+            (if (and chunk (< 1 (count chunk)))
+              (chunk-cons chunk nxt)
+              (cons v nxt)))))
       (catch InterruptedException e
         (abort-ch ch e))
       (catch Exception e
@@ -575,15 +824,88 @@
 
 (defn channel
   "Returns a new channel. Calling seq with a channel returns an
-  asynchronous sequence of the values that are put into the channel."
+  asynchronous sequence of the values that are put into the channel.
+  With a chunk-size above 1, the sequence is chunked: each step hands
+  over all of the values (up to chunk-size) that were in the channel
+  at the time. The head of the channel then moves a whole chunk at a
+  time, so it should only be consumed through a single sequence."
   ([]  (channel nil 0))
   ([f] (channel f 1))
-  ([f capacity]
+  ([f capacity] (channel f capacity 1))
+  ([f capacity chunk-size]
      (let [qu (AsyncTransferQueue. ::close-channel)
            ch (Channel. qu (atom nil) (atom false) (atom 0) f capacity)]
-       (reset! (.head ch) (channel-seq ch))
+       (reset! (.head ch) (channel-seq ch chunk-size))
        ch)))
 
+(defn- batch-seq
+  [ch n]
+  (async-seq
+    (doasync (.takeBatch ^AsyncRingBuffer (.transfer ch) (int n))
+      (fn [batch]
+        (when-not (= ::close-channel batch)
+          (when (.f ch)
+            (toggle-availability ch))
+          (let [nxt (batch-seq ch n)]
+            (reset! (.head ch) nxt)
+            (chunk-cons (ArrayChunk. batch) nxt))))
+      (catch InterruptedException e
+        (abort-ch ch e))
+      (catch Exception e
+        (abort-ch ch e)
+        (throw e)))))
+
+(defn bounded-channel
+  "Returns a new channel that holds at most capacity values in a ring
+  buffer. Putting a value into a full channel fails and returns
+  false. If f is given, it is sent :pause once the channel fills up
+  and :resume once there is room again. Calling seq with the channel
+  returns a chunked asynchronous sequence, where each chunk holds all
+  of the values (up to batch-size) that were available when the
+  consumer got to it."
+  ([capacity]   (bounded-channel nil capacity))
+  ([f capacity] (bounded-channel f capacity capacity))
+  ([f capacity batch-size]
+     (let [qu (AsyncRingBuffer. capacity ::close-channel)
+           ch (Channel. qu (atom nil) (atom false) (atom 0) f capacity)]
+       (reset! (.head ch) (batch-seq ch batch-size))
+       ch)))
+
+(defn put-all
+  "Puts as many of the values into the channel as it has room
+  for. Returns the values that did not fit, or nil if all of them
+  did."
+  [ch vals]
+  (let [transfer (.transfer ch)]
+    (if (instance? AsyncRingBuffer transfer)
+      (let [ret (.putAll ^AsyncRingBuffer transfer (seq vals))]
+        (when (.f ch)
+          (toggle-availability ch))
+        ret)
+      (loop [vals (seq vals)]
+        (when vals
+          (if (put ch (first vals))
+            (recur (next vals))
+            vals))))))
+
+(defn take-batch
+  "Returns an asynchronous value realized with a vector of up to n of
+  the values in the channel as soon as there is at least one, or nil
+  once the channel is closed. Takes from the channel directly, so it
+  should not be mixed with consuming the channel's seq."
+  [ch n]
+  (let [transfer (.transfer ch)]
+    (doasync (if (instance? AsyncRingBuffer transfer)
+               (.takeBatch ^AsyncRingBuffer transfer (int n))
+               (.take ^AsyncTransferQueue transfer))
+      (fn [batch]
+        (when-not (= ::close-channel batch)
+          (when (.f ch)
+            (toggle-availability ch))
+          (if (instance? AsyncRingBuffer transfer)
+            (vec batch)
+            [batch]))))))
+
 (defn enqueue
   "Put multiple values into a channel."
   ([_])
@@ -599,25 +921,62 @@
   [ch]
   (.close (.transfer ch)))
 
+(defn- either
+  "Returns an asynchronous value realized with the key of whichever of
+  the two is realized first. The receiver left on the other one is
+  removed, since the events seq of a sink outlives every element that
+  is waited on along with it."
+  [^IAsync coll ^IAsync evts]
+  (let [ret (async-val)
+        rc  (reify momentum.async.Receiver
+              (success [_ _]   (put ret :coll))
+              (error   [_ err] (abort ret err)))
+        re  (reify momentum.async.Receiver
+              (success [_ _]   (put ret :evt))
+              (error   [_ err] (abort ret err)))
+        release (fn [_]
+                  (when (instance? Async coll) (.removeReceiver ^Async coll rc))
+                  (when (instance? Async evts) (.removeReceiver ^Async evts re)))]
+    (.receive coll rc)
+    (.receive evts re)
+    ;; Registered last, so that both receivers are in place by the time
+    ;; it runs
+    (receive ret release release)
+    ret))
+
 (defn- sink-seq
   [coll evts]
   (async-seq
-    (doasync (splice {:coll coll :evt (seq evts)})
-      (fn [[[k v]]]
-        (when v
-          (cond
-           (= :coll k)
-           (cons (first v) (sink-seq (next v) evts))
-
-           (= :pause (first v))
-           (doasync (next v)
+    (let [step (fn [coll]
+                 (when-let [coll (seq coll)]
+                   (if (chunked-seq? coll)
+                     (chunk-cons (chunk-first coll) (sink-seq (chunk-rest coll) evts))
+                     (cons (first coll) (sink-seq (rest coll) evts)))))]
+      (cond
+       ;; An event came in, hold off until the sink is resumed
+       (.observe ^AsyncSeq evts)
+       (let [[evt & more] evts]
+         (if (= :pause evt)
+           (doasync more
              (fn [[evt & more]]
                (if (= :pause evt)
                  (recur* more)
                  (sink-seq coll more))))
+           (sink-seq coll more)))
+
+       ;; In memory collections are sunk without waiting on anything
+       (not (instance? IAsync coll))
+       (step coll)
+
+       (.observe ^IAsync coll)
+       (step coll)
 
-           :else
-           (sink-seq coll (next v))))))))
+       :else
+       (doasync (either coll evts)
+         (fn [k]
+           (if (= :coll k)
+             (step coll)
+             (sink-seq coll evts))))))))
 
 ;; TODO: Don't hardcode this to :body events
 (defn sink
@@ -628,10 +987,16 @@
   (let [ch (channel)]
     (doasync (sink-seq coll (seq ch))
       (fn [coll]
-        (if-let [[el & more] coll]
-          (do
-            (dn :body el)
-            (recur* more))
+        (if-let [coll (seq coll)]
+          (if (chunked-seq? coll)
+            ;; A pause only takes effect once the chunk is written
+            (let [^clojure.lang.IChunk c (chunk-first coll)]
+              (dotimes [i (count c)]
+                (dn :body (.nth c i)))
+              (recur* (chunk-rest coll)))
+            (do
+              (dn :body (first coll))
+              (recur* (rest coll))))
           (dn :body nil)))
 
       ;; Handle exceptions by sending them downstream
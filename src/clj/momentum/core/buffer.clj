@@ -1,7 +1,13 @@
 (ns momentum.core.buffer
   (:import
    [momentum.buffer
-    Buffer]
+    Buffer
+    BufferPool
+    DirectBuffer
+    GrowthPolicy]
+   [java.io
+    File
+    RandomAccessFile]
    [java.nio
     ByteBuffer]
    [java.util
@@ -72,7 +78,7 @@
 
   String
   (into-buffer* [str dst _]
-    (.put dst (.getBytes str "UTF-8")))
+    (.putUtf8 ^Buffer dst ^String str))
 
   nil
   (into-buffer* [_ dst _] dst)
@@ -154,10 +160,69 @@
   [size]
   (Buffer/allocateDirect size))
 
+(defn mapped-buffer
+  "Maps the file (or a region of it) into memory and returns a
+  read-only buffer of its contents."
+  ([file]
+     (mapped-buffer file 0 (.length (File. (str file)))))
+  ([file offset len]
+     (let [f (RandomAccessFile. (str file) "r")]
+       (try
+         (Buffer/map (.getChannel f) offset len)
+         (finally
+          (.close f))))))
+
+(defn free
+  "Immediately frees the memory of a direct buffer. Neither the buffer
+  nor any slice of it may be used afterwards."
+  [^DirectBuffer buf]
+  (.free buf))
+
 (defn dynamic-buffer
-  ([]        (Buffer/dynamic))
-  ([est]     (Buffer/dynamic est))
-  ([est max] (Buffer/dynamic est max)))
+  ([]             (Buffer/dynamic))
+  ([est]          (Buffer/dynamic est))
+  ([est max]      (Buffer/dynamic est max))
+  ([est max pool] (Buffer/dynamic (int est) (int max) ^BufferPool pool))
+  ([est max pool growth]
+     (Buffer/dynamic (int est) (int max) ^BufferPool pool ^GrowthPolicy growth)))
+
+(defn growth-policy
+  "Returns a policy for growing dynamic buffers. The allocated memory
+  grows by factor each time, but never by more than max-segment-size at
+  once. Once a buffer is made of max-segments segments, they are
+  consolidated into one."
+  ([] GrowthPolicy/DEFAULT)
+  ([factor max-segment-size max-segments]
+     (GrowthPolicy. factor max-segment-size max-segments)))
+
+(defn buffer-pool
+  "Returns a pool of reusable buffer memory. With no arguments, returns
+  the shared default pool."
+  ([] BufferPool/DEFAULT)
+  ([max-cached] (BufferPool. max-cached)))
+
+(defn pooled-buffer
+  "Returns a buffer of the given size drawn from the pool (or the
+  default pool). The buffer's memory is returned to the pool once it
+  is released."
+  ([size]      (pooled-buffer size BufferPool/DEFAULT))
+  ([size pool] (Buffer/allocate (int size) ^BufferPool pool)))
+
+(defn pooled?
+  [^Buffer buf]
+  (.isPooled buf))
+
+(defn retain
+  "Increments the reference count of a pooled buffer."
+  [^Buffer buf]
+  (.retain buf))
+
+(defn release
+  "Decrements the reference count of a pooled buffer, returning its
+  memory to the pool once nothing references it anymore. Does nothing
+  for buffers that are not pooled."
+  [^Buffer buf]
+  (.release buf))
 
 (defn duplicate
   [^Buffer buf]
@@ -171,22 +236,21 @@
   [^Buffer buf size]
   (.limit buf (+ size (.position buf))))
 
-;; (defn freeze
-;;   [^Buffer buf]
-;;   (.freeze buf))
-
-;; (defn frozen?
-;;   [^Buffer buf]
-;;   (.isFrozen buf))
-
-;; ;; Temporary
-;; (def frozen frozen?)
-
 (defn holds?
   [^Buffer dst ^Buffer src]
   (>= (.remaining dst)
       (.remaining src)))
 
+(defn immutable
+  "Returns a read-only copy of the buffer that nothing can change.
+  Immutable buffers are not copied again."
+  [^Buffer buf]
+  (.toImmutable buf))
+
+(defn immutable?
+  [^Buffer buf]
+  (.isImmutable buf))
+
 (defn limit
   ([^Buffer buf]
      (.limit buf))
@@ -199,6 +263,18 @@
   ([^Buffer buf val]
      (.position buf val)))
 
+(defn read-only
+  "Returns a read-only view of the buffer. The view can be shared and
+  written out any number of times without copying its contents. It
+  still sees writes made through the original buffer, use immutable
+  for contents that must never change."
+  [^Buffer buf]
+  (.asReadOnly buf))
+
+(defn read-only?
+  [^Buffer buf]
+  (.isReadOnly buf))
+
 (defn remaining
   [buf]
   (.remaining buf))
@@ -208,6 +284,8 @@
   (.hasRemaining buf))
 
 (defn reset
+  "Discards the contents of the buffer so that it can be filled again
+  without allocating."
   [^Buffer buf]
   (.reset buf))
 
@@ -227,6 +305,12 @@
   [^Buffer buf]
   (.toChannelBuffer buf))
 
+(defn to-byte-buffers
+  "Returns an array of ByteBuffers viewing the remaining bytes of the
+  buffer without copying them."
+  [^Buffer buf]
+  (.toByteBuffers buf))
+
 (def EMPTY (buffer ""))
 
 (defn to-string
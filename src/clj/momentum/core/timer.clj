@@ -1,5 +1,7 @@
 (ns momentum.core.timer
   (:import
+   [momentum.async
+    Deadline]
    [org.jboss.netty.util
     HashedWheelTimer
     Timeout
@@ -12,7 +14,7 @@
   ([ms]
      (HashedWheelTimer. ms TimeUnit/MILLISECONDS)))
 
-(def global-timer (mk-timer 1000))
+(def global-timer (Deadline/timer))
 
 (defn- callbackify
   [f]
@@ -285,9 +285,19 @@
   [method uri hdrs request-body]
   (let [hdrs (merge {:http-version [1 1] :request-method method} (uri-map uri) hdrs)
         resp (async-val)
-        up   (atom nil)]
+        up   (atom nil)
+        conn (atom nil)]
+    ;; Close the connection if whoever is waiting for the response
+    ;; gives up on it
+    (on-abort
+     resp
+     (fn [err]
+       (when-let [dn @conn]
+         (dn :abort err))))
+
     (connect
      (fn [dn _]
+       (reset! conn dn)
        ;; A channel that is able to buffer 5 events before it invokes
        ;; the downstream fn with a pause.
        (let [ch (channel dn 5)]
@@ -323,7 +333,9 @@
               (upstream evt val))
 
             (= :abort evt)
-            (abort resp val)
+            (do
+              (reset! conn nil)
+              (abort resp val))
 
             :else
             (when-not (#{:done} evt)
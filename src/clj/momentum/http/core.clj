@@ -5,15 +5,18 @@
    [clojure.string       :as str]
    [momentum.http.parser :as parser])
   (:import
+   [momentum.buffer
+    Buffer]
    [java.io
+    File
     IOException]))
 
-(def SP         (buffer " "))
-(def QM         (buffer "?"))
-(def CRLF       (buffer "\r\n"))
+(def SP         (immutable (buffer " ")))
+(def QM         (immutable (buffer "?")))
+(def CRLF       (immutable (buffer "\r\n")))
 (def http-1-0   [1 0])
 (def http-1-1   [1 1])
-(def last-chunk (buffer "0\r\n\r\n"))
+(def last-chunk (immutable (buffer "0\r\n\r\n")))
 
 (def response-status-reasons
   {100 "Continue"
@@ -74,7 +77,7 @@
 
 (defn- hex
   [i]
-  (Integer/toHexString i))
+  (Long/toHexString (long i)))
 
 (defn throw-connection-reset-by-peer
   []
@@ -146,13 +149,23 @@
    false))
 
 (defn request-parser
-  "Wraps an upstream function with the basic HTTP parser."
-  [f]
-  (let [p (parser/request f)]
-    (fn [evt val]
-      (if (= :message evt)
-        (p val)
-        (f evt val)))))
+  "Wraps an upstream function with the basic HTTP parser. When a
+  buffer pool is supplied, buffered request bodies are drawn from it."
+  ([f] (request-parser f nil))
+  ([f pool]
+     (let [p (parser/request f pool)]
+       (fn [evt val]
+         (if (= :message evt)
+           (p val)
+           (f evt val))))))
+
+(defn opts->buffer-pool
+  "Returns the buffer pool that the :buffer-pool option refers to, if
+  any. Passing true selects the default pool."
+  [{pool :buffer-pool}]
+  (if (true? pool)
+    (buffer-pool)
+    pool))
 
 (defn response-parser
   [queue f]
@@ -165,23 +178,33 @@
 ;; Converting HTTP messages to buffers
 
 (def http-version-bytes
-  {http-1-0 (buffer "HTTP/1.0")
-   http-1-1 (buffer "HTTP/1.1")})
+  {http-1-0 (immutable (buffer "HTTP/1.0"))
+   http-1-1 (immutable (buffer "HTTP/1.1"))})
 
 (defn- http-version-to-bytes
   [v]
   (or (http-version-bytes (or v http-1-1))
       (throw (Exception. (str "Invalid HTTP version: " v)))))
 
-(defn- status-to-reason
+(def status-line-tails
+  (into {} (for [[status reason] response-status-reasons]
+             [status (str " " status " " reason "\r\n")])))
+
+(defn- status-to-line-tail
   [s]
-  (or (response-status-reasons s)
+  (or (status-line-tails s)
       (throw (Exception. (str "Invalid HTTP status: " s)))))
 
+;; Headers are encoded straight into the buffer without building any
+;; intermediate strings or byte arrays.
 (defn- write-message-header
-  [buf name val]
+  [^Buffer buf name val]
   (when-not (or (nil? val) (= "" val))
-    (write buf (str name) ": " (str val) CRLF)))
+    (doto buf
+      (.putUtf8 (str name))
+      (.putAscii ": ")
+      (.putUtf8 (str val))
+      (.putAscii "\r\n"))))
 
 (defn- write-message-headers
   [buf hdrs]
@@ -193,19 +216,21 @@
         (write-message-header buf name v-or-vals))))
 
   ;; Send the final CRLF
-  (write buf CRLF))
+  (.putAscii ^Buffer buf "\r\n"))
 
 (defn send-response
-  [dn status {version :http-version :as hdrs} body]
-  (let [buf (dynamic-buffer)
-        ver (http-version-to-bytes version)
-        rsn (status-to-reason status)]
-    (write buf ver SP (str status) SP rsn CRLF)
-    (write-message-headers buf hdrs)
-    (dn :message (flip buf)))
-
-  (when (and body (not (keyword? body)))
-    (dn :message body)))
+  ([dn status hdrs body] (send-response dn status hdrs body nil))
+  ([dn status {version :http-version :as hdrs} body pool]
+     (let [buf  (dynamic-buffer 1024 Integer/MAX_VALUE pool)
+           ver  (http-version-to-bytes version)
+           tail (status-to-line-tail status)]
+       (write buf ver)
+       (.putAscii ^Buffer buf ^String tail)
+       (write-message-headers buf hdrs)
+       (dn :message (flip buf)))
+
+     (when (and body (not (keyword? body)))
+       (dn :message body))))
 
 (defn- write-request-path
   [buf {path :path-info pfx :script-name qs :query-string}]
@@ -226,22 +251,43 @@
   (when (and body (not (keyword? body)))
     (dn :message body)))
 
-(defn send-chunk
-  [dn chunked? chunk]
-  (let [chunk (buffer chunk)]
-    (cond
-     (and chunked? chunk)
-     (let [size (hex (remaining chunk))]
-       (dn :message (wrap (buffer size CRLF) chunk CRLF)))
-
-     chunked?
-     (dn :message last-chunk)
+(defn file?
+  "Whether the body (or body chunk) is a file to be sent as is."
+  [chunk]
+  (instance? File chunk))
 
-     chunk
-     (dn :message chunk))))
+(defn send-chunk
+  ([dn chunked? chunk] (send-chunk dn chunked? chunk nil))
+  ([dn chunked? chunk pool]
+     (let [chunk (if (file? chunk) chunk (buffer chunk))]
+       (cond
+        (and chunked? (file? chunk))
+        (let [head (dynamic-buffer 16 Integer/MAX_VALUE pool)]
+          (write head (hex (.length ^File chunk)) CRLF)
+          (dn :message (flip head))
+          (dn :message chunk)
+          (dn :message CRLF))
+
+        (and chunked? chunk)
+        (let [size (hex (remaining chunk))
+              head (dynamic-buffer 16 Integer/MAX_VALUE pool)]
+          (write head size CRLF)
+          (dn :message (wrap (flip head) chunk CRLF)))
+
+        chunked?
+        (dn :message last-chunk)
+
+        chunk
+        (dn :message chunk)))))
 
 (defn chunk-size
   [chunk]
-  (if (or (nil? chunk) (keyword? chunk))
-    0
-    (remaining chunk)))
+  (cond
+   (or (nil? chunk) (keyword? chunk))
+   0
+
+   (file? chunk)
+   (.length ^File chunk)
+
+   :else
+   (remaining chunk)))
@@ -0,0 +1,102 @@
+(ns momentum.http.digest
+  (:use momentum.core)
+  (:require
+   [momentum.util.base64 :as base64]
+   [momentum.util.digest :as digest]))
+
+(defn- mk-digests
+  [algorithms]
+  (into {} (map (fn [algorithm] [algorithm (digest/digest algorithm)]) algorithms)))
+
+(defn- update-digests
+  [digests chunk]
+  (doseq [d (vals digests)]
+    (digest/update d chunk)))
+
+(defn- finish-digests
+  [digests]
+  (into {} (map (fn [[algorithm d]] [algorithm (digest/finish d)]) digests)))
+
+(defn- mismatch
+  [hdrs digests]
+  (when-let [expected (hdrs "content-md5")]
+    (when (not= (base64/decode expected) (digests "MD5"))
+      (Exception. (str "Content-MD5 mismatch, expected: " expected)))))
+
+(defn- digester
+  [stream digest? {algorithms :algorithms verify? :verify on-digest :on-digest}]
+  (if-not digest?
+    stream
+    (let [msg (atom nil)
+          ;; Hands off the digests and returns the error to abort
+          ;; with, if any
+          done (fn [evt hdrs digests]
+                 (let [digests (finish-digests digests)]
+                   (when on-digest
+                     (on-digest evt hdrs digests))
+                   (when verify?
+                     (mismatch hdrs digests))))]
+      (fn [evt val]
+        (cond
+         (#{:request :response} evt)
+         (let [hdrs (if (= :request evt) (first val) (second val))
+               body (last val)
+               algorithms (if (and verify? (hdrs "content-md5"))
+                            (conj algorithms "MD5")
+                            algorithms)]
+           (reset! msg nil)
+           (cond
+            (= :chunked body)
+            (do
+              (reset! msg [evt hdrs (mk-digests algorithms)])
+              (stream evt val))
+
+            (or (buffer? body) (string? body))
+            (let [digests (mk-digests algorithms)]
+              (update-digests digests (buffer body))
+              (if-let [err (done evt hdrs digests)]
+                (stream :abort err)
+                (stream evt val)))
+
+            :else
+            (stream evt val)))
+
+         (and (= :body evt) @msg)
+         (let [[msg-evt hdrs digests] @msg]
+           (if val
+             (do
+               (update-digests digests (buffer val))
+               (stream evt val))
+             ;; The end of the body is held back until it is verified
+             (do
+               (reset! msg nil)
+               (if-let [err (done msg-evt hdrs digests)]
+                 (stream :abort err)
+                 (stream evt val)))))
+
+         :else
+         (stream evt val))))))
+
+(def default-opts
+  {:upstream   true
+   :downstream true
+   :algorithms #{"MD5"}
+   :verify     true
+   :on-digest  nil})
+
+(defn middleware
+  "Computes digests of request and response bodies as the chunks pass
+  through, without buffering them. Once a body is complete,
+  (on-digest evt hdrs digests) is called with a map of algorithm name
+  to digest. When :verify is set, a body that does not match its
+  content-md5 header ends with an :abort instead."
+  ([app] (middleware app {}))
+  ([app opts]
+     (let [opts        (merge default-opts opts)
+           opts        (assoc opts :algorithms (set (opts :algorithms)))
+           upstream?   (opts :upstream)
+           downstream? (opts :downstream)]
+       (fn [dn env]
+         (digester
+          (app (digester dn downstream? opts) env)
+          upstream? opts)))))
@@ -3,6 +3,7 @@
    momentum.core
    momentum.http.routing)
   (:require
+   [momentum.core.async :as async]
    [momentum.http.websocket :as websocket]))
 
 (defn map-request
@@ -14,10 +15,18 @@
    :else
    (assoc hdrs :body body)))
 
+(defn- invoke-handler
+  [f request executor]
+  (if executor
+    ;; The handler may itself return an async value, which has to be
+    ;; waited on as well
+    (doasync (future-call* (executor) #(f request)) identity)
+    (f request)))
+
 (defn- handle-request
-  [f dn [hdrs body] ch up]
+  [f dn [hdrs body] ch up executor]
   (try
-    (doasync (f (map-request ch hdrs body))
+    (doasync (invoke-handler f (map-request ch hdrs body) executor)
       (fn [[status hdrs body]]
         (if (coll? body)
           (let [type (if (= 101 status) :upgraded :chunked)]
@@ -29,33 +38,56 @@
     (catch Exception e
       (dn :abort e))))
 
+;; Returns a function returning the executor to invoke the handler on,
+;; or nil to invoke it on the I/O thread
+(defn- handler-executor
+  [{:keys [blocking]}]
+  (cond
+   (true? blocking)
+   (fn [] async/*blocking-executor*)
+
+   blocking
+   (constantly (blocking-executor blocking))))
+
 (defn endpoint*
-  [f]
-  (fn [dn _]
-    (let [ch (channel dn 5)
-          up (atom nil)]
-      (fn [evt val]
-        (cond
-         (= :request evt)
-         (handle-request f dn val ch up)
-
-         (= :body evt)
-         (if val
-           (put ch val)
-           (close ch))
-
-         (#{:pause :resume} evt)
-         (when-let [upstream @up]
-           (upstream evt val)))))))
+  "Returns an app that invokes f with each request. With :blocking
+  set, f is invoked on an executor rather than on the I/O thread, so
+  it may block (for example, by walking (blocking (request
+  :input))). :blocking may be true for *blocking-executor*, :virtual
+  for virtual threads, or any policy accepted by blocking-executor."
+  ([f] (endpoint* f {}))
+  ([f opts]
+     (let [executor (handler-executor opts)]
+       (fn [dn _]
+         (let [ch (channel dn 5)
+               up (atom nil)]
+           (fn [evt val]
+             (cond
+              (= :request evt)
+              (handle-request f dn val ch up executor)
+
+              (= :body evt)
+              (if val
+                (put ch val)
+                (close ch))
+
+              (#{:pause :resume} evt)
+              (when-let [upstream @up]
+                (upstream evt val)))))))))
 
 (defmacro endpoint
+  "Defines an app from a set of routes. An options map may precede the
+  routes, it is passed to endpoint* for each of them."
   [& routes]
-  `(websocket/proto
-    (routing
-     ~@(map
-        (fn [[method path binding & stmts]]
-          (let [expr `(endpoint* (fn ~binding ~@stmts))]
-            (if (= method 'ANY)
-              `(match ~path ~expr)
-              `(match ~(keyword method) ~path ~expr))))
-        routes))))
+  (let [[opts routes] (if (map? (first routes))
+                        [(first routes) (rest routes)]
+                        [{} routes])]
+    `(websocket/proto
+      (routing
+       ~@(map
+          (fn [[method path binding & stmts]]
+            (let [expr `(endpoint* (fn ~binding ~@stmts) ~opts)]
+              (if (= method 'ANY)
+                `(match ~path ~expr)
+                `(match ~(keyword method) ~path ~expr))))
+          routes)))))
@@ -68,9 +68,11 @@
       (f :message buf))))
 
 (defn request
-  [f]
-  (let [parser (HttpParser/request (mk-callback f))]
-    (fn [buf] (.execute parser buf))))
+  ([f] (request f nil))
+  ([f pool]
+     (let [parser (HttpParser/request (mk-callback f))]
+       (.setBufferPool parser pool)
+       (fn [buf] (.execute parser buf)))))
 
 (defn response
   ([f] (response (LinkedBlockingQueue.) f))
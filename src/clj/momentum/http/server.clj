@@ -200,10 +200,10 @@
    state
    (fn [current-state]
      (cond
-      (buffer? chunk)
+      (or (buffer? chunk) (file? chunk))
       (let [bytes-sent     (.bytes-to-send current-state)
             bytes-expected (.bytes-expected current-state)
-            bytes-to-send  (+ bytes-sent (remaining chunk))
+            bytes-to-send  (+ bytes-sent (chunk-size chunk))
             responded?     (= bytes-expected bytes-to-send)]
         (assoc current-state
           :bytes-to-send bytes-to-send
@@ -471,17 +471,17 @@
                     [evt val]))))))))))
 
 (defn- encoder
-  [dn]
+  [dn pool]
   (let [chunked? (atom nil)]
     (fn [evt val]
       (cond
        (= :response evt)
        (let [[status hdrs body] val]
          (reset! chunked? (= (hdrs "transfer-encoding") "chunked"))
-         (send-response dn status hdrs body))
+         (send-response dn status hdrs body pool))
 
        (= :body evt)
-       (send-chunk dn @chunked? val)
+       (send-chunk dn @chunked? val pool)
 
        :else
        (dn evt val)))))
@@ -489,10 +489,12 @@
 (defn proto
   ([app] (proto app {}))
   ([app opts]
-     (let [app (handler app opts)]
+     (let [app  (handler app opts)
+           pool (opts->buffer-pool opts)]
        (fn [dn env]
          (request-parser
-          (app (encoder dn) env))))))
+          (app (encoder dn pool) env)
+          pool)))))
 
 (defn start
   ([app] (start app {}))
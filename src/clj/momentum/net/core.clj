@@ -4,11 +4,19 @@
    momentum.core.atomic
    momentum.net.message)
   (:import
+   [momentum.buffer
+    Buffer
+    CompositeBuffer]
+   [momentum.net
+    BufferRegion
+    MappedFileInput]
    [org.jboss.netty.buffer
     ChannelBuffer
     ChannelBuffers]
    [org.jboss.netty.channel
+    Channel
     Channels
+    DefaultFileRegion
     ChannelEvent
     ChannelFuture
     ChannelFutureListener
@@ -18,15 +26,21 @@
     ChannelUpstreamHandler
     ExceptionEvent
     MessageEvent]
+   [org.jboss.netty.handler.stream
+    ChunkedWriteHandler]
    [org.jboss.netty.channel.group
     ChannelGroup
     ChannelGroupFuture
     ChannelGroupFutureListener
     DefaultChannelGroup]
+   [java.io
+    File
+    RandomAccessFile]
    [java.net
     InetSocketAddress]
    [java.nio.channels
-    ClosedChannelException]
+    ClosedChannelException
+    FileChannel]
    [java.util
     LinkedList]
    [java.util.concurrent
@@ -306,12 +320,77 @@
           (catch Exception err
             (handle-err state err @state)))))))
 
+(defn- gathering?
+  "Whether buffers can be written straight to the socket. Handlers that
+  the application added to the pipeline might expect ChannelBuffers."
+  [^Channel ch]
+  (let [pipeline (.getPipeline ch)]
+    (identical? (.getFirst pipeline) (.getLast pipeline))))
+
 (defn- encode
-  [val]
+  [ch val]
   (if (buffer? val)
-    (to-channel-buffer val)
+    ;; Composites made of several chunks of memory go out with a single
+    ;; gathering write instead of being merged first. Other buffers are
+    ;; handed to Netty as a ChannelBuffer without being split up into
+    ;; ByteBuffers first.
+    (if (and (instance? CompositeBuffer val) (gathering? ch))
+      (let [bufs (.toByteBuffers ^Buffer val)]
+        (if (< 1 (alength bufs))
+          (BufferRegion. bufs)
+          (to-channel-buffer val)))
+      (to-channel-buffer val))
     val))
 
+;; Netty holds its own reference to a pooled buffer while writing it, so
+;; the memory can't go back to the pool before the write is done. The
+;; caller's reference is left alone.
+(defn- release-when-written
+  [^ChannelFuture future ^Buffer buf]
+  (.addListener
+   future
+   (reify ChannelFutureListener
+     (operationComplete [_ _]
+       (.release buf)))))
+
+(def max-mapped-chunk (* 16 1024 1024))
+
+;; Mapped files are streamed by a ChunkedWriteHandler, which maps the
+;; next chunk only once the channel is writable again and queues
+;; anything written after the file behind it. It goes right before the
+;; application's handler, so the chunks go through the rest of the
+;; pipeline.
+(defn- ensure-chunked-writer
+  [^Channel ch]
+  (let [pipeline (.getPipeline ch)]
+    (when-not (.get pipeline "chunked-writer")
+      (.addBefore pipeline "handler" "chunked-writer" (ChunkedWriteHandler.)))))
+
+(defn- write-file
+  "Writes the file to the channel. When nothing else in the pipeline
+  needs to see the bytes, the kernel copies the file straight to the
+  socket (sendfile). Otherwise, the file is memory mapped and written
+  in chunks, which still keeps it off the heap."
+  [^Channel ch ^File file]
+  (let [fc  (.getChannel (RandomAccessFile. file "r"))
+        len (.size fc)]
+    (cond
+     (zero? len)
+     (do (.close fc)
+         (.write ch ChannelBuffers/EMPTY_BUFFER))
+
+     (gathering? ch)
+     (let [region (DefaultFileRegion. fc 0 len)]
+       (doto (.write ch region)
+         (.addListener
+          (reify ChannelFutureListener
+            (operationComplete [_ _]
+              (.releaseExternalResources region))))))
+
+     :else
+     (do (ensure-chunked-writer ch)
+         (.write ch (MappedFileInput. fc len max-mapped-chunk))))))
+
 (defn- mk-netty-downstream-fn
   [state]
   (fn [evt val]
@@ -322,8 +401,19 @@
          (when-not (.isOpen ch)
            (throw (ClosedChannelException.)))
 
-         (let [last-write (.write ch (encode val))]
-           (swap! state #(assoc % :last-write last-write))))
+         (if (and (buffer? val) (pooled? val))
+           (let [last-write (do (.retain ^Buffer val)
+                                (try
+                                  (.write ch (encode ch val))
+                                  (catch Exception e
+                                    (.release ^Buffer val)
+                                    (throw e))))]
+             (release-when-written last-write val)
+             (swap! state #(assoc % :last-write last-write)))
+           (let [last-write (if (instance? File val)
+                              (write-file ch val)
+                              (.write ch (encode ch val)))]
+             (swap! state #(assoc % :last-write last-write)))))
 
        (= :close evt)
        (close-channel current-state)
@@ -6,6 +6,8 @@
    [org.jboss.netty.bootstrap
     Bootstrap
     ServerBootstrap]
+   [org.jboss.netty.buffer
+    DirectChannelBufferFactory]
    [org.jboss.netty.channel
     ChannelPipelineFactory]
    [org.jboss.netty.channel.group
@@ -53,6 +55,8 @@
        (assoc opts "reuseAddress" v "child.reuseAddress" v)
        (= :connect-timeout k)
        (assoc opts "child.connectTimeoutMillis" v)
+       (and (= :direct-buffers k) v)
+       (assoc opts "child.bufferFactory" (DirectChannelBufferFactory/getInstance))
        :else
        opts))
     {}
@@ -4,37 +4,54 @@
    [momentum.buffer
     Buffer]
    [momentum.util
-    Base64]))
+    Base64Decoder
+    Base64Encoder]))
 
 (defprotocol IBase64
-  (^{:private true} encode64 [o chunked?])
-  (^{:private true} decode64 [o]))
+  (^{:private true} to-base64-buffer [o]))
 
 (extend-protocol IBase64
   (class (byte-array 0))
-  (encode64 [o chunked?]
-    (buffer (Base64/encodeBase64 o chunked?)))
-  (decode64 [o]
-    (buffer (Base64/decodeBase64 o)))
+  (to-base64-buffer [o] (Buffer/wrap o))
 
   nil
-  (encode64 [_ _] nil)
-  (decode64 [_] nil)
+  (to-base64-buffer [_] nil)
 
   String
-  (encode64 [o chunked?]
-    (encode64 (.getBytes o) chunked?))
-  (decode64 [o]
-    (buffer (Base64/decodeBase64 o)))
+  (to-base64-buffer [o] (Buffer/wrap o))
 
   Buffer
-  (encode64 [buf chunked?]
-    (encode64 (.toByteArray buf) chunked?))
-  (decode64 [buf]
-    (buffer (decode64 (.toByteArray buf)))))
+  (to-base64-buffer [buf] (.slice buf)))
+
+(defn encoder
+  "Returns an encoder that encodes a stream chunk by chunk from one
+  buffer into another. Chunked encoders break the output into lines of
+  76 characters."
+  ([] (encoder false))
+  ([chunked?]
+     (Base64Encoder. false (if chunked? Base64Encoder/MIME_LINE_LENGTH 0))))
+
+(defn decoder
+  "Returns a decoder that decodes a stream chunk by chunk from one
+  buffer into another."
+  []
+  (Base64Decoder.))
 
 (defn encode
-  ([o] (encode64 o false))
-  ([o chunked?] (encode64 o chunked?)))
+  ([o] (encode o false))
+  ([o chunked?]
+     (when-let [^Buffer src (to-base64-buffer o)]
+       (let [^Base64Encoder enc (encoder chunked?)
+             dst (Buffer/allocate (.maxEncodedLength enc (.remaining src)))]
+         (.encode enc src dst)
+         (.finish enc dst)
+         (.flip dst)))))
 
-(def decode decode64)
+(defn decode
+  [o]
+  (when-let [^Buffer src (to-base64-buffer o)]
+    (let [^Base64Decoder dec (decoder)
+          dst (Buffer/allocate (.maxDecodedLength dec (.remaining src)))]
+      (.decode dec src dst)
+      (.finish dec dst)
+      (.flip dst))))
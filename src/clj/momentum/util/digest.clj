@@ -20,9 +20,20 @@
   (update-digest [str digest]
     (update-digest (.getBytes str) digest))
 
+  ;; Feed each segment's memory to the digest where it lies, without
+  ;; copying it into an array first
   Buffer
   (update-digest [buf digest]
-    (update-digest (to-byte-array buf) digest)))
+    (doseq [^ByteBuffer seg (.toByteBuffers ^Buffer buf)]
+      (.update ^MessageDigest digest seg)))
+
+  ;; Hash a view so that the buffer's position is left alone
+  ByteBuffer
+  (update-digest [buf digest]
+    (.update ^MessageDigest digest (.duplicate ^ByteBuffer buf)))
+
+  nil
+  (update-digest [_ _]))
 
 (defn update
   [digest o]
@@ -32,9 +43,24 @@
   [digest]
   (buffer (.digest digest)))
 
-(defn sha1
-  ([] (MessageDigest/getInstance "SHA1"))
-  ([o]
-     (let [digest (sha1)]
+(defn digest
+  "Returns a new digest for the named algorithm, or the digest of o when
+  given. The digest can be fed chunk by chunk with update as data comes
+  in and then finished."
+  ([algorithm] (MessageDigest/getInstance algorithm))
+  ([algorithm o]
+     (let [digest (digest algorithm)]
        (update digest o)
        (finish digest))))
+
+(defn sha1
+  ([]  (digest "SHA1"))
+  ([o] (digest "SHA1" o)))
+
+(defn sha256
+  ([]  (digest "SHA-256"))
+  ([o] (digest "SHA-256" o)))
+
+(defn md5
+  ([]  (digest "MD5"))
+  ([o] (digest "MD5" o)))
@@ -2,7 +2,21 @@
   (:use momentum.core)
   (:import
    [momentum.util
-    Hex]))
+    Hex
+    HexDecoder
+    HexEncoder]))
+
+(defn encoder
+  "Returns an encoder that encodes a stream chunk by chunk from one
+  buffer into another."
+  []
+  (HexEncoder.))
+
+(defn decoder
+  "Returns a decoder that decodes a stream chunk by chunk from one
+  buffer into another."
+  []
+  (HexDecoder.))
 
 (defn encode
   [o]
@@ -6,40 +6,41 @@ import java.util.concurrent.locks.LockSupport;
 
 public abstract class Async<T> extends AFn implements IAsync {
 
-  static class Node {
+  /*
+   * A list of waiters, used once a second one registers
+   */
+  static final class Node {
     /*
      * Next node
      */
     final Node next;
 
     /*
-     * Callback to invoke
-     */
-    final Receiver cb;
-
-    /*
-     * Thread waiting on async object
+     * Receiver or MultiReceiver to invoke, or thread waiting on async object
      */
-    final Thread th;
+    final Object waiter;
 
-    Node(Node next, Receiver cb, Thread t) {
-      this.next = next;
-      this.cb   = cb;
-      this.th   = t;
+    Node(Node next, Object waiter) {
+      this.next   = next;
+      this.waiter = waiter;
     }
   }
 
-  static final Node REALIZED = new Node(null, null, null);
+  static final Object REALIZED = new Object();
 
   /*
-   * Whether or not the async object is realized
+   * Whether or not the async object has been claimed by put / abort, 1 once
+   * it has
    */
-  private final AtomicBoolean isRealized = new AtomicBoolean();
+  private volatile int claimed;
 
   /*
-   * Is there a thread waiting for the async object to become realized
+   * The waiters to notify when the async object becomes realized, or
+   * REALIZED once it is. Nearly every async object only ever has a single
+   * waiter, which is held directly (a Receiver or a Thread) rather than in a
+   * Node. Only a second waiter inflates the field to a list.
    */
-  private boolean isBlocked;
+  private volatile Object state;
 
   /*
    * The realized value of the async object
@@ -51,6 +52,38 @@ public abstract class Async<T> extends AFn implements IAsync {
    */
   Exception err;
 
+  /*
+   * How callbacks are run once the async object is realized, null meaning
+   * inline on the realizing thread
+   */
+  Dispatcher dispatcher;
+
+  /*
+   * Sets how callbacks are run once the async object is realized. Must be
+   * called before any callbacks are registered.
+   */
+  public final void dispatchWith(Dispatcher d) {
+    dispatcher = Dispatcher.normalize(d);
+  }
+
+  public final Dispatcher dispatcher() {
+    return dispatcher == null ? Dispatcher.INLINE : dispatcher;
+  }
+
+  /*
+   * Aborts the async object with a TimeoutException unless it is realized
+   * by the deadline, given in System.nanoTime() terms. Aborting a pipeline
+   * aborts whatever stage it is waiting on, so a single deadline covers a
+   * whole chain of stages.
+   */
+  public final Async<T> withDeadline(long nanos) {
+    if (!isRealized()) {
+      new Deadline(this, nanos).start();
+    }
+
+    return this;
+  }
+
   public T val() {
     return val;
   }
@@ -59,17 +92,12 @@ public abstract class Async<T> extends AFn implements IAsync {
     return err;
   }
 
-  /*
-   * The callbacks to invoke when the deferred value becomes realized
-   */
-  final AtomicReference<Node> head = new AtomicReference<Node>();
-
   public boolean observe() {
     return isRealized();
   }
 
   final public boolean isRealized() {
-    return head.get() == REALIZED;
+    return state == REALIZED;
   }
 
   final public boolean isSuccessful() {
@@ -95,7 +123,7 @@ public abstract class Async<T> extends AFn implements IAsync {
   }
 
   final protected boolean realizeSuccess(T v) {
-    if (!isRealized.compareAndSet(false, true)) {
+    if (!CLAIMED.compareAndSet(this, 0, 1)) {
       return false;
     }
 
@@ -107,7 +135,7 @@ public abstract class Async<T> extends AFn implements IAsync {
   }
 
   final protected boolean realizeError(Exception e) {
-    if (!isRealized.compareAndSet(false, true)) {
+    if (!CLAIMED.compareAndSet(this, 0, 1)) {
       return false;
     }
 
@@ -122,32 +150,116 @@ public abstract class Async<T> extends AFn implements IAsync {
       throw new NullPointerException("Receiver is null");
     }
 
-    if (listen(r, null)) {
+    if (listen(r)) {
+      deliver(r, err == null);
+    }
+  }
+
+  final void receive(MultiReceiver r) {
+    if (listen(r)) {
       deliver(r, err == null);
     }
   }
 
-  final private boolean listen(Receiver r, Thread t) {
-    Node curr, node;
+  final private boolean listen(Object waiter) {
+    Object curr, next;
 
     // Clean up the observe concept
     observe();
 
     do {
-      curr = head.get();
+      curr = state;
 
       // If the async object is already realized, then just deliver it now
       if (curr == REALIZED) {
         return true;
       }
 
-      node = new Node(curr, r, t);
+      if (curr == null) {
+        next = waiter;
+      }
+      else if (curr instanceof Node) {
+        next = new Node((Node) curr, waiter);
+      }
+      else {
+        next = new Node(new Node(null, curr), waiter);
+      }
 
-    } while (!head.compareAndSet(curr, node));
+    } while (!STATE.compareAndSet(this, curr, next));
 
     return false;
   }
 
+  /*
+   * Deregisters a receiver that has not been invoked yet, so that an async
+   * object which is never realized does not hold on to it. Returns true if
+   * the receiver was removed.
+   */
+  final public boolean removeReceiver(Receiver r) {
+    return unlisten(r);
+  }
+
+  final boolean unlisten(Object waiter) {
+    Object curr, next;
+
+    do {
+      curr = state;
+
+      if (curr == waiter) {
+        next = null;
+      }
+      else if (curr instanceof Node) {
+        next = without((Node) curr, waiter);
+
+        if (next == curr) {
+          return false;
+        }
+      }
+      else {
+        return false;
+      }
+
+    } while (!STATE.compareAndSet(this, curr, next));
+
+    return true;
+  }
+
+  // Returns the waiters without the given one, or the list itself if the
+  // waiter is not in it. The nodes after the waiter are shared, the ones
+  // before it are copied.
+  private static Object without(Node list, Object waiter) {
+    int n = 0;
+    Node node;
+
+    for (node = list; node != null && node.waiter != waiter; node = node.next) {
+      ++n;
+    }
+
+    if (node == null) {
+      return list;
+    }
+
+    Node ret = node.next;
+    Object[] prefix = new Object[n];
+
+    node = list;
+
+    for (int i = 0; i < n; ++i, node = node.next) {
+      prefix[i] = node.waiter;
+    }
+
+    for (int i = n - 1; i >= 0; --i) {
+      ret = new Node(ret, prefix[i]);
+    }
+
+    // Deflate back to a single waiter
+    if (ret != null && ret.next == null) {
+      return ret.waiter;
+    }
+
+    return ret;
+  }
+
   /*
    * I(Blocking)Deref API
    */
@@ -160,7 +272,7 @@ public abstract class Async<T> extends AFn implements IAsync {
   }
 
   final private Object deref(boolean timed, long nanos, Object timeoutValue) {
-    if (!listen(null, Thread.currentThread())) {
+    if (!listen(Thread.currentThread())) {
       long lastTime = timed ? System.nanoTime() : 0L;
 
       // Loop & park current thread until the async object is realized
@@ -181,7 +293,7 @@ public abstract class Async<T> extends AFn implements IAsync {
           LockSupport.park();
         }
 
-      } while (head.get() != REALIZED);
+      } while (state != REALIZED);
     }
 
     // Successfully waited for the async object to realize
@@ -194,31 +306,68 @@ public abstract class Async<T> extends AFn implements IAsync {
   }
 
   final void deliverAll(boolean success) {
-    Node curr = head.getAndSet(REALIZED);
+    Object curr = STATE.getAndSet(this, REALIZED);
 
-    while (curr != null) {
-      if (curr.cb != null) {
-        deliver(curr.cb, success);
-      }
-      else {
-        LockSupport.unpark(curr.th);
+    if (curr instanceof Node) {
+      for (Node node = (Node) curr; node != null; node = node.next) {
+        notify(node.waiter, success);
       }
+    }
+    else if (curr != null) {
+      notify(curr, success);
+    }
+  }
+
+  private void notify(Object waiter, boolean success) {
+    if (waiter instanceof Thread) {
+      LockSupport.unpark((Thread) waiter);
+    }
+    else {
+      deliver(waiter, success);
+    }
+  }
 
-      curr = curr.next;
+  final void deliver(final Object r, final boolean success) {
+    if (dispatcher == null) {
+      deliverNow(r, success);
+      return;
     }
+
+    dispatcher.dispatch(new Runnable() {
+        public void run() {
+          deliverNow(r, success);
+        }
+      });
   }
 
-  final void deliver(Receiver r, boolean success) {
+  final void deliverNow(Object r, boolean success) {
     try {
-      if (success) {
-        r.success(val);
+      if (r instanceof Receiver) {
+        if (success) {
+          ((Receiver) r).success(val);
+        }
+        else {
+          ((Receiver) r).error(err);
+        }
+      }
+      else if (success) {
+        ((MultiReceiver) r).success(this, val);
       }
       else {
-        r.error(err);
+        ((MultiReceiver) r).error(this, err);
       }
     }
     catch (Exception e) {
       // Just ignore this for now
     }
   }
+
+  // Field updaters can't be parameterized by a generic class
+  @SuppressWarnings("rawtypes")
+  static final AtomicIntegerFieldUpdater<Async> CLAIMED =
+    AtomicIntegerFieldUpdater.newUpdater(Async.class, "claimed");
+
+  @SuppressWarnings("rawtypes")
+  static final AtomicReferenceFieldUpdater<Async, Object> STATE =
+    AtomicReferenceFieldUpdater.newUpdater(Async.class, Object.class, "state");
 }
@@ -114,6 +114,12 @@ public final class AsyncPipeline extends Async<Object> {
    */
   IAsync pending;
 
+  /*
+   * The receiver registered on pending, so that it can be deregistered if
+   * the pipeline is aborted.
+   */
+  Receiver listening;
+
   /*
    * Pending return value from catch expr. Cannot be combined with
    * pending as it is possible for a thread to set pending after caught
@@ -137,27 +143,61 @@ public final class AsyncPipeline extends Async<Object> {
   final IFn finalizer;
 
   public AsyncPipeline(Object seed, IFn h, List<Catcher> c, IFn f) {
-    handler   = h;
-    catchers  = c;
-    finalizer = f;
+    this(seed, h, c, f, null);
+  }
+
+  /*
+   * The stages of the pipeline, and the callbacks registered on it, are run
+   * by the given dispatcher.
+   */
+  public AsyncPipeline(final Object seed, IFn h, List<Catcher> c, IFn f, Dispatcher d) {
+    handler    = h;
+    catchers   = c;
+    finalizer  = f;
+    dispatcher = Dispatcher.normalize(d);
 
     if (seed instanceof IAsync) {
       pending = (IAsync) seed;
 
-      if (handler != null) {
+      // Skip registering a receiver on a seed that is already realized
+      if (dispatcher == null && pending.observe()) {
+        if (pending.err() != null) {
+          cs = new AtomicReference<State>(handler != null ? State.ARGS_PENDING : State.RET_PENDING);
+          exceptionThrown(cs.get(), pending.err());
+        }
+        else if (handler != null) {
+          cs = new AtomicReference<State>(State.INVOKING);
+          invokeHandler(pending.val());
+        }
+        else {
+          cs = new AtomicReference<State>(State.FINALIZING);
+          invokeFinalizer(pending.val(), null);
+        }
+      }
+      else if (handler != null) {
         cs = new AtomicReference<State>(State.ARGS_PENDING);
-        pending.receive(new ArgsReceiver());
+        pending.receive(listening = dispatched(new ArgsReceiver()));
       }
       else {
         cs  = new AtomicReference<State>(State.RET_PENDING);
-        pending.receive(new RetReceiver());
+        pending.receive(listening = dispatched(new RetReceiver()));
       }
     }
     else {
 
       if (handler != null) {
         cs = new AtomicReference<State>(State.INVOKING);
-        invokeHandler(seed);
+
+        if (dispatcher == null) {
+          invokeHandler(seed);
+        }
+        else {
+          dispatcher.dispatch(new Runnable() {
+              public void run() {
+                invokeHandler(seed);
+              }
+            });
+        }
       }
       else {
         cs = new AtomicReference<State>(State.FINALIZING);
@@ -166,6 +206,34 @@ public final class AsyncPipeline extends Async<Object> {
     }
   }
 
+  /*
+   * Wraps a receiver registered on another async object so that it runs on
+   * this pipeline's dispatcher rather than that of the other object.
+   */
+  private Receiver dispatched(final Receiver r) {
+    if (dispatcher == null) {
+      return r;
+    }
+
+    return new Receiver() {
+      public void success(final Object val) {
+        dispatcher.dispatch(new Runnable() {
+            public void run() {
+              r.success(val);
+            }
+          });
+      }
+
+      public void error(final Exception err) {
+        dispatcher.dispatch(new Runnable() {
+            public void run() {
+              r.error(err);
+            }
+          });
+      }
+    };
+  }
+
   public boolean abort(Exception err) {
     while (true) {
       State curr = cs.get();
@@ -177,7 +245,7 @@ public final class AsyncPipeline extends Async<Object> {
           if (catchers != null) {
             if (cs.compareAndSet(curr, State.CATCHING)) {
               if (curr != State.INVOKING) {
-                pending.abort(new InterruptedException());
+                cancelPending();
               }
 
               invokeCatchers(err);
@@ -186,7 +254,7 @@ public final class AsyncPipeline extends Async<Object> {
           }
           else if (cs.compareAndSet(curr, State.FINALIZING)) {
             if (curr != State.INVOKING) {
-              pending.abort(new InterruptedException());
+              cancelPending();
             }
 
             invokeFinalizer(null, err);
@@ -214,6 +282,18 @@ public final class AsyncPipeline extends Async<Object> {
     }
   }
 
+  // Stops listening on the pending value, then interrupts whatever is
+  // producing it
+  private void cancelPending() {
+    IAsync p = pending;
+
+    if (p instanceof Async && listening != null) {
+      ((Async) p).removeReceiver(listening);
+    }
+
+    p.abort(new InterruptedException());
+  }
+
   private void invokeHandler(Object val) {
     try {
       while (true) {
@@ -231,12 +311,19 @@ public final class AsyncPipeline extends Async<Object> {
           if (val instanceof IAsync) {
             pending = (IAsync) val;
 
-            // Avoid stack overflow exceptions w/ recur*
-            if (pending.observe() && pending.err() == null) {
+            // Loop in place while the values are already realized, which
+            // avoids growing the stack (and allocating a receiver) for every
+            // iteration of recur*
+            if (pending.observe()) {
+              if (pending.err() != null) {
+                exceptionThrown(State.INVOKING, pending.err());
+                return;
+              }
+
               val = pending.val();
             }
             else if (cs.compareAndSet(State.INVOKING, State.ARGS_PENDING)) {
-              pending.receive(new ArgsReceiver());
+              pending.receive(listening = dispatched(new ArgsReceiver()));
               return;
             }
             else {
@@ -250,8 +337,20 @@ public final class AsyncPipeline extends Async<Object> {
           if (val instanceof IAsync) {
             pending = (IAsync) val;
 
+            // Finish right away if the return value is already realized
+            if (pending.observe()) {
+              if (pending.err() != null) {
+                exceptionThrown(State.INVOKING, pending.err());
+              }
+              else if (cs.compareAndSet(State.INVOKING, State.FINALIZING)) {
+                invokeFinalizer(pending.val(), null);
+              }
+
+              return;
+            }
+
             if (cs.compareAndSet(State.INVOKING, State.RET_PENDING)) {
-              pending.receive(new RetReceiver());
+              pending.receive(listening = dispatched(new RetReceiver()));
               return;
             }
             else {
@@ -301,7 +400,7 @@ public final class AsyncPipeline extends Async<Object> {
             catching = (IAsync) val;
 
             if (cs.compareAndSet(State.CATCHING, State.CATCH_RET_PENDING)) {
-              catching.receive(new CatchReceiver());
+              catching.receive(dispatched(new CatchReceiver()));
             }
           }
           else if (cs.compareAndSet(State.CATCHING, State.FINALIZING)) {
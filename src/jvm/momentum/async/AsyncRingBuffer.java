@@ -0,0 +1,288 @@
+package momentum.async;
+
+import clojure.lang.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/*
+ * A bounded queue backed by a fixed size ring of slots, handing values out to
+ * asynchronous takes either one at a time or in batches.
+ *
+ * Unlike AsyncTransferQueue, puts are rejected once the ring is full, which is
+ * what gives a bounded channel its backpressure. A batch take is realized
+ * with every value available at the time (up to the requested amount) as soon
+ * as there is at least one, so a consumer that falls behind catches up a whole
+ * ring at a time instead of one allocation heavy hop per value.
+ *
+ * The ring is guarded by its monitor, but takes are always realized outside of
+ * it. Since a single wakeup moves a whole batch, the lock is taken once per
+ * batch rather than once per value.
+ */
+final public class AsyncRingBuffer implements Counted {
+
+  static final class Request {
+
+    final AsyncVal val;
+
+    /*
+     * The most values to hand over, or 0 for a single value that is not
+     * wrapped in an array.
+     */
+    final int max;
+
+    Request(AsyncVal v, int m) {
+      val = v;
+      max = m;
+    }
+  }
+
+  /*
+   * The slots, used as a circular buffer
+   */
+  final Object[] ring;
+
+  /*
+   * Index of the oldest value, and the number of values in the ring
+   */
+  int head;
+  int size;
+
+  /*
+   * Takes waiting for values, oldest first. Only non-empty while the ring is
+   * empty.
+   */
+  final ArrayDeque<Request> waiting = new ArrayDeque<Request>();
+
+  boolean closed;
+
+  /*
+   * The exception that the ring has been aborted with
+   */
+  Exception err;
+
+  /*
+   * The object to fulfill all the requests with if the ring is closed before
+   * all requests are fulfilled.
+   */
+  final Object defaultVal;
+
+  public AsyncRingBuffer(int capacity, Object defaultVal) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+    }
+
+    this.ring       = new Object[capacity];
+    this.defaultVal = defaultVal;
+  }
+
+  public int capacity() {
+    return ring.length;
+  }
+
+  /*
+   * Adds the value to the ring. Returns false if the ring is full or closed.
+   */
+  public boolean put(Object o) {
+    ArrayList<Object> ready;
+
+    synchronized (this) {
+      if (closed || size == ring.length) {
+        return false;
+      }
+
+      push(o);
+      ready = handOff();
+    }
+
+    realize(ready);
+    return true;
+  }
+
+  /*
+   * Adds as many values from the seq as there is room for. Returns the
+   * values that did not fit, or null if all of them did.
+   */
+  public ISeq putAll(ISeq vals) {
+    ArrayList<Object> ready;
+
+    synchronized (this) {
+      if (closed) {
+        return vals;
+      }
+
+      while (vals != null && size < ring.length) {
+        push(vals.first());
+        vals = vals.next();
+      }
+
+      ready = handOff();
+    }
+
+    realize(ready);
+    return vals;
+  }
+
+  /*
+   * Returns an async value realized with the oldest value in the ring.
+   */
+  public AsyncVal take() {
+    return request(0);
+  }
+
+  /*
+   * Returns an async value realized with an array of up to max values as soon
+   * as at least one is available.
+   */
+  public AsyncVal takeBatch(int max) {
+    if (max < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1: " + max);
+    }
+
+    return request(max);
+  }
+
+  public boolean close() {
+    return doClose(null);
+  }
+
+  public boolean abort(Exception e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+
+    return doClose(e);
+  }
+
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /*
+   * The number of values in the ring minus the number of waiting takes.
+   */
+  public synchronized int count() {
+    return size - waiting.size();
+  }
+
+  private AsyncVal request(int max) {
+    AsyncVal ret = new AsyncVal();
+    Object val   = null;
+    boolean got;
+    Exception e;
+
+    synchronized (this) {
+      if (size == 0 && !closed) {
+        waiting.add(new Request(ret, max));
+        return ret;
+      }
+
+      if (got = size > 0) {
+        val = pop(max);
+      }
+
+      e = err;
+    }
+
+    if (got) {
+      ret.put(val);
+    }
+    else if (e != null) {
+      ret.abort(e);
+    }
+    else {
+      ret.put(defaultVal);
+    }
+
+    return ret;
+  }
+
+  boolean doClose(Exception e) {
+    Request[] reqs;
+
+    synchronized (this) {
+      if (closed) {
+        return false;
+      }
+
+      closed = true;
+      err    = e;
+      reqs   = waiting.toArray(new Request[waiting.size()]);
+
+      waiting.clear();
+    }
+
+    for (Request req : reqs) {
+      if (e != null) {
+        req.val.abort(e);
+      }
+      else {
+        req.val.put(defaultVal);
+      }
+    }
+
+    return true;
+  }
+
+  private void push(Object o) {
+    ring[(head + size) % ring.length] = o;
+    ++size;
+  }
+
+  // Removes a single value, or an array of up to max values
+  private Object pop(int max) {
+    if (max == 0) {
+      Object ret = ring[head];
+
+      ring[head] = null;
+      head       = (head + 1) % ring.length;
+      --size;
+
+      return ret;
+    }
+
+    Object[] ret = new Object[Math.min(max, size)];
+
+    for (int i = 0; i < ret.length; ++i) {
+      ret[i]     = ring[head];
+      ring[head] = null;
+      head       = (head + 1) % ring.length;
+    }
+
+    size -= ret.length;
+
+    return ret;
+  }
+
+  // Pairs waiting takes with values, to be realized once the lock is released.
+  // Takes that have been aborted in the meantime are dropped.
+  private ArrayList<Object> handOff() {
+    ArrayList<Object> ret = null;
+
+    while (size > 0 && !waiting.isEmpty()) {
+      Request req = waiting.poll();
+
+      if (req.val.isRealized()) {
+        continue;
+      }
+
+      if (ret == null) {
+        ret = new ArrayList<Object>();
+      }
+
+      ret.add(req.val);
+      ret.add(pop(req.max));
+    }
+
+    return ret;
+  }
+
+  private static void realize(ArrayList<Object> ready) {
+    if (ready == null) {
+      return;
+    }
+
+    for (int i = 0; i < ready.size(); i += 2) {
+      ((AsyncVal) ready.get(i)).put(ready.get(i + 1));
+    }
+  }
+}
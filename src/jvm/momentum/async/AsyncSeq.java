@@ -29,7 +29,7 @@ public class AsyncSeq extends Async<ISeq> implements ISeq, Sequential, List, Rec
     fn = f;
   }
 
-  Object setup() {
+  Object setup() throws Exception {
     return fn.invoke();
   }
 
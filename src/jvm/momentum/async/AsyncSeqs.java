@@ -0,0 +1,720 @@
+package momentum.async;
+
+import clojure.lang.*;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/*
+ * Combinators over async seqs.
+ *
+ * Each combinator is a stepper: a small state machine that walks its inputs
+ * for as long as they are realized, without registering anything, and only
+ * when it reaches an input that is not realized yet does it park a single
+ * Resume object on it. Walking already realized (or in memory) elements
+ * therefore allocates nothing but the output, and chunked inputs are handled
+ * a whole chunk per step.
+ *
+ * Every output seq is lazy: inputs are only pulled on as the output is, so a
+ * consumer that stops (or pauses) stops the producers upstream of it as
+ * well.
+ */
+public final class AsyncSeqs {
+
+  /*
+   * Returned by a step that has to wait for an input
+   */
+  static final Object WAIT = new Object();
+
+  interface Stepper {
+    /*
+     * Advances as far as the inputs are realized. Returns the result, or
+     * WAIT if it is blocked on blocked().
+     */
+    Object step() throws Exception;
+
+    /*
+     * The async object, or array of them, that the last step is waiting on
+     */
+    Object blocked();
+  }
+
+  /*
+   * Returns the seq of the collection if it is realized, or the async object
+   * that it is waiting on otherwise.
+   */
+  static Object head(Object coll) throws Exception {
+    while (true) {
+      if (coll instanceof IAsync) {
+        IAsync a = (IAsync) coll;
+
+        if (!a.observe()) {
+          return a;
+        }
+
+        if (a.err() != null) {
+          throw a.err();
+        }
+
+        coll = a.val();
+      }
+      else {
+        ISeq s = RT.seq(coll);
+
+        if (!(s instanceof IAsync)) {
+          return s;
+        }
+
+        coll = s;
+      }
+    }
+  }
+
+  /*
+   * Finishes the work of a stepper that had to wait, realized with its
+   * result. It is woken up by whichever of the inputs it waits on is
+   * realized first, and then simply steps again, so a stale wakeup from an
+   * input of an earlier round is harmless.
+   */
+  static final class Resume extends Async<Object> implements Receiver {
+
+    final Stepper stepper;
+
+    /*
+     * 1 while waiting on inputs, 0 while stepping or once done
+     */
+    volatile int armed;
+
+    /*
+     * The inputs being waited on
+     */
+    Object waiting;
+
+    Resume(Stepper s) {
+      stepper = s;
+    }
+
+    void resume() {
+      Object o;
+
+      try {
+        o = stepper.step();
+      }
+      catch (Exception e) {
+        release();
+        realizeError(e);
+        return;
+      }
+
+      if (o == WAIT) {
+        await();
+        return;
+      }
+
+      release();
+      realizeSuccess(o);
+    }
+
+    void await() {
+      Object w = stepper.blocked();
+
+      waiting = w;
+      armed   = 1;
+
+      if (w instanceof IAsync[]) {
+        for (IAsync a : (IAsync[]) w) {
+          // Woken up by an input that was already realized, the step that
+          // followed took care of registering again.
+          if (armed == 0 || waiting != w) {
+            return;
+          }
+
+          // Never registered more than once on the same input
+          if (a instanceof Async) {
+            ((Async) a).unlisten(this);
+          }
+
+          a.receive(this);
+        }
+      }
+      else {
+        ((IAsync) w).receive(this);
+      }
+    }
+
+    // Stops listening on inputs that are still unrealized
+    void release() {
+      Object w = waiting;
+
+      if (w instanceof IAsync[]) {
+        for (IAsync a : (IAsync[]) w) {
+          if (a instanceof Async) {
+            ((Async) a).unlisten(this);
+          }
+        }
+      }
+    }
+
+    public void success(Object val) {
+      wake();
+    }
+
+    public void error(Exception err) {
+      wake();
+    }
+
+    private void wake() {
+      if (ARMED.compareAndSet(this, 1, 0) && !isRealized()) {
+        resume();
+      }
+    }
+
+    /*
+     * Aborting the result interrupts the inputs it is waiting on
+     */
+    public boolean abort(Exception err) {
+      if (!realizeError(err)) {
+        return false;
+      }
+
+      armed = 0;
+
+      Object w = waiting;
+
+      if (w instanceof IAsync[]) {
+        for (IAsync a : (IAsync[]) w) {
+          a.abort(new InterruptedException());
+        }
+      }
+      else if (w != null) {
+        ((IAsync) w).abort(new InterruptedException());
+      }
+
+      return true;
+    }
+
+    static final AtomicIntegerFieldUpdater<Resume> ARMED =
+      AtomicIntegerFieldUpdater.newUpdater(Resume.class, "armed");
+  }
+
+  /*
+   * An async seq computed by a stepper. The first step runs when the seq is
+   * first observed, and only a seq that has to wait allocates a Resume.
+   */
+  abstract static class StepSeq extends AsyncSeq implements Stepper {
+
+    Object blocked;
+
+    StepSeq() {
+      super(null);
+    }
+
+    public final Object blocked() {
+      return blocked;
+    }
+
+    final Object await(Object b) {
+      blocked = b;
+      return WAIT;
+    }
+
+    final Object setup() throws Exception {
+      Object o = step();
+
+      if (o != WAIT) {
+        return o;
+      }
+
+      Resume r = new Resume(this);
+      r.await();
+      return r;
+    }
+  }
+
+  /*
+   * ==== map ====
+   */
+
+  public static AsyncSeq map(IFn f, Object coll) {
+    return new Map1(f, coll);
+  }
+
+  public static AsyncSeq mapAll(IFn f, Object[] colls) {
+    if (colls.length == 1) {
+      return new Map1(f, colls[0]);
+    }
+
+    return new MapN(f, colls);
+  }
+
+  static final class Map1 extends StepSeq {
+
+    final IFn f;
+    final Object coll;
+
+    Map1(IFn f, Object coll) {
+      this.f    = f;
+      this.coll = coll;
+    }
+
+    public Object step() throws Exception {
+      Object h = head(coll);
+
+      if (h instanceof IAsync) {
+        return await(h);
+      }
+
+      ISeq s = (ISeq) h;
+
+      if (s == null) {
+        return null;
+      }
+
+      if (s instanceof IChunkedSeq) {
+        IChunk c      = ((IChunkedSeq) s).chunkedFirst();
+        Object[] vals = new Object[c.count()];
+
+        for (int i = 0; i < vals.length; ++i) {
+          vals[i] = f.invoke(c.nth(i));
+        }
+
+        return new ChunkedCons(new ArrayChunk(vals), new Map1(f, ((IChunkedSeq) s).chunkedMore()));
+      }
+
+      return new Cons(f.invoke(s.first()), new Map1(f, s.more()));
+    }
+  }
+
+  static final class MapN extends StepSeq {
+
+    final IFn f;
+
+    /*
+     * The collections, replaced by their seqs as they are realized
+     */
+    final Object[] colls;
+
+    MapN(IFn f, Object[] colls) {
+      this.f     = f;
+      this.colls = colls;
+    }
+
+    public Object step() throws Exception {
+      Object pending = null;
+
+      // Any exhausted coll ends the seq, even while others are still pending
+      for (int i = 0; i < colls.length; ++i) {
+        Object h = head(colls[i]);
+
+        if (h == null) {
+          return null;
+        }
+
+        if (h instanceof IAsync) {
+          if (pending == null) {
+            pending = h;
+          }
+        }
+        else {
+          colls[i] = h;
+        }
+      }
+
+      if (pending != null) {
+        return await(pending);
+      }
+
+      Object[] firsts = new Object[colls.length];
+      Object[] rests  = new Object[colls.length];
+
+      for (int i = 0; i < colls.length; ++i) {
+        firsts[i] = ((ISeq) colls[i]).first();
+        rests[i]  = ((ISeq) colls[i]).more();
+      }
+
+      return new Cons(f.applyTo(ArraySeq.create(firsts)), new MapN(f, rests));
+    }
+  }
+
+  /*
+   * ==== filter ====
+   */
+
+  public static AsyncSeq filter(IFn pred, Object coll) {
+    return new Filter(pred, coll);
+  }
+
+  static final class Filter extends StepSeq {
+
+    final IFn pred;
+    Object coll;
+
+    Filter(IFn pred, Object coll) {
+      this.pred = pred;
+      this.coll = coll;
+    }
+
+    public Object step() throws Exception {
+      while (true) {
+        Object h = head(coll);
+
+        if (h instanceof IAsync) {
+          return await(h);
+        }
+
+        ISeq s = (ISeq) h;
+
+        if (s == null) {
+          return null;
+        }
+
+        if (s instanceof IChunkedSeq) {
+          IChunk c = ((IChunkedSeq) s).chunkedFirst();
+          ChunkBuffer b = null;
+
+          for (int i = 0; i < c.count(); ++i) {
+            Object v = c.nth(i);
+
+            if (RT.booleanCast(pred.invoke(v))) {
+              if (b == null) {
+                b = new ChunkBuffer(c.count());
+              }
+
+              b.add(v);
+            }
+          }
+
+          coll = ((IChunkedSeq) s).chunkedMore();
+
+          if (b != null) {
+            return new ChunkedCons(b.chunk(), new Filter(pred, coll));
+          }
+        }
+        else {
+          Object v = s.first();
+
+          coll = s.more();
+
+          if (RT.booleanCast(pred.invoke(v))) {
+            return new Cons(v, new Filter(pred, coll));
+          }
+        }
+      }
+    }
+  }
+
+  /*
+   * ==== take ====
+   */
+
+  public static AsyncSeq take(long n, Object coll) {
+    return new Take(n, coll);
+  }
+
+  static final class Take extends StepSeq {
+
+    final long n;
+    final Object coll;
+
+    Take(long n, Object coll) {
+      this.n    = n;
+      this.coll = coll;
+    }
+
+    public Object step() throws Exception {
+      // Do not pull on the input once enough has been taken
+      if (n <= 0) {
+        return null;
+      }
+
+      Object h = head(coll);
+
+      if (h instanceof IAsync) {
+        return await(h);
+      }
+
+      ISeq s = (ISeq) h;
+
+      if (s == null) {
+        return null;
+      }
+
+      if (s instanceof IChunkedSeq) {
+        IChunk c = ((IChunkedSeq) s).chunkedFirst();
+
+        if (c.count() <= n) {
+          return new ChunkedCons(c, new Take(n - c.count(), ((IChunkedSeq) s).chunkedMore()));
+        }
+
+        Object[] vals = new Object[(int) n];
+
+        for (int i = 0; i < vals.length; ++i) {
+          vals[i] = c.nth(i);
+        }
+
+        return new ChunkedCons(new ArrayChunk(vals), null);
+      }
+
+      return new Cons(s.first(), new Take(n - 1, s.more()));
+    }
+  }
+
+  /*
+   * ==== concat ====
+   */
+
+  public static AsyncSeq concat(ISeq colls) {
+    return new Concat(null, colls);
+  }
+
+  static final class Concat extends StepSeq {
+
+    Object coll;
+    ISeq colls;
+
+    Concat(Object coll, ISeq colls) {
+      this.coll  = coll;
+      this.colls = colls;
+    }
+
+    public Object step() throws Exception {
+      while (true) {
+        Object h = head(coll);
+
+        if (h instanceof IAsync) {
+          return await(h);
+        }
+
+        ISeq s = (ISeq) h;
+
+        if (s != null) {
+          if (s instanceof IChunkedSeq) {
+            return new ChunkedCons(
+              ((IChunkedSeq) s).chunkedFirst(),
+              new Concat(((IChunkedSeq) s).chunkedMore(), colls));
+          }
+
+          return new Cons(s.first(), new Concat(s.more(), colls));
+        }
+
+        if (colls == null) {
+          return null;
+        }
+
+        coll  = colls.first();
+        colls = colls.next();
+      }
+    }
+  }
+
+  /*
+   * ==== merge ====
+   */
+
+  public static AsyncSeq merge(ISeq colls) {
+    return new Merge(RT.seqToArray(colls));
+  }
+
+  /*
+   * Hands out the elements of all the inputs in the order they are realized.
+   * When several inputs are realized by the time the next element is pulled
+   * on, earlier ones take priority.
+   */
+  static final class Merge extends StepSeq {
+
+    final Object[] colls;
+
+    Merge(Object[] colls) {
+      this.colls = colls;
+    }
+
+    public Object step() throws Exception {
+      ArrayList<IAsync> pending = null;
+      int live = 0;
+
+      for (int i = 0; i < colls.length; ++i) {
+        Object h = head(colls[i]);
+
+        if (h instanceof IAsync) {
+          if (pending == null) {
+            pending = new ArrayList<IAsync>(colls.length);
+          }
+
+          pending.add((IAsync) h);
+          colls[i] = h;
+          ++live;
+          continue;
+        }
+
+        colls[i] = h;
+
+        if (h == null) {
+          continue;
+        }
+
+        ISeq s = (ISeq) h;
+        Object[] rest = colls.clone();
+
+        if (s instanceof IChunkedSeq) {
+          rest[i] = ((IChunkedSeq) s).chunkedMore();
+          return new ChunkedCons(((IChunkedSeq) s).chunkedFirst(), new Merge(rest));
+        }
+
+        rest[i] = s.more();
+        return new Cons(s.first(), new Merge(rest));
+      }
+
+      if (live == 0) {
+        return null;
+      }
+
+      return await(pending.toArray(new IAsync[pending.size()]));
+    }
+  }
+
+  /*
+   * ==== partition by size ====
+   */
+
+  public static AsyncSeq partitionBySize(long size, IFn sizeFn, Object coll) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Partition size must be at least 1: " + size);
+    }
+
+    return new PartitionBySize(size, sizeFn, coll);
+  }
+
+  /*
+   * Groups consecutive elements into vectors whose sizes (as measured by
+   * sizeFn) add up to at least the given size. The last one may be smaller.
+   */
+  static final class PartitionBySize extends StepSeq {
+
+    final long size;
+    final IFn sizeFn;
+    Object coll;
+
+    ArrayList<Object> group;
+    long groupSize;
+
+    PartitionBySize(long size, IFn sizeFn, Object coll) {
+      this.size   = size;
+      this.sizeFn = sizeFn;
+      this.coll   = coll;
+    }
+
+    public Object step() throws Exception {
+      while (true) {
+        Object h = head(coll);
+
+        if (h instanceof IAsync) {
+          return await(h);
+        }
+
+        ISeq s = (ISeq) h;
+
+        if (s == null) {
+          if (group == null) {
+            return null;
+          }
+
+          return new Cons(PersistentVector.create(group), null);
+        }
+
+        Object v = s.first();
+
+        coll = s.more();
+
+        if (group == null) {
+          group = new ArrayList<Object>();
+        }
+
+        group.add(v);
+        groupSize += ((Number) sizeFn.invoke(v)).longValue();
+
+        if (groupSize >= size) {
+          IPersistentVector ret = PersistentVector.create(group);
+
+          group     = null;
+          groupSize = 0;
+
+          return new Cons(ret, new PartitionBySize(size, sizeFn, coll));
+        }
+      }
+    }
+  }
+
+  /*
+   * ==== reduce ====
+   */
+
+  public static Async<Object> reduce(IFn f, Object coll) {
+    return start(new Reduce(f, null, coll, false));
+  }
+
+  public static Async<Object> reduce(IFn f, Object init, Object coll) {
+    return start(new Reduce(f, init, coll, true));
+  }
+
+  static Async<Object> start(Stepper s) {
+    Resume r = new Resume(s);
+    r.resume();
+    return r;
+  }
+
+  static final class Reduce implements Stepper {
+
+    final IFn f;
+    Object acc;
+    Object coll;
+
+    /*
+     * False until there is an accumulated value, when reducing without an
+     * initial value.
+     */
+    boolean started;
+
+    Object blocked;
+
+    Reduce(IFn f, Object init, Object coll, boolean started) {
+      this.f       = f;
+      this.acc     = init;
+      this.coll    = coll;
+      this.started = started;
+    }
+
+    public Object blocked() {
+      return blocked;
+    }
+
+    public Object step() throws Exception {
+      while (true) {
+        Object h = head(coll);
+
+        if (h instanceof IAsync) {
+          blocked = h;
+          return WAIT;
+        }
+
+        ISeq s = (ISeq) h;
+
+        if (s == null) {
+          return started ? acc : f.invoke();
+        }
+
+        if (!started) {
+          acc     = s.first();
+          coll    = s.more();
+          started = true;
+        }
+        else if (s instanceof IChunkedSeq) {
+          acc  = ((IChunkedSeq) s).chunkedFirst().reduce(f, acc);
+          coll = ((IChunkedSeq) s).chunkedMore();
+        }
+        else {
+          acc  = f.invoke(acc, s.first());
+          coll = s.more();
+        }
+      }
+    }
+  }
+}
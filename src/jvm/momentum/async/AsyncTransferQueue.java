@@ -1,44 +1,78 @@
 package momentum.async;
 
 import clojure.lang.*;
-
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/*
+ * A lock-free dual queue, along the lines of Scherer & Scott's dual queues and
+ * java.util.concurrent.LinkedTransferQueue.
+ *
+ * The queue holds either data waiting for takes, or takes (requests) waiting
+ * for data, never both. Both are appended as nodes to a singly linked list. An
+ * operation first looks for the oldest unmatched node of the opposite kind and
+ * claims it with a CAS on the node's state; if there is none, it appends its
+ * own node with a CAS on the last node's next pointer. Matched nodes are
+ * dropped off of the front by moving the head forward.
+ *
+ * Closing the queue appends a terminal node that nothing can be appended
+ * after. Any waiting requests are then fulfilled with the default value (or
+ * aborted), while data already in the queue can still be taken.
+ */
 final public class AsyncTransferQueue implements Counted {
 
+  static final int WAITING = 0;
+  static final int MATCHED = 1;
+  static final int CLOSED  = 2;
+
   static final class Node {
 
     /*
      * Reference to the next node in the linked list.
      */
-    Node next;
+    volatile Node next;
+
+    /*
+     * WAITING until the node is matched. The terminal node appended when the
+     * queue is closed is CLOSED from the start.
+     */
+    volatile int state;
 
     /*
-     * Reference to the node's object.
+     * Reference to the node's object. For the terminal node, this is the
+     * exception that the queue was aborted with, if any.
      */
     final Object val;
 
     /*
-     * AsyncVal reprsenting the transfer request.
-     * initially.
+     * AsyncVal representing the transfer request.
      */
     final AsyncVal request;
 
-    Node(Object o, AsyncVal req) {
-      next    = null;
+    Node(Object o, AsyncVal req, int st) {
       val     = o;
       request = req;
+      state   = st;
     }
 
     boolean isData() {
       return request == null;
     }
 
-    Node next() {
-      return next;
+    boolean isWaiting() {
+      return state == WAITING;
     }
 
-    Node next(Node val) {
-      next = val;
-      return val;
+    boolean isClosed() {
+      return state == CLOSED;
+    }
+
+    boolean casNext(Node cmp, Node val) {
+      return NEXT.compareAndSet(this, cmp, val);
+    }
+
+    boolean tryMatch() {
+      return STATE.compareAndSet(this, WAITING, MATCHED);
     }
 
     void realize(Object o, AsyncVal req) {
@@ -60,28 +94,30 @@ final public class AsyncTransferQueue implements Counted {
         }
       }
     }
-  }
 
-  /*
-   * Represents the transfer queue being in the closed state. The tail reference
-   * is set to this when the transfer queue is closed.
-   */
-  static final Node CLOSED = new Node(null, null);
+    static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+      AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+    static final AtomicIntegerFieldUpdater<Node> STATE =
+      AtomicIntegerFieldUpdater.newUpdater(Node.class, "state");
+  }
 
   /*
    * The number of data items in the queue. This can be a negative number.
    */
-  int count = 0;
+  volatile int count = 0;
 
   /*
-   * Reference to the head of the queue
+   * Reference to the head of the queue. The head is always a matched node
+   * (initially a dummy), the live nodes follow it.
    */
-  Node head;
+  volatile Node head;
 
   /*
-   * Reference to the tail of the queue
+   * Reference to a node at or near the tail of the queue. It may lag behind,
+   * appending walks forward from it to the actual last node.
    */
-  Node tail;
+  volatile Node tail;
 
   /*
    * The object to fulfill all the requests with if the transfer queue is
@@ -89,17 +125,14 @@ final public class AsyncTransferQueue implements Counted {
    */
   final Object defaultVal;
 
-  /*
-   * The exception that the transfer queue has been aborted with
-   */
-  Exception err;
-
   public AsyncTransferQueue(Object defaultVal) {
     this.defaultVal = defaultVal;
+
+    head = tail = new Node(null, null, MATCHED);
   }
 
   public boolean put(Object o) {
-    return transfer(o, null);
+    return transfer(o, null) == null;
   }
 
   public boolean abort(Exception e) {
@@ -111,9 +144,7 @@ final public class AsyncTransferQueue implements Counted {
   }
 
   public boolean isClosed() {
-    synchronized (this) {
-      return tail == CLOSED;
-    }
+    return last().isClosed();
   }
 
   public boolean close() {
@@ -122,118 +153,184 @@ final public class AsyncTransferQueue implements Counted {
 
   public AsyncVal take() {
     AsyncVal request = new AsyncVal();
+    Node closed      = transfer(null, request);
 
-    if (!transfer(null, request)) {
-      if (err == null) {
+    if (closed != null) {
+      if (closed.val == null) {
         request.put(defaultVal);
       }
       else {
-        request.abort(err);
+        request.abort((Exception) closed.val);
       }
     }
 
     return request;
   }
 
-  public synchronized int count() {
+  /*
+   * Takes a value that is already in the queue without waiting for one.
+   * Returns none if the queue holds no values.
+   */
+  public Object poll(Object none) {
+    while (true) {
+      Node h = head;
+      Node p = firstWaiting(h);
+
+      if (p == null || !p.isData()) {
+        return none;
+      }
+
+      if (p.tryMatch()) {
+        casHead(h, p);
+        updateCount(false);
+
+        return p.val;
+      }
+    }
+  }
+
+  public int count() {
     return count;
   }
 
-  private boolean transfer(Object o, AsyncVal request) {
+  /*
+   * Matches the data or request with a waiting node of the opposite kind, or
+   * enqueues it. Returns null on success, or the terminal node if the queue
+   * has been closed.
+   */
+  private Node transfer(Object o, AsyncVal request) {
     boolean haveData = request == null;
 
-    Node matched;
+    Node s = null;
 
-    synchronized (this) {
-      if (tail == CLOSED && (haveData || head == null)) {
-        return false;
-      }
+    while (true) {
+      Node h = head;
+      Node p = firstWaiting(h);
+
+      if (p != null && p.isData() != haveData) {
+        if (p.tryMatch()) {
+          // Everything up to p is matched now, so p can become the head
+          casHead(h, p);
 
-      if ((matched = tryMatch(haveData)) == null) {
-        append(new Node(o, request));
+          updateCount(haveData);
+          p.realize(o, request);
+
+          return null;
+        }
+
+        // Lost the race for p, look again
+        continue;
       }
 
-      updateCount(haveData);
-    }
+      Node t = last();
 
-    if (matched != null) {
-      matched.realize(o, request);
-    }
+      if (t.isClosed()) {
+        return t;
+      }
 
-    return true;
-  }
+      // A node of the opposite kind was appended since looking, so the new
+      // node cannot go behind it.
+      if (t.isWaiting() && t.isData() != haveData) {
+        continue;
+      }
 
-  private Node tryMatch(boolean haveData) {
+      if (s == null) {
+        s = new Node(o, request, WAITING);
+      }
 
-    // If the queue is empty or the node types are the same, then cannot find a
-    // node to match.
-    if (head == null || haveData == head.isData()) {
-      return null;
+      if (t.casNext(null, s)) {
+        casTail(t, s);
+        updateCount(haveData);
+
+        return null;
+      }
     }
+  }
 
-    Node match = head;
+  /*
+   * Returns the first waiting node after h, or null if there is none. Matched
+   * nodes passed on the way are dropped off of the front of the queue.
+   */
+  private Node firstWaiting(Node h) {
+    Node pred = h;
+    Node p    = h.next;
 
-    // If the tail is equal to the head, then there is only one item in the
-    // queue.
-    if (tail == match) {
-      tail = head = null;
+    while (p != null && p.state == MATCHED) {
+      pred = p;
+      p    = p.next;
     }
-    // Otherwise, just move the head forward
-    else {
-      head = match.next();
+
+    if (pred != h) {
+      casHead(h, pred);
     }
 
-    // Kill the node's foward pointer to make the GC's life easier.
-    match.next(null);
+    if (p == null || p.isClosed()) {
+      return null;
+    }
 
-    return match;
+    return p;
   }
 
-  private void append(Node s) {
-    if (tail != null) {
-      tail.next(s);
-      tail = s;
-    }
-    else {
-      tail = head = s;
+  /*
+   * Returns the actual last node of the queue.
+   */
+  private Node last() {
+    Node t = tail;
+    Node p;
+
+    while ((p = t.next) != null) {
+      t = p;
     }
+
+    return t;
   }
 
   boolean doClose(Exception e) {
-    synchronized (this) {
-      if (tail == CLOSED) {
-        return false;
-      }
-
-      err  = e;
-      tail = CLOSED;
-    }
+    Node s = new Node(e, null, CLOSED);
 
-    if (head == null || head.isData()) {
-      return true;
-    }
+    while (true) {
+      Node t = last();
 
-    Node curr;
+      if (t.isClosed()) {
+        return false;
+      }
 
-    while ((curr = head) != null) {
-      curr.realize(defaultVal, err);
-      head = curr.next();
-      curr.next(null);
+      if (t.casNext(null, s)) {
+        casTail(t, s);
+        break;
+      }
     }
 
-    synchronized (this) {
-      count = 0;
+    // Nothing can be appended anymore, so fulfill every request still
+    // waiting. A put racing with this may claim some of them first.
+    for (Node p = head.next; p != s; p = p.next) {
+      if (!p.isData() && p.tryMatch()) {
+        updateCount(true);
+        p.realize(defaultVal, e);
+      }
     }
 
     return true;
   }
 
   private void updateCount(boolean haveData) {
-    if (haveData) {
-      ++count;
-    }
-    else {
-      --count;
-    }
+    COUNT.getAndAdd(this, haveData ? 1 : -1);
   }
+
+  private void casHead(Node cmp, Node val) {
+    HEAD.compareAndSet(this, cmp, val);
+  }
+
+  private void casTail(Node cmp, Node val) {
+    TAIL.compareAndSet(this, cmp, val);
+  }
+
+  static final AtomicReferenceFieldUpdater<AsyncTransferQueue, Node> HEAD =
+    AtomicReferenceFieldUpdater.newUpdater(AsyncTransferQueue.class, Node.class, "head");
+
+  static final AtomicReferenceFieldUpdater<AsyncTransferQueue, Node> TAIL =
+    AtomicReferenceFieldUpdater.newUpdater(AsyncTransferQueue.class, Node.class, "tail");
+
+  static final AtomicIntegerFieldUpdater<AsyncTransferQueue> COUNT =
+    AtomicIntegerFieldUpdater.newUpdater(AsyncTransferQueue.class, "count");
 }
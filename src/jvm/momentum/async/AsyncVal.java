@@ -17,6 +17,13 @@ public final class AsyncVal extends Async<Object> {
     return ret;
   }
 
+  public AsyncVal() {
+  }
+
+  public AsyncVal(Dispatcher d) {
+    dispatchWith(d);
+  }
+
   public boolean put(Object v) {
     return realizeSuccess(v);
   }
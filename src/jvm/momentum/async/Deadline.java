@@ -0,0 +1,92 @@
+package momentum.async;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+/*
+ * Aborts an async object with a TimeoutException if it is not realized by a
+ * given time.
+ *
+ * Every deadline is scheduled on a single shared hashed wheel timer, which
+ * trades precision (a deadline fires up to a tick late) for a constant cost
+ * to schedule and cancel. The deadline listens on the async object itself,
+ * and cancels its timer entry as soon as the object is realized, so
+ * deadlines that are met do not pile up in the wheel.
+ */
+public final class Deadline implements TimerTask, Receiver {
+
+  static final long TICK_MS = 10;
+
+  static final Timer TIMER = new HashedWheelTimer(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "momentum-timer");
+        t.setDaemon(true);
+        return t;
+      }
+    }, TICK_MS, TimeUnit.MILLISECONDS);
+
+  /*
+   * The timer that deadlines are scheduled on, shared with the rest of the
+   * library.
+   */
+  public static Timer timer() {
+    return TIMER;
+  }
+
+  final Async<?> target;
+
+  /*
+   * The deadline, in System.nanoTime() terms
+   */
+  final long deadline;
+
+  volatile Timeout timeout;
+
+  Deadline(Async<?> a, long nanos) {
+    target   = a;
+    deadline = nanos;
+  }
+
+  /*
+   * Schedules the deadline and starts listening on the async object.
+   */
+  void start() {
+    long delay = deadline - System.nanoTime();
+
+    if (delay <= 0) {
+      expire();
+      return;
+    }
+
+    timeout = TIMER.newTimeout(this, delay, TimeUnit.NANOSECONDS);
+    target.receive(this);
+  }
+
+  void expire() {
+    target.abort(new TimeoutException("Deadline exceeded"));
+  }
+
+  /*
+   * TimerTask API
+   */
+  public void run(Timeout t) {
+    if (!t.isCancelled()) {
+      expire();
+    }
+  }
+
+  /*
+   * Receiver API, the async object was realized before the deadline
+   */
+  public void success(Object val) {
+    timeout.cancel();
+  }
+
+  public void error(Exception err) {
+    timeout.cancel();
+  }
+}
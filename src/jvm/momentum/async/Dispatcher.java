@@ -0,0 +1,125 @@
+package momentum.async;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/*
+ * Decides which thread runs the callbacks of an async object once it is
+ * realized, and when.
+ *
+ * By default, callbacks run inline on whichever thread realizes the value.
+ * That is the cheapest option, but the realizing thread is often a Netty I/O
+ * worker, so one slow callback stalls every connection on that worker, and a
+ * long chain of callbacks grows the stack with each link. A trampolining
+ * dispatcher runs callbacks inline up to a maximum depth and then queues them
+ * to be run once the stack unwinds. An executor dispatcher hands every
+ * callback off to the executor.
+ */
+public abstract class Dispatcher {
+
+  /*
+   * Runs callbacks on the realizing thread. Async objects represent this as
+   * the absence of a dispatcher, so that the default costs nothing.
+   */
+  public static final Dispatcher INLINE = new Dispatcher() {
+      public void dispatch(Runnable task) {
+        task.run();
+      }
+    };
+
+  public static Dispatcher trampoline(int maxDepth) {
+    return new Trampoline(maxDepth);
+  }
+
+  public static Dispatcher executor(Executor executor) {
+    if (executor == null) {
+      throw new NullPointerException("Executor is null");
+    }
+
+    return new ExecutorDispatcher(executor);
+  }
+
+  /*
+   * Returns the dispatcher to store on an async object, null meaning inline.
+   */
+  static Dispatcher normalize(Dispatcher d) {
+    return d == INLINE ? null : d;
+  }
+
+  public abstract void dispatch(Runnable task);
+
+  static final class Trampoline extends Dispatcher {
+
+    static final class Frame {
+      int depth;
+
+      final ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+    }
+
+    static final ThreadLocal<Frame> FRAME = new ThreadLocal<Frame>() {
+        protected Frame initialValue() {
+          return new Frame();
+        }
+      };
+
+    final int maxDepth;
+
+    Trampoline(int maxDepth) {
+      if (maxDepth < 1) {
+        throw new IllegalArgumentException("Max depth must be at least 1: " + maxDepth);
+      }
+
+      this.maxDepth = maxDepth;
+    }
+
+    public void dispatch(Runnable task) {
+      Frame f = FRAME.get();
+
+      if (f.depth >= maxDepth) {
+        f.queue.add(task);
+        return;
+      }
+
+      run(f, task);
+
+      // The outermost callback runs whatever was deferred while the stack
+      // was too deep
+      if (f.depth == 0) {
+        while ((task = f.queue.poll()) != null) {
+          run(f, task);
+        }
+      }
+    }
+
+    private void run(Frame f, Runnable task) {
+      ++f.depth;
+
+      try {
+        task.run();
+      }
+      finally {
+        --f.depth;
+      }
+    }
+  }
+
+  static final class ExecutorDispatcher extends Dispatcher {
+
+    final Executor executor;
+
+    ExecutorDispatcher(Executor executor) {
+      this.executor = executor;
+    }
+
+    public void dispatch(Runnable task) {
+      try {
+        executor.execute(task);
+      }
+      catch (RejectedExecutionException e) {
+        // The callback must run, even if the executor is shutting down
+        task.run();
+      }
+    }
+  }
+}
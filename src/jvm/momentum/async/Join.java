@@ -2,62 +2,133 @@ package momentum.async;
 
 import clojure.lang.*;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
 
-public class Join extends Async<JoinedArgs> {
+/*
+ * Joins a list of values, some of which may be async objects, realizing once
+ * quorum of them are realized.
+ *
+ * A single receiver is registered with every async element, so a join over n
+ * elements allocates a handful of arrays sized by n and nothing per element.
+ * When an element is realized, the receiver finds its index through an
+ * identity hash table of indexes held in an int array. The elements that are
+ * still outstanding are tracked in a bitset, so that aborting the join only
+ * walks the elements that can still be aborted.
+ *
+ * When all the elements are required, the join is realized with the values in
+ * argument order. Otherwise, it is realized with the first quorum values in
+ * the order they were realized (plain values first), and it is aborted as
+ * soon as too many elements have been aborted for quorum to be reached.
+ * Elements still outstanding once quorum is reached are left running, the
+ * join just stops listening on them.
+ */
+public class Join extends Async<JoinedArgs> implements MultiReceiver {
 
-  class IndexedReceiver implements Receiver {
+  /*
+   * The values to join
+   */
+  final Object[] elements;
 
-    final int idx;
+  /*
+   * Indexes of the async elements plus one, hashed by identity with linear
+   * probing. Zero marks an empty slot.
+   */
+  final int[] table;
 
-    IndexedReceiver(int i) {
-      idx = i;
-    }
+  /*
+   * A bit per element, set while the element is an outstanding async object.
+   */
+  final AtomicLongArray outstanding;
 
-    public void success(Object val) {
-      realizeElement(idx, val);
-    }
+  /*
+   * The realized values
+   */
+  final Object[] vals;
 
-    public void error(Exception err) {
-      if (realizeError(err)) {
-        for (Object o: async) {
-          if (o instanceof Async) {
-            ((Async) o).abort(err);
-          }
-        }
-      }
-    }
-  }
+  /*
+   * Whether values are stored in argument order or in realization order
+   */
+  final boolean ordered;
 
-  final List<Object> async;
+  /*
+   * The number of values still needed to reach quorum
+   */
+  volatile int remaining;
 
   /*
-   * The list of realized values
+   * The number of elements that may still be aborted before quorum can no
+   * longer be reached.
    */
-  final JoinedArgs arr;
+  volatile int spare;
 
   /*
-   * The number of outstanding values
+   * The next slot to store a value in, when storing in realization order
    */
-  final AtomicInteger counter = new AtomicInteger();
+  volatile int slot;
 
   public Join(List<Object> vs) {
-    int idx = 0, delta = 0;
+    this(vs.toArray(), -1);
+  }
+
+  public Join(List<Object> vs, int quorum) {
+    this(vs.toArray(), quorum);
+  }
+
+  Join(Object[] es, int quorum) {
+    int n = es.length, asyncs = 0;
+
+    if (quorum < 0) {
+      quorum = n;
+    }
+    else if (quorum > n) {
+      throw new IllegalArgumentException(
+        "Quorum of " + quorum + " is larger than the number of values: " + n);
+    }
 
-    async = vs;
-    arr   = new JoinedArgs(vs);
+    elements    = es;
+    ordered     = quorum == n;
+    vals        = ordered ? es.clone() : new Object[quorum];
+    outstanding = new AtomicLongArray((n + 63) >>> 6);
 
-    for (Object o: async) {
+    for (Object o : es) {
       if (o instanceof Async) {
-        ++delta;
-        ((Async) o).receive(new IndexedReceiver(idx));
+        ++asyncs;
       }
+    }
+
+    table = new int[tableSize(asyncs)];
+
+    // Plain values count towards quorum right away
+    int plain = 0;
+
+    for (int i = 0; i < n; ++i) {
+      Object o = es[i];
+
+      if (o instanceof Async) {
+        insert(i);
+        outstanding.set(i >>> 6, outstanding.get(i >>> 6) | (1L << i));
+      }
+      else if (!ordered && plain < quorum) {
+        vals[plain++] = o;
+      }
+    }
 
-      ++idx;
+    slot      = plain;
+    remaining = ordered ? asyncs : quorum - plain;
+    spare     = asyncs - remaining;
+
+    if (remaining <= 0) {
+      realizeSuccess(new JoinedArgs(vals));
+      return;
     }
 
-    if (counter.addAndGet(delta) == 0) {
-      realizeSuccess(arr);
+    // Only register once every index is in the table, elements that are
+    // already realized are delivered right away.
+    for (int i = 0; i < n && !isRealized(); ++i) {
+      if (es[i] instanceof Async && firstIndexOf((Async<?>) es[i]) == i) {
+        ((Async<?>) es[i]).receive(this);
+      }
     }
   }
 
@@ -66,21 +137,161 @@ public class Join extends Async<JoinedArgs> {
       return false;
     }
 
-    for (Object o: async) {
-      if (o instanceof Async) {
-        ((Async) o).abort(err);
+    abortOutstanding(err);
+    return true;
+  }
+
+  public void success(Async<?> src, Object val) {
+    int mask = table.length - 1;
+
+    // The same async object may be joined more than once, every index it
+    // was joined at is in its probe sequence.
+    for (int h = hash(src, mask); table[h] != 0; h = (h + 1) & mask) {
+      int idx = table[h] - 1;
+
+      if (elements[idx] == src && clear(idx)) {
+        realizeElement(idx, val);
       }
     }
+  }
 
-    return true;
+  public void error(Async<?> src, Exception err) {
+    int mask = table.length - 1;
+
+    for (int h = hash(src, mask); table[h] != 0; h = (h + 1) & mask) {
+      int idx = table[h] - 1;
+
+      if (elements[idx] == src && clear(idx)) {
+        // Siblings are aborted before the join, so that they are already
+        // aborted by the time anyone observes the join being aborted.
+        if (SPARE.decrementAndGet(this) < 0) {
+          abortOutstanding(err);
+          realizeError(err);
+          return;
+        }
+      }
+    }
   }
 
   void realizeElement(int idx, Object v) {
-    arr.set(idx, v);
+    if (ordered) {
+      vals[idx] = v;
+    }
+    else {
+      int s = SLOT.getAndIncrement(this);
+
+      // Quorum has been reached already
+      if (s >= vals.length) {
+        return;
+      }
 
-    if (counter.decrementAndGet() == 0) {
-      realizeSuccess(arr);
+      vals[s] = v;
+    }
+
+    if (REMAINING.decrementAndGet(this) == 0) {
+      realizeSuccess(new JoinedArgs(vals));
+
+      if (!ordered) {
+        releaseOutstanding();
+      }
     }
   }
 
+  // Stops listening on the elements that are still outstanding once quorum
+  // is reached, so that they do not hold on to the join.
+  private void releaseOutstanding() {
+    for (int w = 0; w < outstanding.length(); ++w) {
+      long bits;
+
+      while ((bits = outstanding.get(w)) != 0) {
+        int idx = (w << 6) + Long.numberOfTrailingZeros(bits);
+
+        if (clear(idx)) {
+          ((Async<?>) elements[idx]).unlisten(this);
+        }
+      }
+    }
+  }
+
+  // Aborts every element that is still outstanding. Elements realized in the
+  // meantime have their bit cleared, so they are skipped.
+  private void abortOutstanding(Exception err) {
+    for (int w = 0; w < outstanding.length(); ++w) {
+      long bits;
+
+      while ((bits = outstanding.get(w)) != 0) {
+        int idx = (w << 6) + Long.numberOfTrailingZeros(bits);
+
+        if (clear(idx)) {
+          ((Async<?>) elements[idx]).abort(err);
+        }
+      }
+    }
+  }
+
+  // Clears the element's outstanding bit, returns false if it was not set
+  private boolean clear(int idx) {
+    int w    = idx >>> 6;
+    long bit = 1L << idx;
+
+    while (true) {
+      long bits = outstanding.get(w);
+
+      if ((bits & bit) == 0) {
+        return false;
+      }
+
+      if (outstanding.compareAndSet(w, bits, bits & ~bit)) {
+        return true;
+      }
+    }
+  }
+
+  private void insert(int idx) {
+    int mask = table.length - 1;
+    int h    = hash(elements[idx], mask);
+
+    while (table[h] != 0) {
+      h = (h + 1) & mask;
+    }
+
+    table[h] = idx + 1;
+  }
+
+  private int firstIndexOf(Async<?> src) {
+    int mask = table.length - 1;
+
+    for (int h = hash(src, mask); table[h] != 0; h = (h + 1) & mask) {
+      if (elements[table[h] - 1] == src) {
+        return table[h] - 1;
+      }
+    }
+
+    return -1;
+  }
+
+  private static int hash(Object o, int mask) {
+    int h = System.identityHashCode(o);
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  // A power of two, at most half full
+  private static int tableSize(int n) {
+    int size = 2;
+
+    while (size < n * 2) {
+      size <<= 1;
+    }
+
+    return size;
+  }
+
+  static final AtomicIntegerFieldUpdater<Join> REMAINING =
+    AtomicIntegerFieldUpdater.newUpdater(Join.class, "remaining");
+
+  static final AtomicIntegerFieldUpdater<Join> SPARE =
+    AtomicIntegerFieldUpdater.newUpdater(Join.class, "spare");
+
+  static final AtomicIntegerFieldUpdater<Join> SLOT =
+    AtomicIntegerFieldUpdater.newUpdater(Join.class, "slot");
 }
@@ -3,14 +3,38 @@ package momentum.async;
 import clojure.lang.*;
 import java.util.*;
 
-final public class JoinedArgs extends ArrayList<Object> implements Seqable {
+/*
+ * The realized values of a join. Backed directly by the array the join fills
+ * in, rather than a copy of it.
+ */
+final public class JoinedArgs extends AbstractList<Object> implements RandomAccess, Seqable {
+
+  final Object[] arr;
 
   public JoinedArgs(Collection<Object> c) {
-    super(c);
+    this(c.toArray());
+  }
+
+  JoinedArgs(Object[] a) {
+    arr = a;
+  }
+
+  public Object get(int idx) {
+    return arr[idx];
+  }
+
+  public Object set(int idx, Object val) {
+    Object ret = arr[idx];
+    arr[idx] = val;
+    return ret;
+  }
+
+  public int size() {
+    return arr.length;
   }
 
   public ISeq seq() {
-    return IteratorSeq.create(iterator());
+    return ArraySeq.create(arr);
   }
 
 }
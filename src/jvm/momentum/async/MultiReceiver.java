@@ -0,0 +1,18 @@
+package momentum.async;
+
+/*
+ * Receives the realization of many async objects. Unlike Receiver, it is
+ * told which async object has been realized, so a single instance can be
+ * registered with each of them.
+ */
+interface MultiReceiver {
+  /*
+   * Invoked with the async object and its realized value.
+   */
+  void success(Async<?> src, Object val);
+
+  /*
+   * Invoked with the async object and its aborted error
+   */
+  void error(Async<?> src, Exception err);
+}
@@ -11,11 +11,19 @@ public final class SplicedAsyncSeq extends AsyncSeq implements IPersistentMap {
   final class SelectReceiver implements Receiver {
 
     final Object key;
+    final IAsync source;
     final boolean isAsyncSeq;
 
-    SelectReceiver(Object k, boolean aseq) {
+    SelectReceiver(Object k, IAsync src) {
       key = k;
-      isAsyncSeq = aseq;
+      source = src;
+      isAsyncSeq = src instanceof AsyncSeq;
+    }
+
+    void release() {
+      if (source instanceof Async) {
+        ((Async) source).removeReceiver(this);
+      }
     }
 
     public void success(Object val) {
@@ -39,6 +47,13 @@ public final class SplicedAsyncSeq extends AsyncSeq implements IPersistentMap {
 
   final AtomicReference<AsyncVal> asyncVal = new AtomicReference<AsyncVal>();
 
+  /*
+   * The receivers registered on the sources. Once the seq is realized, the
+   * sources that have not been selected are told to forget them, the next
+   * seq registers its own.
+   */
+  SelectReceiver[] receivers;
+
   public SplicedAsyncSeq(final LinkedHashMap<Object,Object> m) {
     super(null);
 
@@ -48,8 +63,10 @@ public final class SplicedAsyncSeq extends AsyncSeq implements IPersistentMap {
 
   Object setup() {
     AsyncVal p = new AsyncVal();
+    int i = 0;
 
     asyncVal.set(p);
+    receivers = new SelectReceiver[map.size()];
 
     for (Entry<Object,Object> entry : map.entrySet()) {
 
@@ -60,21 +77,48 @@ public final class SplicedAsyncSeq extends AsyncSeq implements IPersistentMap {
         // Short circuit if the value is already realized
         if (val.isRealized() && val.val() != null) {
           realizeEntrySuccess(entry.getKey(), val.val());
-          return p;
+          break;
         }
-        else {
-          val.receive(new SelectReceiver(entry.getKey(), val instanceof AsyncSeq));
+
+        SelectReceiver r = new SelectReceiver(entry.getKey(), val);
+
+        receivers[i++] = r;
+        val.receive(r);
+
+        // Stop registering once a source has been selected
+        if (asyncVal.get() != p) {
+          break;
         }
       }
       else {
         realizeEntrySuccess(entry.getKey(), entry.getValue());
-        return p;
+        break;
       }
     }
 
+    // The seq may have been realized while the receivers were being
+    // registered, in which case releasing them might have missed some.
+    if (asyncVal.get() != p) {
+      releaseReceivers();
+    }
+
     return p;
   }
 
+  void releaseReceivers() {
+    SelectReceiver[] rs = receivers;
+
+    if (rs == null) {
+      return;
+    }
+
+    for (SelectReceiver r : rs) {
+      if (r != null) {
+        r.release();
+      }
+    }
+  }
+
   LinkedHashMap<Object,Object> cloneMap() {
     LinkedHashMap<Object,Object> ret = new LinkedHashMap<Object,Object>(map.size());
 
@@ -116,6 +160,7 @@ public final class SplicedAsyncSeq extends AsyncSeq implements IPersistentMap {
     AsyncVal p = acquireVal();
 
     if (p != null) {
+      releaseReceivers();
       p.put(null);
     }
   }
@@ -127,6 +172,8 @@ public final class SplicedAsyncSeq extends AsyncSeq implements IPersistentMap {
       return;
     }
 
+    releaseReceivers();
+
     ISeq seq, next;
     MapEntry entry;
 
@@ -176,15 +223,17 @@ public final class SplicedAsyncSeq extends AsyncSeq implements IPersistentMap {
       return;
     }
 
-    if (p.abort(err)) {
-      abortSelectedValues(err);
-    }
+    // The other sources are aborted first, so that they are already
+    // aborted by the time anyone observes the seq being aborted.
+    releaseReceivers();
+    abortSelectedValues(err);
+    p.abort(err);
   }
 
   public boolean abort(Exception err) {
-    boolean ret = super.abort(err);
+    releaseReceivers();
     abortSelectedValues(err);
-    return ret;
+    return super.abort(err);
   }
 
   /*
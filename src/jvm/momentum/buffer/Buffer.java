@@ -1,11 +1,13 @@
 package momentum.buffer;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -21,7 +23,7 @@ import clojure.lang.Seqable;
 /*
  * TODO: Add unsigned accessors
  */
-public abstract class Buffer implements Seqable {
+public abstract class Buffer implements Seqable, Comparable<Buffer> {
 
   static final int MIN_DYNAMIC_BUFFER_SIZE = 64;
 
@@ -38,11 +40,27 @@ public abstract class Buffer implements Seqable {
   // The byte order that any multibyte reads will use.
   boolean bigEndian;
 
+  // Reference count shared by every buffer derived from a pooled allocation.
+  // Buffers that are not pooled leave this null and are managed by the GC.
+  RefCount ref;
+
   public final static Buffer allocate(int cap) {
     return wrapArray(new byte[cap], 0, cap);
   }
 
+  public final static Buffer allocate(int cap, BufferPool pool) {
+    if (pool == null) {
+      return allocate(cap);
+    }
+
+    return pool.allocate(cap);
+  }
+
   public final static Buffer allocateDirect(int cap) {
+    if (DirectBuffer.isSupported()) {
+      return DirectBuffer.allocateNative(cap);
+    }
+
     return wrap(ByteBuffer.allocateDirect(cap));
   }
 
@@ -82,19 +100,38 @@ public abstract class Buffer implements Seqable {
   }
 
   public final static Buffer dynamic(int est, int max) {
-    Buffer[] arr;
+    return CompositeBuffer.build(initialSegments(est, max, null), max);
+  }
 
+  // The segment a dynamic buffer starts out with
+  static Buffer[] initialSegments(int est, int max, BufferPool pool) {
     if (est == 0) {
-      arr = new Buffer[0];
+      return new Buffer[0];
     }
     else if (est < MIN_DYNAMIC_BUFFER_SIZE && max >= MIN_DYNAMIC_BUFFER_SIZE) {
-      arr = new Buffer[] { allocate(MIN_DYNAMIC_BUFFER_SIZE) };
+      return new Buffer[] { allocate(MIN_DYNAMIC_BUFFER_SIZE, pool) };
     }
     else {
-      arr = new Buffer[] { allocate(est) };
+      return new Buffer[] { allocate(est, pool) };
+    }
+  }
+
+  public final static Buffer dynamic(int est, int max, BufferPool pool) {
+    if (pool == null) {
+      return dynamic(est, max);
     }
 
-    return CompositeBuffer.build(arr, max);
+    return pool.dynamic(est, max);
+  }
+
+  /**
+   * Returns a dynamic buffer that grows according to the given policy. The
+   * segments are drawn from the pool, unless it is null.
+   *
+   * @return The dynamic buffer
+   */
+  public final static Buffer dynamic(int est, int max, BufferPool pool, GrowthPolicy growth) {
+    return CompositeBuffer.dynamic(initialSegments(est, max, pool), max, pool, growth);
   }
 
   public final static Buffer wrap(byte[] arr) {
@@ -109,11 +146,25 @@ public abstract class Buffer implements Seqable {
     if (buf.hasArray()) {
       return wrapArray(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
     }
+    else if (buf.isDirect() && DirectBuffer.isSupported()) {
+      return DirectBuffer.wrapNative(buf);
+    }
     else {
       return new ByteBufferBackedBuffer(buf.slice());
     }
   }
 
+  /**
+   * Maps a region of the file into memory. The returned buffer is read-only,
+   * reading it pages the file in as needed without ever copying it onto the
+   * heap.
+   *
+   * @return The buffer holding the region of the file
+   */
+  public final static Buffer map(FileChannel ch, long offset, int len) throws IOException {
+    return wrap(ch.map(FileChannel.MapMode.READ_ONLY, offset, len));
+  }
+
   public final static Buffer wrap(ChannelBuffer buf) {
     // Slice first, axe questions later...
     buf = buf.slice();
@@ -121,9 +172,16 @@ public abstract class Buffer implements Seqable {
     if (buf.hasArray()) {
       return wrapArray(buf.array(), buf.arrayOffset() + buf.readerIndex(), buf.readableBytes());
     }
-    else {
-      return new ChannelBufferBackedBuffer(buf);
+    else if (buf.isDirect() && DirectBuffer.isSupported()) {
+      // Keep off-heap data off-heap as long as it is a single chunk of memory
+      ByteBuffer[] bufs = buf.toByteBuffers();
+
+      if (bufs.length == 1 && bufs[0].isDirect()) {
+        return wrap(bufs[0]);
+      }
     }
+
+    return new ChannelBufferBackedBuffer(buf);
   }
 
   public final static Buffer wrap(Buffer buf) {
@@ -131,7 +189,9 @@ public abstract class Buffer implements Seqable {
   }
 
   public final static Buffer wrap(String str) throws UnsupportedEncodingException {
-    return wrap(str.getBytes("UTF-8"));
+    Buffer ret = allocate(utf8Length(str));
+    ret._putUtf8(0, str);
+    return ret;
   }
 
   public final static Buffer wrap(Buffer[] bufs) {
@@ -304,6 +364,90 @@ public abstract class Buffer implements Seqable {
     position(pos);
   }
 
+  /**
+   * Returns a read-only view of the buffer's contents, with the same position
+   * and limit. Views have their own position and limit but share the
+   * contents, which cannot be written through any of them. Slices and
+   * duplicates of a read-only view are read-only as well, so it can be
+   * shared across threads and written out any number of times without being
+   * copied.
+   *
+   * The view does not freeze the contents: writes through this buffer, or
+   * anything else sharing its memory, are still seen through the view. Use
+   * toImmutable() for contents that must never change.
+   *
+   * @return The read-only view
+   */
+  public final Buffer asReadOnly() {
+    Buffer ret;
+
+    if (_isReadOnly()) {
+      ret = _slice(0, capacity);
+    }
+    else {
+      ret = new ReadOnlyBuffer(_slice(0, capacity), 0, capacity, capacity, bigEndian);
+    }
+
+    ret.limit(limit);
+    ret.position(position);
+
+    return derived(ret);
+  }
+
+  /**
+   * Returns whether the buffer's contents can be read but not written.
+   *
+   * @return True if writing to the buffer throws ReadOnlyBufferException
+   */
+  public final boolean isReadOnly() {
+    return _isReadOnly();
+  }
+
+  protected boolean _isReadOnly() {
+    return false;
+  }
+
+  /**
+   * Returns a read-only buffer holding a copy of the buffer's contents, with
+   * the same position and limit. Nothing else references the copied memory,
+   * so unlike a read-only view, its contents can never change. Buffers that
+   * are already immutable are not copied again, only duplicated.
+   *
+   * @return The immutable buffer
+   */
+  public final Buffer toImmutable() {
+    Buffer ret;
+
+    if (_isImmutable()) {
+      ret = _slice(0, capacity);
+    }
+    else {
+      byte[] arr = new byte[capacity];
+      _get(0, arr, 0, capacity);
+
+      ret = new ReadOnlyBuffer(new HeapBuffer(arr, 0, 0, capacity, capacity, bigEndian),
+                               0, capacity, capacity, bigEndian, true);
+    }
+
+    ret.limit(limit);
+    ret.position(position);
+
+    return ret;
+  }
+
+  /**
+   * Returns whether the buffer's contents can never change.
+   *
+   * @return True if the buffer was returned by toImmutable()
+   */
+  public final boolean isImmutable() {
+    return _isImmutable();
+  }
+
+  protected boolean _isImmutable() {
+    return false;
+  }
+
   /**
    * Returns this buffer's capacity.
    *
@@ -320,8 +464,43 @@ public abstract class Buffer implements Seqable {
     return this;
   }
 
+  /**
+   * Coalesces runs of small segments of a composite buffer into contiguous
+   * chunks of memory. The contents, position and limit of the buffer are not
+   * changed. Does nothing for buffers that are not composites.
+   *
+   * Buffers derived from this one keep reading the replaced segments, so
+   * pooled ones only go back to their pool once the buffer is released.
+   *
+   * @return The buffer
+   */
+  public final Buffer compact() {
+    _compact();
+    return this;
+  }
+
+  /**
+   * Discards the buffer's contents so that it can be filled again, keeping
+   * the memory that is already allocated. The position is set to zero and the
+   * limit to the capacity. Dynamic buffers keep every segment they have
+   * grown, so refilling them up to the same size does not allocate.
+   *
+   * The contents are undefined until they are written to again, so nothing
+   * sliced from the buffer may be in use anymore.
+   *
+   * @return The buffer
+   */
+  public final Buffer reset() {
+    _reset();
+    return clear();
+  }
+
+  protected void _reset() {
+    // Only composite buffers keep state about their contents
+  }
+
   public final Buffer duplicate() {
-    return _slice(0, capacity);
+    return derived(_slice(0, capacity));
   }
 
   public final Buffer flip() {
@@ -331,6 +510,12 @@ public abstract class Buffer implements Seqable {
     return this;
   }
 
+  /**
+   * Compares the remaining bytes of both buffers. The bytes are compared a
+   * word at a time whenever the memory backing the buffers allows it.
+   *
+   * @return True if both buffers have the same remaining bytes
+   */
   public final boolean equals(Buffer o) {
     int remaining = remaining();
 
@@ -338,19 +523,11 @@ public abstract class Buffer implements Seqable {
       return false;
     }
 
-    int indexA = position;
-    int indexB = o.position;
-
-    while (remaining-- > 0) {
-      if (_get(indexA) != o._get(indexB)) {
-        return false;
-      }
-
-      ++indexA;
-      ++indexB;
+    if (o == this) {
+      return true;
     }
 
-    return true;
+    return _mismatch(position, o, o.position, remaining) < 0;
   }
 
   public final boolean equals(Object o) {
@@ -361,6 +538,26 @@ public abstract class Buffer implements Seqable {
     return false;
   }
 
+  /**
+   * Compares the remaining bytes of both buffers lexicographically, with the
+   * bytes treated as unsigned values. A buffer that is a prefix of another
+   * sorts before it.
+   *
+   * @return A negative number, zero or a positive number as this buffer is
+   *         less than, equal to or greater than the other one
+   */
+  public final int compareTo(Buffer o) {
+    int remaining = remaining();
+    int len       = Math.min(remaining, o.remaining());
+    int i         = _mismatch(position, o, o.position, len);
+
+    if (i >= 0) {
+      return (_get(position + i) & 0xFF) - (o._get(o.position + i) & 0xFF);
+    }
+
+    return remaining - o.remaining();
+  }
+
   public final Buffer focus(int len) {
     if (len < 0) {
       throw new IllegalArgumentException("length must be positive");
@@ -371,6 +568,18 @@ public abstract class Buffer implements Seqable {
     return this;
   }
 
+  /**
+   * Returns a hash of the remaining bytes, consistent with equals. As with
+   * ByteBuffer, the hash depends on the position and limit, so a buffer
+   * should not be moved or written to while it is used as a map key.
+   * Immutable buffers remember the hash they last computed.
+   *
+   * @return The hash code
+   */
+  public final int hashCode() {
+    return _hashCode(position, limit - position);
+  }
+
   public final boolean hasRemaining() {
     return position < limit;
   }
@@ -450,7 +659,7 @@ public abstract class Buffer implements Seqable {
   }
 
   public final Buffer slice() {
-    return _slice(position, remaining());
+    return derived(_slice(position, remaining()));
   }
 
   public final Buffer slice(int idx, int len) {
@@ -462,7 +671,7 @@ public abstract class Buffer implements Seqable {
       throw new IndexOutOfBoundsException();
     }
 
-    return _slice(idx, len);
+    return derived(_slice(idx, len));
   }
 
   public final int remaining() {
@@ -498,6 +707,168 @@ public abstract class Buffer implements Seqable {
     return position(pos).limit(pos + len);
   }
 
+  /*
+   *
+   *  Reference counting
+   *
+   */
+
+  /**
+   * Returns whether or not the buffer's memory was drawn from a BufferPool.
+   *
+   * @return True if releasing the buffer hands its memory back to a pool
+   */
+  public final boolean isPooled() {
+    return ref != null;
+  }
+
+  /**
+   * Returns the number of outstanding references to the buffer's memory.
+   * Buffers that are not pooled always have a reference count of 1.
+   *
+   * @return The reference count
+   */
+  public final int refCount() {
+    return ref == null ? 1 : ref.count();
+  }
+
+  /**
+   * Increments the reference count of the buffer's memory. The count is
+   * shared by every buffer derived from the same allocation.
+   *
+   * @return This buffer
+   *
+   * @throws IllegalStateException
+   *         If the buffer has already been released
+   */
+  public final Buffer retain() {
+    if (ref != null) {
+      ref.retain();
+    }
+
+    return this;
+  }
+
+  /**
+   * Decrements the reference count of the buffer's memory, returning the
+   * memory to its pool once the count reaches zero. The buffer, and every
+   * buffer derived from the same allocation, must not be used afterwards.
+   *
+   * Releasing a buffer that is not pooled does nothing.
+   *
+   * @return True if the memory was returned to its pool
+   *
+   * @throws IllegalStateException
+   *         If the buffer has already been released
+   */
+  public final boolean release() {
+    if (ref != null) {
+      return ref.release();
+    }
+
+    return false;
+  }
+
+  private final Buffer derived(Buffer buf) {
+    if (ref != null) {
+      buf.ref = ref;
+    }
+
+    return buf;
+  }
+
+  /*
+   *
+   *  Searching
+   *
+   */
+
+  /**
+   * Returns the index of the first occurrence of the byte between the
+   * buffer's position and limit.
+   *
+   * @return The absolute index of the byte or -1 if it could not be found
+   */
+  public final int indexOf(byte b) {
+    return _indexOf(position, limit, b);
+  }
+
+  /**
+   * Returns the index of the first occurrence of the byte in the range
+   * starting at from (inclusive) and ending at to (exclusive).
+   *
+   * @return The absolute index of the byte or -1 if it could not be found
+   */
+  public final int indexOf(int from, int to, byte b) {
+    assertRange(from, to);
+    return _indexOf(from, to, b);
+  }
+
+  /**
+   * Returns the index of the first occurrence of the needle's remaining bytes
+   * between the buffer's position and limit.
+   *
+   * @return The absolute index of the match or -1 if there is none
+   */
+  public final int indexOf(Buffer needle) {
+    return _indexOf(position, limit, needle);
+  }
+
+  public final int indexOf(int from, int to, Buffer needle) {
+    assertRange(from, to);
+    return _indexOf(from, to, needle);
+  }
+
+  /**
+   * Returns the index of the first byte between the buffer's position and
+   * limit that is contained in the set.
+   *
+   * @return The absolute index of the byte or -1 if none could be found
+   */
+  public final int indexOfAny(byte[] set) {
+    return _indexOfAny(position, limit, set);
+  }
+
+  public final int indexOfAny(int from, int to, byte[] set) {
+    assertRange(from, to);
+    return _indexOfAny(from, to, set);
+  }
+
+  private final int _indexOf(int from, int to, Buffer needle) {
+    int len = needle.remaining();
+
+    if (len == 0) {
+      return from;
+    }
+
+    byte first = needle._get(needle.position);
+    int last   = to - len;
+
+    // Find each occurrence of the first byte of the needle and then check
+    // whether the rest of it follows.
+    while (from <= last) {
+      int idx = _indexOf(from, last + 1, first);
+
+      if (idx < 0) {
+        return -1;
+      }
+
+      int i = 1;
+
+      while (i < len && _get(idx + i) == needle._get(needle.position + i)) {
+        ++i;
+      }
+
+      if (i == len) {
+        return idx;
+      }
+
+      from = idx + 1;
+    }
+
+    return -1;
+  }
+
   /*
    *
    *  Conversions
@@ -528,6 +899,35 @@ public abstract class Buffer implements Seqable {
     return ret;
   }
 
+  protected ByteBuffer[] _toByteBuffers(int idx, int len) {
+    ByteBuffer ret = _toByteBuffer();
+
+    ret.clear();
+    ret.limit(idx + len);
+    ret.position(idx);
+
+    return new ByteBuffer[] { ret.slice() };
+  }
+
+  /**
+   * Returns views of the buffer's contents between the position and the
+   * limit, one for each contiguous chunk of memory backing the buffer, ready
+   * to be handed to a gathering write. Nothing is copied (except for the
+   * unallocated tail of a dynamic buffer), so writing to the views writes to
+   * the buffer.
+   *
+   * @return The views in order
+   */
+  public final ByteBuffer[] toByteBuffers() {
+    ByteBuffer[] ret = _toByteBuffers(position, limit - position);
+
+    for (int i = 0; i < ret.length; ++i) {
+      ret[i].order(order());
+    }
+
+    return ret;
+  }
+
   public final ChannelBuffer toChannelBuffer() {
     ChannelBuffer ret = _toChannelBuffer();
     ret.setIndex(position, limit);
@@ -575,6 +975,223 @@ public abstract class Buffer implements Seqable {
     }
   }
 
+  /*
+   * Multibyte accessors. By default, values are assembled a byte at a time,
+   * but subclasses that can read or write a whole word at once should
+   * override these.
+   */
+
+  protected short _getShort(int idx, boolean be) {
+    if (be) {
+      return makeShort(_get(idx), _get(idx + 1));
+    }
+    else {
+      return makeShort(_get(idx + 1), _get(idx));
+    }
+  }
+
+  protected void _putShort(int idx, short v, boolean be) {
+    if (be) {
+      _put(idx,     short1(v));
+      _put(idx + 1, short0(v));
+    }
+    else {
+      _put(idx,     short0(v));
+      _put(idx + 1, short1(v));
+    }
+  }
+
+  protected int _getInt(int idx, boolean be) {
+    if (be) {
+      return makeInt(_get(idx), _get(idx + 1), _get(idx + 2), _get(idx + 3));
+    }
+    else {
+      return makeInt(_get(idx + 3), _get(idx + 2), _get(idx + 1), _get(idx));
+    }
+  }
+
+  protected void _putInt(int idx, int v, boolean be) {
+    if (be) {
+      _put(idx,     int3(v));
+      _put(idx + 1, int2(v));
+      _put(idx + 2, int1(v));
+      _put(idx + 3, int0(v));
+    }
+    else {
+      _put(idx,     int0(v));
+      _put(idx + 1, int1(v));
+      _put(idx + 2, int2(v));
+      _put(idx + 3, int3(v));
+    }
+  }
+
+  protected long _getLong(int idx, boolean be) {
+    if (be) {
+      return makeLong(_get(idx),     _get(idx + 1), _get(idx + 2), _get(idx + 3),
+                      _get(idx + 4), _get(idx + 5), _get(idx + 6), _get(idx + 7));
+    }
+    else {
+      return makeLong(_get(idx + 7), _get(idx + 6), _get(idx + 5), _get(idx + 4),
+                      _get(idx + 3), _get(idx + 2), _get(idx + 1), _get(idx));
+    }
+  }
+
+  protected void _putLong(int idx, long v, boolean be) {
+    if (be) {
+      _put(idx,     long7(v));
+      _put(idx + 1, long6(v));
+      _put(idx + 2, long5(v));
+      _put(idx + 3, long4(v));
+      _put(idx + 4, long3(v));
+      _put(idx + 5, long2(v));
+      _put(idx + 6, long1(v));
+      _put(idx + 7, long0(v));
+    }
+    else {
+      _put(idx,     long0(v));
+      _put(idx + 1, long1(v));
+      _put(idx + 2, long2(v));
+      _put(idx + 3, long3(v));
+      _put(idx + 4, long4(v));
+      _put(idx + 5, long5(v));
+      _put(idx + 6, long6(v));
+      _put(idx + 7, long7(v));
+    }
+  }
+
+  protected void _compact() {
+    // Only composite buffers have anything to compact
+  }
+
+  /*
+   * Strings. Characters outside of the ASCII range are written as '?' and
+   * bytes are read as ISO-8859-1 characters.
+   */
+
+  protected void _putAscii(int idx, CharSequence src, int off, int len) {
+    for (int i = 0; i < len; ++i) {
+      _put(idx + i, asciiByte(src.charAt(off + i)));
+    }
+  }
+
+  protected String _getAscii(int idx, int len) {
+    char[] chars = new char[len];
+
+    for (int i = 0; i < len; ++i) {
+      chars[i] = (char) (_get(idx + i) & 0xFF);
+    }
+
+    return new String(chars);
+  }
+
+  /*
+   * Comparisons. Returns the offset of the first byte in the range that
+   * differs from the other buffer, or -1 if the ranges are equal. By default,
+   * both buffers are read a word at a time through the multibyte accessors.
+   */
+
+  protected int _mismatch(int idx, Buffer o, int oIdx, int len) {
+    // Let composites walk their segments instead of looking every word up
+    if (o instanceof CompositeBuffer && !(this instanceof CompositeBuffer)) {
+      return o._mismatch(oIdx, this, idx, len);
+    }
+
+    int i = 0;
+
+    for (; i <= len - 8; i += 8) {
+      if (_getLong(idx + i, true) != o._getLong(oIdx + i, true)) {
+        break;
+      }
+    }
+
+    for (; i < len; ++i) {
+      if (_get(idx + i) != o._get(oIdx + i)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /*
+   * Hashing. Bytes are mixed in a word at a time the same way xxHash64 mixes
+   * its input. Words are always read as big endian so that equal buffers hash
+   * the same no matter what memory backs them.
+   */
+
+  static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+  static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+  static final long PRIME64_3 = 0x165667B19E3779F9L;
+  static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+  static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+  static final long hashWord(long h, long k) {
+    k *= PRIME64_2;
+    k  = Long.rotateLeft(k, 31) * PRIME64_1;
+    h ^= k;
+
+    return Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+  }
+
+  static final long hashByte(long h, byte b) {
+    h ^= (b & 0xFFL) * PRIME64_5;
+
+    return Long.rotateLeft(h, 11) * PRIME64_1;
+  }
+
+  static final int hashFinish(long h) {
+    h ^= h >>> 33;
+    h *= PRIME64_2;
+    h ^= h >>> 29;
+    h *= PRIME64_3;
+    h ^= h >>> 32;
+
+    return (int) h;
+  }
+
+  protected int _hashCode(int idx, int len) {
+    long h = PRIME64_5 + len;
+    int  i = 0;
+
+    for (; i <= len - 8; i += 8) {
+      h = hashWord(h, _getLong(idx + i, true));
+    }
+
+    for (; i < len; ++i) {
+      h = hashByte(h, _get(idx + i));
+    }
+
+    return hashFinish(h);
+  }
+
+  /*
+   * Searching. The ranges have already been checked. By default, the buffer
+   * is scanned a byte at a time.
+   */
+
+  protected int _indexOf(int from, int to, byte b) {
+    for (int i = from; i < to; ++i) {
+      if (_get(i) == b) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  protected int _indexOfAny(int from, int to, byte[] set) {
+    for (int i = from; i < to; ++i) {
+      byte curr = _get(i);
+
+      for (int j = 0; j < set.length; ++j) {
+        if (curr == set[j]) {
+          return i;
+        }
+      }
+    }
+
+    return -1;
+  }
 
   /*
    *
@@ -815,13 +1432,6 @@ public abstract class Buffer implements Seqable {
    *
    */
 
-  private final char makeChar(byte b1, byte b0) {
-    return (char) (b1 << 8 | b0 & 0xFF);
-  }
-
-  private final byte char1(char x) { return (byte) (x >> 8); }
-  private final byte char0(char x) { return (byte)  x;       }
-
   public final char getChar() {
     return bigEndian ? getCharBigEndian() : getCharLittleEndian();
   }
@@ -835,7 +1445,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final char getCharBigEndian(int idx) {
-    return makeChar(get(idx), get(idx + 1));
+    assertIndex(idx, 2);
+    return (char) _getShort(idx, true);
   }
 
   public final char getCharLittleEndian() {
@@ -843,7 +1454,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final char getCharLittleEndian(int idx) {
-    return makeChar(get(idx + 1), get(idx));
+    assertIndex(idx, 2);
+    return (char) _getShort(idx, false);
   }
 
   public final Buffer putChar(char val) {
@@ -859,8 +1471,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final Buffer putCharBigEndian(int idx, char val) {
-    put(idx,     char1(val));
-    put(idx + 1, char0(val));
+    assertIndex(idx, 2);
+    _putShort(idx, (short) val, true);
 
     return this;
   }
@@ -870,8 +1482,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final Buffer putCharLittleEndian(int idx, char val) {
-    put(idx,     char0(val));
-    put(idx + 1, char1(val));
+    assertIndex(idx, 2);
+    _putShort(idx, (short) val, false);
 
     return this;
   }
@@ -1027,7 +1639,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final int getIntBigEndian(int idx) {
-    return makeInt(get(idx), get(idx + 1), get(idx + 2), get(idx + 3));
+    assertIndex(idx, 4);
+    return _getInt(idx, true);
   }
 
   public final long getIntUnsignedBigEndian(int idx) {
@@ -1043,7 +1656,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final int getIntLittleEndian(int idx) {
-    return makeInt(get(idx + 3), get(idx + 2), get(idx + 1), get(idx));
+    assertIndex(idx, 4);
+    return _getInt(idx, false);
   }
 
   public final long getIntUnsignedLittleEndian(int idx) {
@@ -1075,10 +1689,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final Buffer putIntBigEndian(int idx, int val) {
-    put(idx,     int3(val));
-    put(idx + 1, int2(val));
-    put(idx + 2, int1(val));
-    put(idx + 3, int0(val));
+    assertIndex(idx, 4);
+    _putInt(idx, val, true);
 
     return this;
   }
@@ -1096,10 +1708,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final Buffer putIntLittleEndian(int idx, int val) {
-    put(idx,     int0(val));
-    put(idx + 1, int1(val));
-    put(idx + 2, int2(val));
-    put(idx + 3, int3(val));
+    assertIndex(idx, 4);
+    _putInt(idx, val, false);
 
     return this;
   }
@@ -1148,14 +1758,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final long getLongBigEndian(int idx) {
-    return makeLong(get(idx),
-                    get(idx + 1),
-                    get(idx + 2),
-                    get(idx + 3),
-                    get(idx + 4),
-                    get(idx + 5),
-                    get(idx + 6),
-                    get(idx + 7));
+    assertIndex(idx, 8);
+    return _getLong(idx, true);
   }
 
   public final long getLongLittleEndian() {
@@ -1163,14 +1767,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final long getLongLittleEndian(int idx) {
-    return makeLong(get(idx + 7),
-                    get(idx + 6),
-                    get(idx + 5),
-                    get(idx + 4),
-                    get(idx + 3),
-                    get(idx + 2),
-                    get(idx + 1),
-                    get(idx));
+    assertIndex(idx, 8);
+    return _getLong(idx, false);
   }
 
   public final Buffer putLong(long val) {
@@ -1186,14 +1784,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final Buffer putLongBigEndian(int idx, long val) {
-    put(idx,     long7(val));
-    put(idx + 1, long6(val));
-    put(idx + 2, long5(val));
-    put(idx + 3, long4(val));
-    put(idx + 4, long3(val));
-    put(idx + 5, long2(val));
-    put(idx + 6, long1(val));
-    put(idx + 7, long0(val));
+    assertIndex(idx, 8);
+    _putLong(idx, val, true);
 
     return this;
   }
@@ -1203,14 +1795,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final Buffer putLongLittleEndian(int idx, long val) {
-    put(idx,     long0(val));
-    put(idx + 1, long1(val));
-    put(idx + 2, long2(val));
-    put(idx + 3, long3(val));
-    put(idx + 4, long4(val));
-    put(idx + 5, long5(val));
-    put(idx + 6, long6(val));
-    put(idx + 7, long7(val));
+    assertIndex(idx, 8);
+    _putLong(idx, val, false);
 
     return this;
   }
@@ -1253,7 +1839,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final short getShortBigEndian(int idx) {
-    return makeShort(get(idx), get(idx + 1));
+    assertIndex(idx, 2);
+    return _getShort(idx, true);
   }
 
   public final int getShortUnsignedBigEndian(int idx) {
@@ -1269,7 +1856,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final short getShortLittleEndian(int idx) {
-    return makeShort(get(idx + 1), get(idx));
+    assertIndex(idx, 2);
+    return _getShort(idx, false);
   }
 
   public final int getShortUnsignedLittleEndian(int idx) {
@@ -1301,8 +1889,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final Buffer putShortBigEndian(int idx, short val) {
-    put(idx,     short1(val));
-    put(idx + 1, short0(val));
+    assertIndex(idx, 2);
+    _putShort(idx, val, true);
 
     return this;
   }
@@ -1320,8 +1908,8 @@ public abstract class Buffer implements Seqable {
   }
 
   public final Buffer putShortLittleEndian(int idx, short val) {
-    put(idx,     short0(val));
-    put(idx + 1, short1(val));
+    assertIndex(idx, 2);
+    _putShort(idx, val, false);
 
     return this;
   }
@@ -1330,12 +1918,172 @@ public abstract class Buffer implements Seqable {
     return putShortLittleEndian(idx, (short) val);
   }
 
+  /*
+   *
+   *  STRING accessors
+   *
+   */
+
+  static final byte asciiByte(char c) {
+    return c < 0x80 ? (byte) c : (byte) '?';
+  }
+
+  private static boolean isSurrogate(char c) {
+    return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+  }
+
+  /**
+   * Returns the number of bytes that the string takes up once encoded as
+   * UTF-8.
+   */
+  public final static int utf8Length(CharSequence str) {
+    int len = str.length();
+    int ret = len;
+
+    for (int i = 0; i < len; ++i) {
+      char c = str.charAt(i);
+
+      if (c >= 0x80) {
+        if (c < 0x800) {
+          ret += 1;
+        }
+        else if (!isSurrogate(c)) {
+          ret += 2;
+        }
+        else if (Character.isHighSurrogate(c) && i + 1 < len &&
+                 Character.isLowSurrogate(str.charAt(i + 1))) {
+          // Surrogate pairs take 4 bytes for 2 chars
+          ret += 2;
+          ++i;
+        }
+        // Unpaired surrogates are written as a single '?'
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Relative ASCII put method. Writes every character of the string as a
+   * single byte, characters that are not ASCII are written as '?'.
+   *
+   * @return The buffer
+   */
+  public final Buffer putAscii(CharSequence src) {
+    int len = src.length();
+
+    assertWalkable(len);
+    _putAscii(position, src, 0, len);
+    position += len;
+
+    return this;
+  }
+
+  public final Buffer putAscii(int idx, CharSequence src) {
+    assertIndex(idx, src.length());
+    _putAscii(idx, src, 0, src.length());
+
+    return this;
+  }
+
+  /**
+   * Relative UTF-8 put method. Encodes the string straight into the buffer.
+   *
+   * @return The buffer
+   */
+  public final Buffer putUtf8(CharSequence src) {
+    int len = utf8Length(src);
+
+    assertWalkable(len);
+    _putUtf8(position, src);
+    position += len;
+
+    return this;
+  }
+
+  public final Buffer putUtf8(int idx, CharSequence src) {
+    assertIndex(idx, utf8Length(src));
+    _putUtf8(idx, src);
+
+    return this;
+  }
+
+  /**
+   * Absolute ASCII get method. Reads len bytes starting at idx, one
+   * character per byte.
+   *
+   * @return The string
+   */
+  public final String getAscii(int idx, int len) {
+    if (len < 0) {
+      throw new IllegalArgumentException("length must be positive");
+    }
+
+    assertIndex(idx, len);
+    return _getAscii(idx, len);
+  }
+
+  private final void _putUtf8(int idx, CharSequence src) {
+    int len = src.length();
+    int i   = 0;
+
+    // Fast path, the ASCII prefix of the string maps byte for byte
+    while (i < len && src.charAt(i) < 0x80) {
+      ++i;
+    }
+
+    _putAscii(idx, src, 0, i);
+    idx += i;
+
+    for (; i < len; ++i) {
+      char c = src.charAt(i);
+
+      if (c < 0x80) {
+        _put(idx++, (byte) c);
+      }
+      else if (c < 0x800) {
+        _put(idx++, (byte) (0xC0 | (c >> 6)));
+        _put(idx++, (byte) (0x80 | (c & 0x3F)));
+      }
+      else if (Character.isHighSurrogate(c) && i + 1 < len &&
+               Character.isLowSurrogate(src.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, src.charAt(++i));
+
+        _put(idx++, (byte) (0xF0 | (cp >> 18)));
+        _put(idx++, (byte) (0x80 | ((cp >> 12) & 0x3F)));
+        _put(idx++, (byte) (0x80 | ((cp >>  6) & 0x3F)));
+        _put(idx++, (byte) (0x80 | (cp & 0x3F)));
+      }
+      else if (isSurrogate(c)) {
+        // Unpaired surrogates can't be encoded, do what String#getBytes does
+        _put(idx++, (byte) '?');
+      }
+      else {
+        _put(idx++, (byte) (0xE0 | (c >> 12)));
+        _put(idx++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+        _put(idx++, (byte) (0x80 | (c & 0x3F)));
+      }
+    }
+  }
+
   private final void assertHolds(Buffer buf, int count) {
     if (buf.remaining() < count) {
       throw new BufferOverflowException();
     }
   }
 
+  private final void assertIndex(int idx, int count) {
+    if (idx < 0 || idx > capacity - count) {
+      throw new IndexOutOfBoundsException();
+    }
+  }
+
+  private final void assertRange(int from, int to) {
+    if (from < 0 || to > capacity || from > to) {
+      throw new IndexOutOfBoundsException();
+    }
+  }
+
   private final void assertWalkable(int count) {
     if (limit - position < count) {
       throw new BufferUnderflowException();
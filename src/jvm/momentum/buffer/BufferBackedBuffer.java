@@ -56,6 +56,10 @@ public final class BufferBackedBuffer extends Buffer {
     return ret;
   }
 
+  protected ByteBuffer[] _toByteBuffers(int idx, int len) {
+    return buf._toByteBuffers(offset + idx, len);
+  }
+
   protected byte[] _toByteArray() {
     if (offset == 0 && capacity == buf.capacity) {
       return buf._toByteArray();
@@ -83,4 +87,54 @@ public final class BufferBackedBuffer extends Buffer {
   protected void _put(int idx, byte[] src, int off, int len) {
     buf._put(offset + idx, src, off, len);
   }
+
+  protected short _getShort(int idx, boolean be) {
+    return buf._getShort(offset + idx, be);
+  }
+
+  protected void _putShort(int idx, short v, boolean be) {
+    buf._putShort(offset + idx, v, be);
+  }
+
+  protected int _getInt(int idx, boolean be) {
+    return buf._getInt(offset + idx, be);
+  }
+
+  protected void _putInt(int idx, int v, boolean be) {
+    buf._putInt(offset + idx, v, be);
+  }
+
+  protected long _getLong(int idx, boolean be) {
+    return buf._getLong(offset + idx, be);
+  }
+
+  protected void _putLong(int idx, long v, boolean be) {
+    buf._putLong(offset + idx, v, be);
+  }
+
+  protected int _indexOf(int from, int to, byte b) {
+    int ret = buf._indexOf(offset + from, offset + to, b);
+    return ret < 0 ? ret : ret - offset;
+  }
+
+  protected int _indexOfAny(int from, int to, byte[] set) {
+    int ret = buf._indexOfAny(offset + from, offset + to, set);
+    return ret < 0 ? ret : ret - offset;
+  }
+
+  protected int _mismatch(int idx, Buffer o, int oIdx, int len) {
+    return buf._mismatch(offset + idx, o, oIdx, len);
+  }
+
+  protected int _hashCode(int idx, int len) {
+    return buf._hashCode(offset + idx, len);
+  }
+
+  protected void _putAscii(int idx, CharSequence src, int off, int len) {
+    buf._putAscii(offset + idx, src, off, len);
+  }
+
+  protected String _getAscii(int idx, int len) {
+    return buf._getAscii(offset + idx, len);
+  }
 }
@@ -0,0 +1,152 @@
+package momentum.buffer;
+
+/*
+ * A size-classed pool of heap byte arrays.
+ *
+ * Each thread keeps its own cache of free arrays for every size class (powers
+ * of two from 64 bytes up to 64kb), so allocating and releasing never
+ * contends on a lock. Arrays are returned to the cache of the thread that
+ * releases the last reference, which is generally the Netty worker that
+ * finished writing the buffer. Requests larger than the biggest size class
+ * are not pooled.
+ *
+ * The contents of a pooled buffer are undefined until they are written to.
+ */
+public final class BufferPool {
+
+  static final int MIN_SIZE_CLASS = 6;  // 64 bytes
+  static final int MAX_SIZE_CLASS = 16; // 64kb
+  static final int SIZE_CLASSES   = MAX_SIZE_CLASS - MIN_SIZE_CLASS + 1;
+
+  public static final BufferPool DEFAULT = new BufferPool(32);
+
+  /*
+   * Reference count of a single pooled array. Once the last reference is
+   * released, the array is handed back to the pool.
+   */
+  final class Chunk extends RefCount {
+
+    final byte[] arr;
+    final int sizeClass;
+
+    Chunk(byte[] a, int cls) {
+      arr       = a;
+      sizeClass = cls;
+    }
+
+    void deallocate() {
+      recycle(arr, sizeClass);
+    }
+  }
+
+  /*
+   * Free arrays cached by a single thread, one stack per size class.
+   */
+  static final class Cache {
+
+    final byte[][][] stacks = new byte[SIZE_CLASSES][][];
+    final int[] counts      = new int[SIZE_CLASSES];
+
+  }
+
+  /*
+   * The maximum number of free arrays that each thread caches per size class.
+   */
+  final int maxCached;
+
+  final ThreadLocal<Cache> caches = new ThreadLocal<Cache>() {
+    protected Cache initialValue() {
+      return new Cache();
+    }
+  };
+
+  public BufferPool(int maxCached) {
+    if (maxCached < 0) {
+      throw new IllegalArgumentException("Negative cache size: " + maxCached);
+    }
+
+    this.maxCached = maxCached;
+  }
+
+  /*
+   * Returns a heap buffer with the requested capacity. Releasing the last
+   * reference to the buffer (or anything derived from it) returns the
+   * backing array to the pool.
+   */
+  public Buffer allocate(int cap) {
+    if (cap < 0) {
+      throw new IllegalArgumentException("Negative capacity: " + cap);
+    }
+
+    int cls = sizeClass(cap);
+
+    if (cls > MAX_SIZE_CLASS) {
+      return Buffer.allocate(cap);
+    }
+
+    byte[] arr = acquire(cls);
+    Buffer ret = new HeapBuffer(arr, 0, 0, cap, cap);
+
+    ret.ref = new Chunk(arr, cls);
+
+    return ret;
+  }
+
+  /*
+   * Returns a dynamic buffer that draws all of its segments from the pool.
+   * Releasing the dynamic buffer releases every segment that it allocated.
+   */
+  public Buffer dynamic(int est, int max) {
+    return dynamic(est, max, GrowthPolicy.DEFAULT);
+  }
+
+  public Buffer dynamic(int est, int max, GrowthPolicy growth) {
+    return CompositeBuffer.dynamic(Buffer.initialSegments(est, max, this), max, this, growth);
+  }
+
+  static int sizeClass(int cap) {
+    if (cap <= (1 << MIN_SIZE_CLASS)) {
+      return MIN_SIZE_CLASS;
+    }
+
+    return 32 - Integer.numberOfLeadingZeros(cap - 1);
+  }
+
+  private byte[] acquire(int cls) {
+    Cache cache = caches.get();
+    int idx     = cls - MIN_SIZE_CLASS;
+    int cnt     = cache.counts[idx];
+
+    if (cnt == 0) {
+      return new byte[1 << cls];
+    }
+
+    byte[][] stack = cache.stacks[idx];
+    byte[] ret     = stack[--cnt];
+
+    stack[cnt]        = null;
+    cache.counts[idx] = cnt;
+
+    return ret;
+  }
+
+  void recycle(byte[] arr, int cls) {
+    Cache cache = caches.get();
+    int idx     = cls - MIN_SIZE_CLASS;
+    int cnt     = cache.counts[idx];
+
+    // The cache is full, let the GC have the array
+    if (cnt == maxCached) {
+      return;
+    }
+
+    byte[][] stack = cache.stacks[idx];
+
+    if (stack == null) {
+      stack = cache.stacks[idx] = new byte[maxCached][];
+    }
+
+    stack[cnt]        = arr;
+    cache.counts[idx] = cnt + 1;
+  }
+}
@@ -1,6 +1,7 @@
 package momentum.buffer;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.HashMap;
 
@@ -24,6 +25,10 @@ public final class ByteBufferBackedBuffer extends Buffer {
     this.buf = buf;
   }
 
+  protected boolean _isReadOnly() {
+    return buf.isReadOnly();
+  }
+
   protected Buffer _slice(int idx, int len) {
     buf.position(idx);
     buf.limit(idx + len);
@@ -89,4 +94,37 @@ public final class ByteBufferBackedBuffer extends Buffer {
     buf.position(idx);
     buf.put(src, off, len);
   }
+
+  // The backing buffer reads multibyte values in its own byte order, so swap
+  // them around when a different one is asked for.
+  private boolean backingBigEndian() {
+    return buf.order() == ByteOrder.BIG_ENDIAN;
+  }
+
+  protected short _getShort(int idx, boolean be) {
+    short v = buf.getShort(idx);
+    return be == backingBigEndian() ? v : Short.reverseBytes(v);
+  }
+
+  protected void _putShort(int idx, short v, boolean be) {
+    buf.putShort(idx, be == backingBigEndian() ? v : Short.reverseBytes(v));
+  }
+
+  protected int _getInt(int idx, boolean be) {
+    int v = buf.getInt(idx);
+    return be == backingBigEndian() ? v : Integer.reverseBytes(v);
+  }
+
+  protected void _putInt(int idx, int v, boolean be) {
+    buf.putInt(idx, be == backingBigEndian() ? v : Integer.reverseBytes(v));
+  }
+
+  protected long _getLong(int idx, boolean be) {
+    long v = buf.getLong(idx);
+    return be == backingBigEndian() ? v : Long.reverseBytes(v);
+  }
+
+  protected void _putLong(int idx, long v, boolean be) {
+    buf.putLong(idx, be == backingBigEndian() ? v : Long.reverseBytes(v));
+  }
 }
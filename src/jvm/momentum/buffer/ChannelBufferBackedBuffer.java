@@ -1,6 +1,7 @@
 package momentum.buffer;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 import org.jboss.netty.buffer.ChannelBuffer;
@@ -75,4 +76,41 @@ public final class ChannelBufferBackedBuffer extends Buffer {
   protected void _put(int idx, byte[] src, int offset, int len) {
     buf.setBytes(idx, src, offset, len);
   }
+
+  // The backing buffer reads multibyte values in its own byte order, so swap
+  // them around when a different one is asked for.
+  private boolean backingBigEndian() {
+    return buf.order() == ByteOrder.BIG_ENDIAN;
+  }
+
+  protected short _getShort(int idx, boolean be) {
+    short v = buf.getShort(idx);
+    return be == backingBigEndian() ? v : Short.reverseBytes(v);
+  }
+
+  protected void _putShort(int idx, short v, boolean be) {
+    buf.setShort(idx, be == backingBigEndian() ? v : Short.reverseBytes(v));
+  }
+
+  protected int _getInt(int idx, boolean be) {
+    int v = buf.getInt(idx);
+    return be == backingBigEndian() ? v : Integer.reverseBytes(v);
+  }
+
+  protected void _putInt(int idx, int v, boolean be) {
+    buf.setInt(idx, be == backingBigEndian() ? v : Integer.reverseBytes(v));
+  }
+
+  protected long _getLong(int idx, boolean be) {
+    long v = buf.getLong(idx);
+    return be == backingBigEndian() ? v : Long.reverseBytes(v);
+  }
+
+  protected void _putLong(int idx, long v, boolean be) {
+    buf.setLong(idx, be == backingBigEndian() ? v : Long.reverseBytes(v));
+  }
+
+  protected int _indexOf(int from, int to, byte b) {
+    return buf.indexOf(from, to, b);
+  }
 }
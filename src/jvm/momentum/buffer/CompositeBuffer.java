@@ -1,7 +1,9 @@
 package momentum.buffer;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
@@ -12,6 +14,43 @@ public final class CompositeBuffer extends Buffer {
 
   private static int MIN_IDX_ARR_LEN = 10;
 
+  // Segments smaller than this are coalesced by compact()
+  static final int MIN_COMPACT_SEGMENT_SIZE = 256;
+
+  /*
+   * Reference count of a composite that owns pooled segments. Once the last
+   * reference is released, each segment is released in turn.
+   *
+   * Slices and duplicates share this count and may still read segments that
+   * the composite has since replaced (by compacting for instance), so those
+   * are retired here and only released along with the rest.
+   */
+  static final class Segments extends RefCount {
+
+    final CompositeBuffer buf;
+
+    ArrayList<RefCount> retired;
+
+    Segments(CompositeBuffer b) {
+      buf = b;
+    }
+
+    synchronized void retire(RefCount r) {
+      if (retired == null) {
+        retired = new ArrayList<RefCount>();
+      }
+      else if (retired.contains(r)) {
+        return;
+      }
+
+      retired.add(r);
+    }
+
+    synchronized void deallocate() {
+      buf.releaseSegments(retired);
+    }
+  }
+
   Buffer[] bufs;
   int   [] indices;
 
@@ -19,15 +58,41 @@ public final class CompositeBuffer extends Buffer {
   int lastBufferIdx;
   int bufCount;
 
-  // TODO: This function should probably extract the components of any
-  // CompositeBuffer that it is wrapping
+  // The pool that new segments are drawn from when the buffer grows. Null if
+  // the segments are heap allocated.
+  BufferPool pool;
+
+  // How new segments are sized when the buffer grows
+  GrowthPolicy growth = GrowthPolicy.DEFAULT;
+
   protected static Buffer build(Buffer[] bufArr, int capacity) {
+    return build(bufArr, capacity, null);
+  }
+
+  protected static Buffer build(Buffer[] bufArr, int capacity, BufferPool pool) {
+    return build(bufArr, capacity, pool, GrowthPolicy.DEFAULT);
+  }
+
+  protected static Buffer build(Buffer[] bufArr, int capacity, BufferPool pool, GrowthPolicy growth) {
+    return build(bufArr, capacity, pool, growth, true);
+  }
+
+  // Builds a dynamic buffer out of segments that were just allocated for it.
+  // The buffer takes over their only reference instead of retaining them.
+  static Buffer dynamic(Buffer[] bufArr, int capacity, BufferPool pool, GrowthPolicy growth) {
+    return build(bufArr, capacity, pool, growth, false);
+  }
+
+  private static Buffer build(Buffer[] bufArr, int capacity, BufferPool pool,
+                              GrowthPolicy growth, boolean retain) {
+    bufArr = flatten(bufArr);
+
     // Create the buffer array and the index lookup array. These are created bigger
     // than needed to accomodate for any buffer growth.
     int size = Math.max(MIN_IDX_ARR_LEN, bufArr.length * 2);
 
     Buffer[] bufs = new Buffer[size];
-    int[] indices = new int[size];
+    int[] indices = new int[size + 1];
 
     // Calculate the capacity of the buffer and make an array with the indexes.
     for (int i = 0; i < bufArr.length; ++i) {
@@ -41,7 +106,102 @@ public final class CompositeBuffer extends Buffer {
 
     capacity = Math.max(capacity, indices[bufArr.length]);
 
-    return new CompositeBuffer(bufs, indices, bufArr.length, 0, capacity, capacity, true);
+    CompositeBuffer ret =
+      new CompositeBuffer(bufs, indices, bufArr.length, 0, capacity, capacity, true);
+
+    ret.growth = growth;
+
+    // If any of the segments are pooled, the composite holds a reference to
+    // each of them and releases it once it is released itself. The caller
+    // keeps its own references.
+    if (pool != null || ret.hasPooledSegments()) {
+      if (retain) {
+        ret.retainSegments();
+      }
+
+      ret.pool = pool;
+      ret.ref  = new Segments(ret);
+    }
+
+    return ret;
+  }
+
+  /*
+   * Replaces every composite in the array with the segments that it is made
+   * of, so that composites of composites don't have to look up each byte
+   * twice. Composites that haven't allocated their full capacity yet are
+   * left alone since the unallocated tail has no segment to stand for it.
+   */
+  private static Buffer[] flatten(Buffer[] bufArr) {
+    int count = 0;
+    boolean nested = false;
+
+    for (int i = 0; i < bufArr.length; ++i) {
+      Buffer buf = bufArr[i];
+
+      if (isFlattenable(buf)) {
+        count += ((CompositeBuffer) buf).segmentCount();
+        nested = true;
+      }
+      else {
+        ++count;
+      }
+    }
+
+    if (!nested) {
+      return bufArr;
+    }
+
+    Buffer[] ret = new Buffer[count];
+    int n = 0;
+
+    for (int i = 0; i < bufArr.length; ++i) {
+      Buffer buf = bufArr[i];
+
+      if (isFlattenable(buf)) {
+        n = ((CompositeBuffer) buf).copySegments(ret, n);
+      }
+      else {
+        ret[n++] = buf;
+      }
+    }
+
+    return ret;
+  }
+
+  private static boolean isFlattenable(Buffer buf) {
+    if (buf instanceof CompositeBuffer) {
+      return ((CompositeBuffer) buf).currentCapacity >= buf.capacity;
+    }
+
+    return false;
+  }
+
+  // The number of segments needed to cover the buffer's capacity
+  private int segmentCount() {
+    if (capacity == 0) {
+      return 0;
+    }
+
+    return peekBufferIndex(capacity - 1) + 1;
+  }
+
+  // Copies the segments covering the buffer's capacity into the array. If the
+  // composite owns its segments, the copies are tied to its reference count,
+  // so whoever wraps them keeps the composite alive.
+  private int copySegments(Buffer[] dst, int n) {
+    int count = segmentCount();
+
+    for (int i = 0; i < count; ++i) {
+      Buffer curr = bufs[i];
+      int len     = Math.min(indices[i + 1], capacity) - indices[i];
+      Buffer seg  = curr._slice(0, len);
+
+      seg.ref  = ref != null ? ref : curr.ref;
+      dst[n++] = seg;
+    }
+
+    return n;
   }
 
   protected CompositeBuffer(Buffer[] bs, int[] idxs, int cnt, int pos, int lim, int cap, boolean be) {
@@ -72,6 +232,34 @@ public final class CompositeBuffer extends Buffer {
     }
   }
 
+  protected ByteBuffer[] _toByteBuffers(int idx, int len) {
+    int end   = idx + len;
+    int alloc = Math.min(end, currentCapacity);
+
+    ArrayList<ByteBuffer> ret = new ArrayList<ByteBuffer>();
+
+    if (idx < alloc) {
+      int bufIdx = bufferIndex(idx);
+
+      while (idx < alloc) {
+        int start = indices[bufIdx];
+        int next  = Math.min(indices[bufIdx + 1], alloc);
+
+        Collections.addAll(ret, bufs[bufIdx]._toByteBuffers(idx - start, next - idx));
+
+        idx = next;
+        ++bufIdx;
+      }
+    }
+
+    // Anything past the allocated segments reads as zeros
+    if (idx < end) {
+      ret.add(ByteBuffer.allocate(end - idx));
+    }
+
+    return ret.toArray(new ByteBuffer[ret.size()]);
+  }
+
   protected ChannelBuffer _toChannelBuffer() {
     ByteBuffer[] arr = new ByteBuffer[bufCount];
     ByteBuffer curr;
@@ -109,7 +297,11 @@ public final class CompositeBuffer extends Buffer {
   protected Buffer _slice(int idx, int len) {
     // Quick check, is the range equal to the current buffer size?
     if (idx == 0 && len == capacity) {
-      new CompositeBuffer(dupBufs(), dupIndices(), bufCount, 0, len, len, bigEndian);
+      CompositeBuffer ret =
+        new CompositeBuffer(dupBufs(), dupIndices(), bufCount, 0, len, len, bigEndian);
+
+      ret.growth = growth;
+      return ret;
     }
     else if (idx >= currentCapacity) {
       // If the slice range is out of the currently allocated range,
@@ -247,6 +439,223 @@ public final class CompositeBuffer extends Buffer {
     }
   }
 
+  /*
+   * Multibyte values are handed to the segment that holds them. Only values
+   * that straddle two segments are assembled a byte at a time.
+   */
+
+  protected short _getShort(int idx, boolean be) {
+    int bufIdx = segmentHolding(idx, 2);
+
+    if (bufIdx < 0) {
+      return super._getShort(idx, be);
+    }
+
+    return bufs[bufIdx]._getShort(idx - indices[bufIdx], be);
+  }
+
+  protected void _putShort(int idx, short v, boolean be) {
+    if (idx + 2 > currentCapacity) {
+      growTo(idx, 2);
+    }
+
+    int bufIdx = segmentHolding(idx, 2);
+
+    if (bufIdx < 0) {
+      super._putShort(idx, v, be);
+    }
+    else {
+      bufs[bufIdx]._putShort(idx - indices[bufIdx], v, be);
+    }
+  }
+
+  protected int _getInt(int idx, boolean be) {
+    int bufIdx = segmentHolding(idx, 4);
+
+    if (bufIdx < 0) {
+      return super._getInt(idx, be);
+    }
+
+    return bufs[bufIdx]._getInt(idx - indices[bufIdx], be);
+  }
+
+  protected void _putInt(int idx, int v, boolean be) {
+    if (idx + 4 > currentCapacity) {
+      growTo(idx, 4);
+    }
+
+    int bufIdx = segmentHolding(idx, 4);
+
+    if (bufIdx < 0) {
+      super._putInt(idx, v, be);
+    }
+    else {
+      bufs[bufIdx]._putInt(idx - indices[bufIdx], v, be);
+    }
+  }
+
+  protected long _getLong(int idx, boolean be) {
+    int bufIdx = segmentHolding(idx, 8);
+
+    if (bufIdx < 0) {
+      return super._getLong(idx, be);
+    }
+
+    return bufs[bufIdx]._getLong(idx - indices[bufIdx], be);
+  }
+
+  protected void _putLong(int idx, long v, boolean be) {
+    if (idx + 8 > currentCapacity) {
+      growTo(idx, 8);
+    }
+
+    int bufIdx = segmentHolding(idx, 8);
+
+    if (bufIdx < 0) {
+      super._putLong(idx, v, be);
+    }
+    else {
+      bufs[bufIdx]._putLong(idx - indices[bufIdx], v, be);
+    }
+  }
+
+  protected void _putAscii(int idx, CharSequence src, int off, int len) {
+    if (len == 0) {
+      return;
+    }
+
+    if (idx + len > currentCapacity) {
+      growTo(idx, len);
+    }
+
+    int bufIdx = bufferIndex(idx);
+
+    while (len > 0) {
+      int nextIdx = indices[bufIdx + 1];
+      int chunk   = Math.min(nextIdx - idx, len);
+
+      bufs[bufIdx]._putAscii(idx - indices[bufIdx], src, off, chunk);
+
+      idx  = nextIdx;
+      off += chunk;
+      len -= chunk;
+
+      ++bufIdx;
+    }
+  }
+
+  protected String _getAscii(int idx, int len) {
+    int bufIdx = len == 0 ? -1 : segmentHolding(idx, len);
+
+    if (bufIdx < 0) {
+      return super._getAscii(idx, len);
+    }
+
+    return bufs[bufIdx]._getAscii(idx - indices[bufIdx], len);
+  }
+
+  /*
+   * Searches walk the segments, letting each one scan its own range.
+   * Anything past the allocated segments reads as zeros.
+   */
+
+  protected int _mismatch(int idx, Buffer o, int oIdx, int len) {
+    int from = idx;
+    int end  = Math.min(idx + len, currentCapacity);
+
+    if (from < end) {
+      int bufIdx = bufferIndex(from);
+
+      while (from < end) {
+        int start = indices[bufIdx];
+        int next  = Math.min(indices[bufIdx + 1], end);
+        int ret   = bufs[bufIdx]._mismatch(from - start, o, oIdx + from - idx, next - from);
+
+        if (ret >= 0) {
+          return from - idx + ret;
+        }
+
+        from = next;
+        ++bufIdx;
+      }
+    }
+
+    // Past the allocated segments, the buffer reads as zeros
+    for (; from < idx + len; ++from) {
+      if (o._get(oIdx + from - idx) != 0) {
+        return from - idx;
+      }
+    }
+
+    return -1;
+  }
+
+  protected int _indexOf(int from, int to, byte b) {
+    int end = Math.min(to, currentCapacity);
+
+    if (from < end) {
+      int bufIdx = bufferIndex(from);
+
+      while (from < end) {
+        int start = indices[bufIdx];
+        int next  = Math.min(indices[bufIdx + 1], end);
+        int idx   = bufs[bufIdx]._indexOf(from - start, next - start, b);
+
+        if (idx >= 0) {
+          return start + idx;
+        }
+
+        from = next;
+        ++bufIdx;
+      }
+    }
+
+    return b == 0 && from < to ? from : -1;
+  }
+
+  protected int _indexOfAny(int from, int to, byte[] set) {
+    int end = Math.min(to, currentCapacity);
+
+    if (from < end) {
+      int bufIdx = bufferIndex(from);
+
+      while (from < end) {
+        int start = indices[bufIdx];
+        int next  = Math.min(indices[bufIdx + 1], end);
+        int idx   = bufs[bufIdx]._indexOfAny(from - start, next - start, set);
+
+        if (idx >= 0) {
+          return start + idx;
+        }
+
+        from = next;
+        ++bufIdx;
+      }
+    }
+
+    if (from < to) {
+      for (int i = 0; i < set.length; ++i) {
+        if (set[i] == 0) {
+          return from;
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  // Returns the index of the segment that holds the entire range or -1 if
+  // there is no such segment.
+  private int segmentHolding(int idx, int len) {
+    if (idx + len > currentCapacity) {
+      return -1;
+    }
+
+    int bufIdx = bufferIndex(idx);
+
+    return idx + len <= indices[bufIdx + 1] ? bufIdx : -1;
+  }
+
   private int bufferIndex(int idx) {
     int bufIdx = peekBufferIndex(idx);
     lastBufferIdx = bufIdx;
@@ -261,43 +670,54 @@ public final class CompositeBuffer extends Buffer {
 
     int bufferIdx = lastBufferIdx;
 
-    if (idx >= indices[bufferIdx]) {
-      // The hot path
-      if (idx < indices[bufferIdx + 1]) {
-        return bufferIdx;
-      }
+    // The hot path
+    if (idx >= indices[bufferIdx] && idx < indices[bufferIdx + 1]) {
+      return bufferIdx;
+    }
 
-      // Search right
-      do {
-        ++bufferIdx;
-      } while (indices[bufferIdx + 1] < idx);
+    // Sequential access generally moves on to the next segment
+    if (bufferIdx + 1 < bufCount && idx >= indices[bufferIdx + 1] && idx < indices[bufferIdx + 2]) {
+      return bufferIdx + 1;
     }
-    else {
-      // Search left
-      do {
-        --bufferIdx;
-      } while (indices[bufferIdx] > idx);
+
+    // Binary search for the last segment that starts at or before the index.
+    // Empty segments start where the next one does, so they are skipped.
+    int lo = 0;
+    int hi = bufCount - 1;
+
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+
+      if (indices[mid] <= idx) {
+        lo = mid;
+      }
+      else {
+        hi = mid - 1;
+      }
     }
 
-    return bufferIdx;
+    return lo;
   }
 
   private int growTo(int idx, int padding) {
-    // Calculate the new buffer capacity. This will be at least twice the size
-    // of the current buffer. However, we should ensure that the current write
-    // can fit after the buffer grows, so if the required index is larger, just
-    // use that.
-    int newCapacity = Math.max(idx + padding, currentCapacity * 2);
+    int newCapacity = growth.nextCapacity(currentCapacity, idx + padding, capacity);
+
+    // Once the buffer is made of as many segments as the policy allows, fold
+    // all of them along with the new memory into a single segment.
+    if (bufCount >= growth.maxSegments) {
+      consolidate(newCapacity);
+      return 0;
+    }
 
     // Make sure that we haven't filled up our current buffer & index lookup
     // arrays. If we have, create new ones.
     if (bufCount == bufs.length) {
-      bufs    = Arrays.copyOf(bufs,    bufs.length    + 10);
-      indices = Arrays.copyOf(indices, indices.length + 10 + 1);
+      bufs    = Arrays.copyOf(bufs,    bufs.length * 2);
+      indices = Arrays.copyOf(indices, bufs.length + 1);
     }
 
     // Update the buffer information
-    bufs[bufCount] = Buffer.allocate(newCapacity - currentCapacity);
+    bufs[bufCount] = Buffer.allocate(newCapacity - currentCapacity, pool);
     indices[bufCount + 1] = newCapacity;
 
     currentCapacity = newCapacity;
@@ -306,6 +726,198 @@ public final class CompositeBuffer extends Buffer {
     return bufCount++;
   }
 
+  // Replaces every segment with a single one of the given capacity holding
+  // the same contents
+  private void consolidate(int newCapacity) {
+    Buffer seg = Buffer.allocate(newCapacity, pool);
+
+    copyTo(0, seg, currentCapacity);
+
+    Buffer[] oldBufs = bufs;
+    int oldCount     = bufCount;
+
+    bufs    = new Buffer[bufs.length];
+    indices = new int[indices.length];
+
+    bufs[0]    = seg;
+    indices[1] = newCapacity;
+
+    bufCount        = 1;
+    currentCapacity = newCapacity;
+    lastBufferIdx   = 0;
+
+    retireReplaced(oldBufs, oldCount);
+  }
+
+  protected void _reset() {
+    lastBufferIdx = 0;
+  }
+
+  /*
+   * Coalesces each run of consecutive small segments into a single segment,
+   * which cuts down on the number of segments that lookups have to go
+   * through. The buffer's contents are left untouched.
+   */
+  protected void _compact() {
+    int count = bufCount;
+
+    if (count < 2) {
+      return;
+    }
+
+    Buffer[] newBufs = new Buffer[bufs.length];
+    int[] newIndices = new int[indices.length];
+    int n = 0;
+    int i = 0;
+
+    while (i < count) {
+      int j = i;
+
+      while (j < count && indices[j + 1] - indices[j] < MIN_COMPACT_SEGMENT_SIZE) {
+        ++j;
+      }
+
+      if (j - i > 1) {
+        // Coalesce segments i through j - 1
+        int len    = indices[j] - indices[i];
+        Buffer seg = Buffer.allocate(len, pool);
+
+        copyTo(indices[i], seg, len);
+
+        newBufs[n]        = seg;
+        newIndices[n + 1] = newIndices[n] + len;
+        ++n;
+
+        i = j;
+      }
+      else {
+        // Keep at least one segment as is
+        j = Math.max(j, i + 1);
+
+        while (i < j) {
+          newBufs[n]        = bufs[i];
+          newIndices[n + 1] = newIndices[n] + bufs[i].capacity;
+          ++n;
+          ++i;
+        }
+      }
+    }
+
+    if (n == count) {
+      return;
+    }
+
+    Buffer[] oldBufs = bufs;
+    int oldCount     = bufCount;
+
+    bufs          = newBufs;
+    indices       = newIndices;
+    bufCount      = n;
+    lastBufferIdx = 0;
+
+    retireReplaced(oldBufs, oldCount);
+  }
+
+  // The contents of the replaced segments have been copied, but buffers
+  // derived from this one may still read them. Pooled ones are handed to the
+  // reference count shared with those buffers, which releases them once
+  // every one of them is released.
+  private void retireReplaced(Buffer[] oldBufs, int oldCount) {
+    if (!(ref instanceof Segments)) {
+      return;
+    }
+
+    Segments segs = (Segments) ref;
+
+    for (int k = 0; k < oldCount; ++k) {
+      RefCount r = oldBufs[k].ref;
+
+      if (r != null && r != ref && !isReleased(oldBufs, k, r) && !holds(r)) {
+        segs.retire(r);
+      }
+    }
+  }
+
+  // Copies len bytes starting at idx into the start of the destination
+  private void copyTo(int idx, Buffer dst, int len) {
+    int bufIdx = bufferIndex(idx);
+    int off    = 0;
+
+    while (len > 0) {
+      int nextIdx = indices[bufIdx + 1];
+      int chunk   = Math.min(nextIdx - idx, len);
+
+      dst._put(off, bufs[bufIdx], idx - indices[bufIdx], chunk);
+
+      idx  = nextIdx;
+      off += chunk;
+      len -= chunk;
+
+      ++bufIdx;
+    }
+  }
+
+  private boolean holds(RefCount r) {
+    for (int i = 0; i < bufCount; ++i) {
+      if (bufs[i].ref == r) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private boolean hasPooledSegments() {
+    for (int i = 0; i < bufCount; ++i) {
+      if (bufs[i].ref != null) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private void retainSegments() {
+    for (int i = 0; i < bufCount; ++i) {
+      RefCount r = bufs[i].ref;
+
+      if (r != null && !isReleased(bufs, i, r)) {
+        r.retain();
+      }
+    }
+  }
+
+  void releaseSegments(List<RefCount> retired) {
+    for (int i = 0; i < bufCount; ++i) {
+      RefCount r = bufs[i].ref;
+
+      if (r != null && !isReleased(bufs, i, r)) {
+        r.release();
+      }
+    }
+
+    // A duplicate may retire segments that this buffer still holds
+    if (retired != null) {
+      for (RefCount r : retired) {
+        if (!holds(r)) {
+          r.release();
+        }
+      }
+    }
+  }
+
+  // The same allocation might be wrapped more than once, make sure that it
+  // only gets retained and released once.
+  private static boolean isReleased(Buffer[] bufs, int idx, RefCount r) {
+    for (int i = 0; i < idx; ++i) {
+      if (bufs[i].ref == r) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
   private Buffer[] dupBufs() {
     return Arrays.copyOf(bufs, bufs.length);
   }
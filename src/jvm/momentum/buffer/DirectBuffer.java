@@ -0,0 +1,278 @@
+package momentum.buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/*
+ * A buffer that addresses off-heap memory directly through its base address.
+ *
+ * The memory is owned by a direct java.nio.ByteBuffer, which keeps it alive
+ * and lets it be handed to Netty without copying, but all reads and writes go
+ * straight to the address, skipping the ByteBuffer bounds checks and position
+ * logic. Multibyte values are read and written a whole word at a time.
+ */
+public final class DirectBuffer extends Buffer {
+
+  static final long BYTE_ARRAY_OFFSET = MemoryAccess.BYTE_ARRAY_OFFSET;
+
+  static final boolean NATIVE_BIG_ENDIAN =
+    ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+
+  // Whether the platform tolerates multibyte reads at unaligned addresses.
+  static final boolean UNALIGNED;
+
+  static {
+    String arch = System.getProperty("os.arch", "");
+
+    UNALIGNED = arch.equals("i386") || arch.equals("x86") || arch.equals("amd64") ||
+                arch.equals("x86_64") || arch.equals("aarch64");
+  }
+
+  /*
+   * The chunk of native memory shared by a direct buffer and every buffer
+   * sliced from it.
+   */
+  static final class Memory {
+
+    final ByteBuffer buf;
+    final long base;
+    final boolean owned;
+    final AtomicBoolean freed = new AtomicBoolean();
+
+    Memory(ByteBuffer b, boolean o) {
+      buf   = b;
+      base  = MemoryAccess.address(b);
+      owned = o;
+    }
+  }
+
+  final Memory mem;
+
+  final int offset;
+
+  final long address;
+
+  public static boolean isSupported() {
+    return MemoryAccess.isSupported();
+  }
+
+  static DirectBuffer allocateNative(int cap) {
+    ByteBuffer buf = ByteBuffer.allocateDirect(cap);
+    return new DirectBuffer(new Memory(buf, true), 0, 0, cap, cap, true);
+  }
+
+  /*
+   * Writes go straight to the address without going through the ByteBuffer,
+   * so read-only ones (such as read-only file mappings) are only handed out
+   * from behind a read-only view.
+   */
+  static Buffer wrapNative(ByteBuffer buf) {
+    ByteBuffer b = buf.slice();
+    int cap      = b.capacity();
+
+    Buffer ret = new DirectBuffer(new Memory(b, false), 0, 0, cap, cap, true);
+    return buf.isReadOnly() ? ret.asReadOnly() : ret;
+  }
+
+  DirectBuffer(Memory m, int off, int pos, int lim, int cap, boolean be) {
+    super(pos, lim, cap, be);
+
+    mem     = m;
+    offset  = off;
+    address = m.base + off;
+  }
+
+  /*
+   * Frees the native memory right away instead of waiting for the GC to
+   * collect it. Using the buffer, or any buffer sliced from it, afterwards
+   * throws an IllegalStateException. Nothing else may still be reading the
+   * memory, such as a pending write of the buffer to a channel.
+   *
+   * Only buffers allocated with Buffer.allocateDirect can be freed, memory
+   * wrapped from a ByteBuffer belongs to whoever allocated it.
+   */
+  public boolean free() {
+    if (!mem.owned) {
+      throw new UnsupportedOperationException("Buffer does not own its memory");
+    }
+
+    if (!mem.freed.compareAndSet(false, true)) {
+      return false;
+    }
+
+    MemoryAccess.clean(mem.buf);
+    return true;
+  }
+
+  public boolean isFreed() {
+    return mem.freed.get();
+  }
+
+  // The address of the byte at idx. The memory of a freed buffer may already
+  // be handed back to the OS, touching it could crash the JVM.
+  long addr(int idx) {
+    if (mem.freed.get()) {
+      throw new IllegalStateException("Buffer has been freed");
+    }
+
+    return address + idx;
+  }
+
+  protected Buffer _slice(int idx, int len) {
+    return new DirectBuffer(mem, offset + idx, 0, len, len, bigEndian);
+  }
+
+  protected HashMap<String,String> toStringAttrs() {
+    HashMap<String,String> ret = super.toStringAttrs();
+
+    ret.put("address", Long.toHexString(address));
+
+    return ret;
+  }
+
+  protected ByteBuffer _toByteBuffer() {
+    addr(0);
+
+    ByteBuffer ret = mem.buf.duplicate();
+
+    ret.position(offset);
+    ret.limit(offset + capacity);
+
+    return ret.slice();
+  }
+
+  protected ChannelBuffer _toChannelBuffer() {
+    ByteBuffer b = _toByteBuffer();
+    b.order(order());
+
+    return ChannelBuffers.wrappedBuffer(b);
+  }
+
+  protected byte _get(int idx) {
+    return MemoryAccess.getByte(null, addr(idx));
+  }
+
+  protected void _get(int idx, byte[] dst, int off, int len) {
+    MemoryAccess.copy(null, addr(idx), dst, BYTE_ARRAY_OFFSET + off, len);
+  }
+
+  protected void _put(int idx, byte b) {
+    MemoryAccess.putByte(null, addr(idx), b);
+  }
+
+  protected void _put(int idx, byte[] src, int off, int len) {
+    MemoryAccess.copy(src, BYTE_ARRAY_OFFSET + off, null, addr(idx), len);
+  }
+
+  protected void _put(int idx, Buffer src, int off, int len) {
+    if (src instanceof DirectBuffer) {
+      DirectBuffer s = (DirectBuffer) src;
+      MemoryAccess.copy(null, s.addr(off), null, addr(idx), len);
+    }
+    else if (src instanceof HeapBuffer) {
+      HeapBuffer s = (HeapBuffer) src;
+      _put(idx, s.arr, s.offset + off, len);
+    }
+    else {
+      super._put(idx, src, off, len);
+    }
+  }
+
+  protected short _getShort(int idx, boolean be) {
+    if (!UNALIGNED) {
+      return super._getShort(idx, be);
+    }
+
+    short v = MemoryAccess.getShort(null, addr(idx));
+    return be == NATIVE_BIG_ENDIAN ? v : Short.reverseBytes(v);
+  }
+
+  protected void _putShort(int idx, short v, boolean be) {
+    if (!UNALIGNED) {
+      super._putShort(idx, v, be);
+      return;
+    }
+
+    MemoryAccess.putShort(null, addr(idx), be == NATIVE_BIG_ENDIAN ? v : Short.reverseBytes(v));
+  }
+
+  protected int _getInt(int idx, boolean be) {
+    if (!UNALIGNED) {
+      return super._getInt(idx, be);
+    }
+
+    int v = MemoryAccess.getInt(null, addr(idx));
+    return be == NATIVE_BIG_ENDIAN ? v : Integer.reverseBytes(v);
+  }
+
+  protected void _putInt(int idx, int v, boolean be) {
+    if (!UNALIGNED) {
+      super._putInt(idx, v, be);
+      return;
+    }
+
+    MemoryAccess.putInt(null, addr(idx), be == NATIVE_BIG_ENDIAN ? v : Integer.reverseBytes(v));
+  }
+
+  protected long _getLong(int idx, boolean be) {
+    if (!UNALIGNED) {
+      return super._getLong(idx, be);
+    }
+
+    long v = MemoryAccess.getLong(null, addr(idx));
+    return be == NATIVE_BIG_ENDIAN ? v : Long.reverseBytes(v);
+  }
+
+  protected void _putLong(int idx, long v, boolean be) {
+    if (!UNALIGNED) {
+      super._putLong(idx, v, be);
+      return;
+    }
+
+    MemoryAccess.putLong(null, addr(idx), be == NATIVE_BIG_ENDIAN ? v : Long.reverseBytes(v));
+  }
+
+  protected int _mismatch(int idx, Buffer o, int oIdx, int len) {
+    if (UNALIGNED) {
+      if (o instanceof DirectBuffer) {
+        DirectBuffer d = (DirectBuffer) o;
+        return Swar.mismatch(null, addr(idx), null, d.addr(oIdx), len);
+      }
+      else if (o instanceof HeapBuffer) {
+        HeapBuffer h = (HeapBuffer) o;
+        return Swar.mismatch(null, addr(idx), h.arr, BYTE_ARRAY_OFFSET + h.offset + oIdx, len);
+      }
+    }
+
+    return super._mismatch(idx, o, oIdx, len);
+  }
+
+  protected int _hashCode(int idx, int len) {
+    if (!UNALIGNED) {
+      return super._hashCode(idx, len);
+    }
+
+    return Swar.hash(null, addr(idx), len);
+  }
+
+  protected int _indexOf(int from, int to, byte b) {
+    if (!UNALIGNED) {
+      return super._indexOf(from, to, b);
+    }
+
+    return Swar.indexOf(null, addr(0), from, to, b);
+  }
+
+  protected int _indexOfAny(int from, int to, byte[] set) {
+    if (!UNALIGNED) {
+      return super._indexOfAny(from, to, set);
+    }
+
+    return Swar.indexOfAny(null, addr(0), from, to, set);
+  }
+}
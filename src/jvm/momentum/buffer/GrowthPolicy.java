@@ -0,0 +1,52 @@
+package momentum.buffer;
+
+/*
+ * Decides how much memory a dynamic buffer allocates each time it runs out.
+ *
+ * The allocated capacity grows geometrically by the given factor, but a single
+ * new segment never exceeds the maximum segment size (unless one write needs
+ * more than that). Once the buffer is made of the maximum number of segments,
+ * the next growth consolidates all of them into a single segment so that
+ * lookups stay cheap for long-lived buffers. Slices taken before that keep
+ * reading the old segments, so pooled ones only go back to their pool once
+ * the buffer is released.
+ */
+public final class GrowthPolicy {
+
+  public static final GrowthPolicy DEFAULT =
+    new GrowthPolicy(2, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+  final int factor;
+  final int maxSegmentSize;
+  final int maxSegments;
+
+  public GrowthPolicy(int factor, int maxSegmentSize, int maxSegments) {
+    if (factor < 1) {
+      throw new IllegalArgumentException("Growth factor must be at least 1: " + factor);
+    }
+
+    if (maxSegmentSize < 1) {
+      throw new IllegalArgumentException("Invalid max segment size: " + maxSegmentSize);
+    }
+
+    if (maxSegments < 2) {
+      throw new IllegalArgumentException("Max segments must be at least 2: " + maxSegments);
+    }
+
+    this.factor         = factor;
+    this.maxSegmentSize = maxSegmentSize;
+    this.maxSegments    = maxSegments;
+  }
+
+  /*
+   * Returns the capacity to allocate up to, given the currently allocated
+   * capacity, the capacity the pending write needs and the buffer's capacity.
+   */
+  int nextCapacity(int current, int needed, int capacity) {
+    long next = Math.min((long) current * factor, (long) current + maxSegmentSize);
+
+    next = Math.min(next, capacity);
+
+    return (int) Math.max(next, needed);
+  }
+}
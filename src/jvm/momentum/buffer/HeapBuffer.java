@@ -8,6 +8,14 @@ import org.jboss.netty.buffer.ChannelBuffers;
 
 public final class HeapBuffer extends Buffer {
 
+  // Multibyte values are read straight out of the array a whole word at a
+  // time when the platform allows it.
+  static final boolean WORD_ACCESS = DirectBuffer.isSupported() && DirectBuffer.UNALIGNED;
+
+  static final long BASE = DirectBuffer.BYTE_ARRAY_OFFSET;
+
+  static final boolean NATIVE_BIG_ENDIAN = DirectBuffer.NATIVE_BIG_ENDIAN;
+
   final int offset;
   final byte [] arr;
 
@@ -67,4 +75,112 @@ public final class HeapBuffer extends Buffer {
       src._get(off, arr, offset + idx, len);
     }
   }
+
+  protected short _getShort(int idx, boolean be) {
+    if (!WORD_ACCESS) {
+      return super._getShort(idx, be);
+    }
+
+    short v = MemoryAccess.getShort(arr, BASE + offset + idx);
+    return be == NATIVE_BIG_ENDIAN ? v : Short.reverseBytes(v);
+  }
+
+  protected void _putShort(int idx, short v, boolean be) {
+    if (!WORD_ACCESS) {
+      super._putShort(idx, v, be);
+      return;
+    }
+
+    MemoryAccess.putShort(arr, BASE + offset + idx, be == NATIVE_BIG_ENDIAN ? v : Short.reverseBytes(v));
+  }
+
+  protected int _getInt(int idx, boolean be) {
+    if (!WORD_ACCESS) {
+      return super._getInt(idx, be);
+    }
+
+    int v = MemoryAccess.getInt(arr, BASE + offset + idx);
+    return be == NATIVE_BIG_ENDIAN ? v : Integer.reverseBytes(v);
+  }
+
+  protected void _putInt(int idx, int v, boolean be) {
+    if (!WORD_ACCESS) {
+      super._putInt(idx, v, be);
+      return;
+    }
+
+    MemoryAccess.putInt(arr, BASE + offset + idx, be == NATIVE_BIG_ENDIAN ? v : Integer.reverseBytes(v));
+  }
+
+  protected long _getLong(int idx, boolean be) {
+    if (!WORD_ACCESS) {
+      return super._getLong(idx, be);
+    }
+
+    long v = MemoryAccess.getLong(arr, BASE + offset + idx);
+    return be == NATIVE_BIG_ENDIAN ? v : Long.reverseBytes(v);
+  }
+
+  protected void _putLong(int idx, long v, boolean be) {
+    if (!WORD_ACCESS) {
+      super._putLong(idx, v, be);
+      return;
+    }
+
+    MemoryAccess.putLong(arr, BASE + offset + idx, be == NATIVE_BIG_ENDIAN ? v : Long.reverseBytes(v));
+  }
+
+  protected int _mismatch(int idx, Buffer o, int oIdx, int len) {
+    if (WORD_ACCESS) {
+      if (o instanceof HeapBuffer) {
+        HeapBuffer h = (HeapBuffer) o;
+        return Swar.mismatch(arr, BASE + offset + idx, h.arr, BASE + h.offset + oIdx, len);
+      }
+      else if (o instanceof DirectBuffer) {
+        DirectBuffer d = (DirectBuffer) o;
+        return Swar.mismatch(arr, BASE + offset + idx, null, d.addr(oIdx), len);
+      }
+    }
+
+    return super._mismatch(idx, o, oIdx, len);
+  }
+
+  protected int _hashCode(int idx, int len) {
+    if (!WORD_ACCESS) {
+      return super._hashCode(idx, len);
+    }
+
+    return Swar.hash(arr, BASE + offset + idx, len);
+  }
+
+  protected int _indexOf(int from, int to, byte b) {
+    if (!WORD_ACCESS) {
+      return super._indexOf(from, to, b);
+    }
+
+    return Swar.indexOf(arr, BASE + offset, from, to, b);
+  }
+
+  protected int _indexOfAny(int from, int to, byte[] set) {
+    if (!WORD_ACCESS) {
+      return super._indexOfAny(from, to, set);
+    }
+
+    return Swar.indexOfAny(arr, BASE + offset, from, to, set);
+  }
+
+  protected void _putAscii(int idx, CharSequence src, int off, int len) {
+    int base = offset + idx;
+
+    for (int i = 0; i < len; ++i) {
+      arr[base + i] = asciiByte(src.charAt(off + i));
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  protected String _getAscii(int idx, int len) {
+    // Builds the string straight from the bytes, without going through a
+    // decoder or an intermediate char array.
+    return new String(arr, 0, offset + idx, len);
+  }
 }
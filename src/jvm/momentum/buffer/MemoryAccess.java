@@ -0,0 +1,139 @@
+package momentum.buffer;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/*
+ * The one place that touches sun.misc.Unsafe. Buffers read and write memory,
+ * on the heap or off of it, through these static methods, which the JIT
+ * inlines down to the Unsafe intrinsics.
+ *
+ * Memory is addressed the way Unsafe does it: a base object (null for native
+ * memory) and an offset. The object/offset form of copyMemory requires Java 7
+ * or later.
+ *
+ * javac warns about every reference to Unsafe as a proprietary API, and
+ * those warnings cannot be suppressed. The instance is looked up by name and
+ * never cast to, which leaves the field declaration below as the only
+ * reference and the only such warning in the build.
+ */
+final class MemoryAccess {
+
+  private static final sun.misc.Unsafe UNSAFE;
+
+  static final long BYTE_ARRAY_OFFSET;
+
+  // Offset of the address field of java.nio.Buffer
+  private static final long ADDRESS_OFFSET;
+
+  // Unsafe.invokeCleaner, where the JVM has it
+  private static final Method INVOKE_CLEANER;
+
+  static {
+    Object unsafe = null;
+    long arrayOffset = -1, addressOffset = -1;
+    Method invokeCleaner = null;
+
+    try {
+      Class<?> c = Class.forName("sun.misc.Unsafe");
+      Field f    = c.getDeclaredField("theUnsafe");
+      f.setAccessible(true);
+      unsafe = f.get(null);
+
+      Field address = java.nio.Buffer.class.getDeclaredField("address");
+
+      arrayOffset   = (Integer) c.getMethod("arrayBaseOffset", Class.class).invoke(unsafe, byte[].class);
+      addressOffset = (Long) c.getMethod("objectFieldOffset", Field.class).invoke(unsafe, address);
+
+      try {
+        invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+      }
+      catch (NoSuchMethodException e) {
+        invokeCleaner = null;
+      }
+    }
+    catch (Throwable t) {
+      unsafe = null;
+    }
+
+    UNSAFE            = as(unsafe);
+    BYTE_ARRAY_OFFSET = arrayOffset;
+    ADDRESS_OFFSET    = addressOffset;
+    INVOKE_CLEANER    = invokeCleaner;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T as(Object o) {
+    return (T) o;
+  }
+
+  static boolean isSupported() {
+    return UNSAFE != null;
+  }
+
+  // The base address of a direct ByteBuffer
+  static long address(ByteBuffer buf) {
+    return UNSAFE.getLong(buf, ADDRESS_OFFSET);
+  }
+
+  static byte getByte(Object base, long off) {
+    return UNSAFE.getByte(base, off);
+  }
+
+  static void putByte(Object base, long off, byte v) {
+    UNSAFE.putByte(base, off, v);
+  }
+
+  static short getShort(Object base, long off) {
+    return UNSAFE.getShort(base, off);
+  }
+
+  static void putShort(Object base, long off, short v) {
+    UNSAFE.putShort(base, off, v);
+  }
+
+  static int getInt(Object base, long off) {
+    return UNSAFE.getInt(base, off);
+  }
+
+  static void putInt(Object base, long off, int v) {
+    UNSAFE.putInt(base, off, v);
+  }
+
+  static long getLong(Object base, long off) {
+    return UNSAFE.getLong(base, off);
+  }
+
+  static void putLong(Object base, long off, long v) {
+    UNSAFE.putLong(base, off, v);
+  }
+
+  static void copy(Object src, long srcOff, Object dst, long dstOff, long len) {
+    UNSAFE.copyMemory(src, srcOff, dst, dstOff, len);
+  }
+
+  /*
+   * Releases the memory of a direct ByteBuffer. Java 9 and later expose this
+   * on Unsafe, earlier JVMs only through the buffer's private cleaner.
+   */
+  static void clean(ByteBuffer buf) {
+    try {
+      if (INVOKE_CLEANER != null) {
+        INVOKE_CLEANER.invoke(UNSAFE, buf);
+      }
+      else {
+        Method cleanerMethod = buf.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+
+        Object cleaner = cleanerMethod.invoke(buf);
+        Method clean   = cleaner.getClass().getMethod("clean");
+        clean.setAccessible(true);
+        clean.invoke(cleaner);
+      }
+    }
+    catch (Exception e) {
+      // Could not free the memory, the GC will get to it eventually.
+    }
+  }
+}
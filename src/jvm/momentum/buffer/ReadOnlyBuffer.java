@@ -0,0 +1,193 @@
+package momentum.buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.HashMap;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/*
+ * A read-only view of another buffer's contents. Every view has its own
+ * position and limit, but none of them can write to the contents, so a single
+ * buffer can be shared between any number of threads and connections without
+ * being copied.
+ *
+ * A view only stops writes that go through it. Whoever still holds the
+ * wrapped buffer can change the contents, and the view sees the change. Only
+ * views over a private copy (see Buffer.toImmutable) are immutable.
+ *
+ * Reads go straight to the wrapped buffer, which always covers exactly the
+ * view's capacity. Anything handed out to the outside world (byte arrays,
+ * ByteBuffers, ChannelBuffers) is either a copy or read-only as well.
+ */
+public final class ReadOnlyBuffer extends Buffer {
+
+  final Buffer buf;
+
+  /*
+   * Whether the wrapped buffer is a private copy that nothing else can write
+   * to.
+   */
+  final boolean immutable;
+
+  /*
+   * The last hash computed, along with the range it covers. Only immutable
+   * buffers remember it, the contents behind any other view may change. The
+   * fields are final so that buffers shared across threads never see a
+   * partial one.
+   */
+  static final class Hash {
+
+    final int idx;
+    final int len;
+    final int code;
+
+    Hash(int idx, int len, int code) {
+      this.idx  = idx;
+      this.len  = len;
+      this.code = code;
+    }
+  }
+
+  Hash hash;
+
+  protected ReadOnlyBuffer(Buffer buf, int pos, int lim, int cap, boolean be) {
+    this(buf, pos, lim, cap, be, false);
+  }
+
+  protected ReadOnlyBuffer(Buffer buf, int pos, int lim, int cap, boolean be, boolean immutable) {
+    super(pos, lim, cap, be);
+
+    this.buf       = buf;
+    this.immutable = immutable;
+  }
+
+  protected Buffer _slice(int idx, int len) {
+    return new ReadOnlyBuffer(buf._slice(idx, len), 0, len, len, bigEndian, immutable);
+  }
+
+  protected boolean _isReadOnly() {
+    return true;
+  }
+
+  protected boolean _isImmutable() {
+    return immutable;
+  }
+
+  protected HashMap<String,String> toStringAttrs() {
+    HashMap<String,String> ret = super.toStringAttrs();
+
+    ret.put("buffer", buf.toString());
+
+    return ret;
+  }
+
+  protected byte[] _toByteArray() {
+    byte[] ret = new byte[capacity];
+
+    buf._get(0, ret, 0, capacity);
+
+    return ret;
+  }
+
+  protected ByteBuffer _toByteBuffer() {
+    return buf._toByteBuffer().asReadOnlyBuffer();
+  }
+
+  protected ChannelBuffer _toChannelBuffer() {
+    return ChannelBuffers.unmodifiableBuffer(buf._toChannelBuffer());
+  }
+
+  protected ByteBuffer[] _toByteBuffers(int idx, int len) {
+    ByteBuffer[] ret = buf._toByteBuffers(idx, len);
+
+    for (int i = 0; i < ret.length; ++i) {
+      ret[i] = ret[i].asReadOnlyBuffer();
+    }
+
+    return ret;
+  }
+
+  protected byte _get(int idx) {
+    return buf._get(idx);
+  }
+
+  protected void _get(int idx, byte[] dst, int off, int len) {
+    buf._get(idx, dst, off, len);
+  }
+
+  protected short _getShort(int idx, boolean be) {
+    return buf._getShort(idx, be);
+  }
+
+  protected int _getInt(int idx, boolean be) {
+    return buf._getInt(idx, be);
+  }
+
+  protected long _getLong(int idx, boolean be) {
+    return buf._getLong(idx, be);
+  }
+
+  protected String _getAscii(int idx, int len) {
+    return buf._getAscii(idx, len);
+  }
+
+  protected int _indexOf(int from, int to, byte b) {
+    return buf._indexOf(from, to, b);
+  }
+
+  protected int _indexOfAny(int from, int to, byte[] set) {
+    return buf._indexOfAny(from, to, set);
+  }
+
+  protected int _mismatch(int idx, Buffer o, int oIdx, int len) {
+    if (o instanceof ReadOnlyBuffer) {
+      o = ((ReadOnlyBuffer) o).buf;
+    }
+
+    return buf._mismatch(idx, o, oIdx, len);
+  }
+
+  protected int _hashCode(int idx, int len) {
+    if (!immutable) {
+      return buf._hashCode(idx, len);
+    }
+
+    Hash h = hash;
+
+    if (h == null || h.idx != idx || h.len != len) {
+      h = hash = new Hash(idx, len, buf._hashCode(idx, len));
+    }
+
+    return h.code;
+  }
+
+  protected void _put(int idx, byte b) {
+    throw new ReadOnlyBufferException();
+  }
+
+  protected void _put(int idx, byte[] src, int off, int len) {
+    throw new ReadOnlyBufferException();
+  }
+
+  protected void _put(int idx, Buffer src, int off, int len) {
+    throw new ReadOnlyBufferException();
+  }
+
+  protected void _putShort(int idx, short v, boolean be) {
+    throw new ReadOnlyBufferException();
+  }
+
+  protected void _putInt(int idx, int v, boolean be) {
+    throw new ReadOnlyBufferException();
+  }
+
+  protected void _putLong(int idx, long v, boolean be) {
+    throw new ReadOnlyBufferException();
+  }
+
+  protected void _putAscii(int idx, CharSequence src, int off, int len) {
+    throw new ReadOnlyBufferException();
+  }
+}
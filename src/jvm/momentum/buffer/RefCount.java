@@ -0,0 +1,54 @@
+package momentum.buffer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Tracks the number of outstanding references to an allocation that should be
+ * returned to its owner (generally a BufferPool) once nobody is using it
+ * anymore. All buffers derived from the allocating buffer (slices, duplicates,
+ * etc...) share the same reference count.
+ */
+abstract class RefCount {
+
+  final AtomicInteger refs = new AtomicInteger(1);
+
+  final int count() {
+    return refs.get();
+  }
+
+  final void retain() {
+    int curr;
+
+    do {
+      curr = refs.get();
+
+      if (curr == 0) {
+        throw new IllegalStateException("Buffer has already been released");
+      }
+    } while (!refs.compareAndSet(curr, curr + 1));
+  }
+
+  final boolean release() {
+    int curr;
+
+    do {
+      curr = refs.get();
+
+      if (curr == 0) {
+        throw new IllegalStateException("Buffer has already been released");
+      }
+    } while (!refs.compareAndSet(curr, curr - 1));
+
+    if (curr == 1) {
+      deallocate();
+      return true;
+    }
+
+    return false;
+  }
+
+  /*
+   * Invoked exactly once, when the last reference is released.
+   */
+  abstract void deallocate();
+}
@@ -0,0 +1,135 @@
+package momentum.buffer;
+
+/*
+ * Byte scanning a word at a time (SIMD within a register). Memory is read
+ * eight bytes at once and every byte of the word is compared against the
+ * pattern with a handful of arithmetic operations.
+ *
+ * The memory is addressed the same way MemoryAccess does it: a base object
+ * (null for native memory) and an offset.
+ */
+final class Swar {
+
+  static final long ONES = 0x0101010101010101L;
+  static final long LOWS = 0x7F7F7F7F7F7F7F7FL;
+
+  static boolean isSupported() {
+    return DirectBuffer.isSupported() && DirectBuffer.UNALIGNED;
+  }
+
+  // Returns a word with every byte set to b
+  static long pattern(byte b) {
+    return (b & 0xFFL) * ONES;
+  }
+
+  // Sets the high bit of every byte of the word that is zero and clears all
+  // other bits. Carries never cross byte boundaries, so the result is exact.
+  static long zeros(long x) {
+    return ~(((x & LOWS) + LOWS) | x | LOWS);
+  }
+
+  // Returns the position in memory of the first flagged byte of the word
+  static int first(long flags) {
+    if (DirectBuffer.NATIVE_BIG_ENDIAN) {
+      return Long.numberOfLeadingZeros(flags) >>> 3;
+    }
+    else {
+      return Long.numberOfTrailingZeros(flags) >>> 3;
+    }
+  }
+
+  static int indexOf(Object base, long addr, int from, int to, byte b) {
+    long pat = pattern(b);
+    int i    = from;
+
+    for (; i <= to - 8; i += 8) {
+      long flags = zeros(MemoryAccess.getLong(base, addr + i) ^ pat);
+
+      if (flags != 0) {
+        return i + first(flags);
+      }
+    }
+
+    for (; i < to; ++i) {
+      if (MemoryAccess.getByte(base, addr + i) == b) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  static int indexOfAny(Object base, long addr, int from, int to, byte[] set) {
+    long[] pats = new long[set.length];
+
+    for (int j = 0; j < set.length; ++j) {
+      pats[j] = pattern(set[j]);
+    }
+
+    int i = from;
+
+    for (; i <= to - 8; i += 8) {
+      long word  = MemoryAccess.getLong(base, addr + i);
+      long flags = 0;
+
+      for (int j = 0; j < pats.length; ++j) {
+        flags |= zeros(word ^ pats[j]);
+      }
+
+      if (flags != 0) {
+        return i + first(flags);
+      }
+    }
+
+    for (; i < to; ++i) {
+      byte curr = MemoryAccess.getByte(base, addr + i);
+
+      for (int j = 0; j < set.length; ++j) {
+        if (curr == set[j]) {
+          return i;
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  // Returns the offset of the first byte that differs between the two
+  // chunks of memory, or -1 if they are equal
+  static int mismatch(Object a, long aAddr, Object b, long bAddr, int len) {
+    int i = 0;
+
+    for (; i <= len - 8; i += 8) {
+      long diff = MemoryAccess.getLong(a, aAddr + i) ^ MemoryAccess.getLong(b, bAddr + i);
+
+      if (diff != 0) {
+        return i + first(diff);
+      }
+    }
+
+    for (; i < len; ++i) {
+      if (MemoryAccess.getByte(a, aAddr + i) != MemoryAccess.getByte(b, bAddr + i)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  // Same as Buffer._hashCode, reading the memory directly
+  static int hash(Object base, long addr, int len) {
+    long h = Buffer.PRIME64_5 + len;
+    int  i = 0;
+
+    for (; i <= len - 8; i += 8) {
+      long k = MemoryAccess.getLong(base, addr + i);
+      h = Buffer.hashWord(h, DirectBuffer.NATIVE_BIG_ENDIAN ? k : Long.reverseBytes(k));
+    }
+
+    for (; i < len; ++i) {
+      h = Buffer.hashByte(h, MemoryAccess.getByte(base, addr + i));
+    }
+
+    return Buffer.hashFinish(h);
+  }
+}
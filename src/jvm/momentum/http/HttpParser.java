@@ -7,6 +7,7 @@ import java.net.URISyntaxException;
 import java.util.Queue;
 import clojure.lang.AFn;
 import momentum.buffer.Buffer;
+import momentum.buffer.BufferPool;
 
 /**
  * TODO:
@@ -2808,6 +2809,12 @@ static final int http_en_main = 1;
    */
   private Buffer body;
 
+  /*
+   * When set, aggregated bodies are drawn from this pool. The application that
+   * receives the body is then responsible for releasing it.
+   */
+  private BufferPool bufferPool;
+
   /*
    * A queue of the HTTP methods from the requests that generated the responses
    * being parsed.
@@ -2850,6 +2857,10 @@ static final int http_en_main = 1;
     reset();
   }
 
+  public void setBufferPool(BufferPool pool) {
+    bufferPool = pool;
+  }
+
   public boolean isHttp11() {
     return httpMajor == 1 && httpMinor == 1;
   }
@@ -3628,7 +3639,7 @@ case 1:
           // If the entire body is less than a set maximum (default 4kb), just
           // allocate a new buffer and copy the chunks into it.
           else if (contentLength <= MAX_BUFFERED && !isExpectingContinue()) {
-            body   = Buffer.allocate((int) contentLength);
+            body   = Buffer.allocate((int) contentLength, bufferPool);
             toRead = remaining - 1;
 
             if (remaining > 1) {
@@ -378,7 +378,16 @@ case 1:
                 }
             }
             else {
-                bodyEnd = p + 1;
+                // The delimiter can't start before the next CR, so skip
+                // straight to it.
+                int next = buf.indexOf(p + 1, pe, CR);
+
+                if (next < 0) {
+                    next = pe;
+                }
+
+                bodyEnd = next;
+                {p = ((next))-1;}
             }
         }
 	break;
@@ -0,0 +1,66 @@
+package momentum.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import org.jboss.netty.channel.FileRegion;
+
+/*
+ * Hands a list of buffers to the socket as a single gathering write.
+ *
+ * Netty (as of 3.2) merges the components of a composite ChannelBuffer into
+ * a single buffer before writing it. FileRegions, on the other hand, are
+ * written by handing the socket channel over to the region directly, so the
+ * buffers can be written with one writev without being copied first.
+ */
+public final class BufferRegion implements FileRegion {
+
+    final ByteBuffer[] bufs;
+    final long count;
+
+    // The first buffer that has not been completely written yet
+    int offset;
+
+    public BufferRegion(ByteBuffer[] bufs) {
+        long count = 0;
+
+        for (int i = 0; i < bufs.length; ++i) {
+            count += bufs[i].remaining();
+        }
+
+        this.bufs  = bufs;
+        this.count = count;
+    }
+
+    public long getPosition() {
+        return 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    // Netty always resumes writing where the previous call left off, so the
+    // position of the buffers themselves is all that needs to be tracked.
+    public long transferTo(WritableByteChannel target, long position) throws IOException {
+        while (offset < bufs.length && !bufs[offset].hasRemaining()) {
+            ++offset;
+        }
+
+        if (offset == bufs.length) {
+            return 0;
+        }
+
+        if (target instanceof GatheringByteChannel) {
+            GatheringByteChannel ch = (GatheringByteChannel) target;
+            return ch.write(bufs, offset, bufs.length - offset);
+        }
+
+        return target.write(bufs[offset]);
+    }
+
+    public void releaseExternalResources() {
+        // Nothing to release
+    }
+}
@@ -0,0 +1,55 @@
+package momentum.net;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.stream.ChunkedInput;
+
+/*
+ * Streams a file to a ChunkedWriteHandler one memory mapped chunk at a time.
+ *
+ * The handler only asks for the next chunk while the channel is writable, so
+ * no more than a few chunks are ever mapped and queued at once, however big
+ * the file is. The file channel is closed once the handler is done with it.
+ */
+public final class MappedFileInput implements ChunkedInput {
+
+    final FileChannel fc;
+    final long count;
+    final int chunkSize;
+
+    // The position of the next chunk in the file
+    long offset;
+
+    public MappedFileInput(FileChannel fc, long count, int chunkSize) {
+        this.fc        = fc;
+        this.count     = count;
+        this.chunkSize = chunkSize;
+    }
+
+    public boolean hasNextChunk() {
+        return offset < count;
+    }
+
+    public Object nextChunk() throws IOException {
+        if (offset >= count) {
+            return null;
+        }
+
+        int n = (int) Math.min(chunkSize, count - offset);
+
+        // Mappings stay valid once the file channel is closed
+        Object ret = ChannelBuffers.wrappedBuffer(fc.map(FileChannel.MapMode.READ_ONLY, offset, n));
+
+        offset += n;
+        return ret;
+    }
+
+    public boolean isEndOfInput() {
+        return offset >= count;
+    }
+
+    public void close() throws IOException {
+        fc.close();
+    }
+}
@@ -0,0 +1,160 @@
+package momentum.util;
+
+import java.nio.BufferOverflowException;
+import momentum.buffer.Buffer;
+
+/*
+ * Decodes a stream of base64 one chunk at a time, reading straight from one
+ * buffer and writing straight into another.
+ *
+ * Both the standard and the URL safe alphabets are accepted. As with
+ * Base64.decodeBase64, characters outside of the alphabet (such as line
+ * breaks) are skipped and the first padding character ends the data. Runs of
+ * four valid characters are decoded a whole word at a time.
+ *
+ * A decoder is not thread-safe, but it can be reused once finished.
+ */
+public final class Base64Decoder {
+
+    static final byte[] DECODE_TABLE = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; ++i) {
+            DECODE_TABLE[i] = -1;
+        }
+
+        for (int i = 0; i < 64; ++i) {
+            DECODE_TABLE[Base64Encoder.STANDARD_ALPHABET[i]] = (byte) i;
+            DECODE_TABLE[Base64Encoder.URL_SAFE_ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    // Characters of an incomplete quantum, and how many there are
+    int bits;
+    int count;
+
+    // Whether the padding has been reached
+    boolean done;
+
+    /*
+     * Returns an upper bound on the number of bytes that decoding len more
+     * characters and then finishing writes.
+     */
+    public int maxDecodedLength(int len) {
+        return (int) ((count + (long) len) / 4 * 3 + 2);
+    }
+
+    /*
+     * Decodes the remaining characters of src into dst. Stops early if dst
+     * fills up, in which case src is left positioned at the first character
+     * that still needs decoding. Once the padding is reached, the rest of the
+     * input is consumed and ignored.
+     */
+    public void decode(Buffer src, Buffer dst) {
+        if (done) {
+            src.position(src.limit());
+            return;
+        }
+
+        while (src.hasRemaining()) {
+            if (count == 0 && src.remaining() >= 4 && dst.remaining() >= 3) {
+                if (decodeQuanta(src, dst)) {
+                    continue;
+                }
+            }
+
+            // Completing a quantum writes three bytes
+            if (count == 3 && dst.remaining() < 3) {
+                return;
+            }
+
+            byte c = src.get();
+
+            if (c == '=') {
+                done = true;
+                src.position(src.limit());
+                return;
+            }
+
+            int v = DECODE_TABLE[c & 0xFF];
+
+            if (v < 0) {
+                continue;
+            }
+
+            bits = (bits << 6) | v;
+
+            if (++count == 4) {
+                putQuantum(dst, bits);
+
+                bits  = 0;
+                count = 0;
+            }
+        }
+    }
+
+    /*
+     * Decodes the characters of an incomplete final quantum, which is what an
+     * unpadded stream ends with. The decoder can be used for a new stream
+     * afterwards.
+     *
+     * @throws BufferOverflowException
+     *         If dst does not have room for the rest of the output
+     */
+    public void finish(Buffer dst) {
+        // A single dangling character does not make up a byte
+        int len = count < 2 ? 0 : count - 1;
+
+        if (dst.remaining() < len) {
+            throw new BufferOverflowException();
+        }
+
+        if (count == 2) {
+            dst.put((byte) (bits >>> 4));
+        }
+        else if (count == 3) {
+            dst.putShortBigEndian((short) (bits >>> 2));
+        }
+
+        bits  = 0;
+        count = 0;
+        done  = false;
+    }
+
+    private void putQuantum(Buffer dst, int quantum) {
+        dst.putShortBigEndian((short) (quantum >>> 8));
+        dst.put((byte) quantum);
+    }
+
+    // Decodes whole quanta a word at a time for as long as the input is made
+    // of valid characters. Returns false if not even one could be decoded.
+    private boolean decodeQuanta(Buffer src, Buffer dst) {
+        int n = Math.min(src.remaining() / 4, dst.remaining() / 3);
+        int p = src.position();
+        int q = dst.position();
+        int i = 0;
+
+        for (; i < n; ++i, p += 4, q += 3) {
+            int w = src.getIntBigEndian(p);
+
+            int a = DECODE_TABLE[w >>> 24];
+            int b = DECODE_TABLE[(w >>> 16) & 0xFF];
+            int c = DECODE_TABLE[(w >>> 8) & 0xFF];
+            int d = DECODE_TABLE[w & 0xFF];
+
+            if ((a | b | c | d) < 0) {
+                break;
+            }
+
+            int quantum = a << 18 | b << 12 | c << 6 | d;
+
+            dst.putShortBigEndian(q, (short) (quantum >>> 8));
+            dst.put(q + 2, (byte) quantum);
+        }
+
+        src.position(p);
+        dst.position(q);
+
+        return i > 0;
+    }
+}
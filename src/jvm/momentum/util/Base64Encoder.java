@@ -0,0 +1,230 @@
+package momentum.util;
+
+import java.nio.BufferOverflowException;
+import momentum.buffer.Buffer;
+
+/*
+ * Encodes a stream of bytes to base64 one chunk at a time, reading straight
+ * from one buffer and writing straight into another.
+ *
+ * Whole 3 byte groups are encoded four characters at a time. Up to two bytes
+ * left over at the end of a chunk are held on to until the next chunk comes
+ * in, or until the encoder is finished, which pads the output. The output is
+ * the same as Base64.encodeBase64 produces for the whole stream.
+ *
+ * An encoder is not thread-safe, but it can be reused once finished.
+ */
+public final class Base64Encoder {
+
+    static final byte[] STANDARD_ALPHABET = alphabet('+', '/');
+
+    static final byte[] URL_SAFE_ALPHABET = alphabet('-', '_');
+
+    // The line length used by Base64.encodeBase64 when chunking
+    public static final int MIME_LINE_LENGTH = 76;
+
+    final byte[] alphabet;
+
+    // URL safe output is not padded
+    final boolean pad;
+
+    // The number of characters per line, or 0 for a single line. Lines are
+    // separated by CRLF.
+    final int lineLength;
+
+    // The number of characters written to the current line
+    int column;
+
+    // Bytes of an incomplete group, and how many there are
+    int bits;
+    int pending;
+
+    public Base64Encoder() {
+        this(false, 0);
+    }
+
+    public Base64Encoder(boolean urlSafe, int lineLength) {
+        if (lineLength < 0) {
+            throw new IllegalArgumentException("Negative line length: " + lineLength);
+        }
+
+        this.alphabet   = urlSafe ? URL_SAFE_ALPHABET : STANDARD_ALPHABET;
+        this.pad        = !urlSafe;
+        this.lineLength = lineLength / 4 * 4;
+    }
+
+    private static byte[] alphabet(char c62, char c63) {
+        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789" + c62 + c63;
+        byte[] ret   = new byte[64];
+
+        for (int i = 0; i < 64; ++i) {
+            ret[i] = (byte) chars.charAt(i);
+        }
+
+        return ret;
+    }
+
+    /*
+     * Returns an upper bound on the number of bytes that encoding len more
+     * bytes and then finishing writes.
+     */
+    public int maxEncodedLength(int len) {
+        long chars = (pending + (long) len + 2) / 3 * 4;
+
+        if (lineLength > 0) {
+            chars += ((column + chars) / lineLength + 1) * 2;
+        }
+
+        return (int) Math.min(chars, Integer.MAX_VALUE);
+    }
+
+    /*
+     * Encodes the remaining bytes of src into dst. Stops early if dst fills
+     * up, in which case src is left positioned at the first byte that still
+     * needs encoding.
+     */
+    public void encode(Buffer src, Buffer dst) {
+        while (src.hasRemaining() && dst.remaining() >= groupRoom()) {
+            if (pending == 0 && src.remaining() >= 3) {
+                encodeGroups(src, dst);
+                continue;
+            }
+
+            bits = (bits << 8) | (src.get() & 0xFF);
+
+            if (++pending == 3) {
+                putGroup(dst, bits);
+
+                bits    = 0;
+                pending = 0;
+            }
+        }
+    }
+
+    /*
+     * Encodes any bytes held on to, pads the output and ends the last line.
+     * The encoder can be used for a new stream afterwards.
+     *
+     * @throws BufferOverflowException
+     *         If dst does not have room for the rest of the output
+     */
+    public void finish(Buffer dst) {
+        int len = 0;
+
+        if (pending > 0) {
+            len = pad ? 4 : pending + 1;
+        }
+
+        // The last line is ended unless it is empty
+        boolean newline = lineLength > 0 && column + len > 0;
+
+        if (newline) {
+            len += 2;
+        }
+
+        if (dst.remaining() < len) {
+            throw new BufferOverflowException();
+        }
+
+        if (pending == 1) {
+            dst.put(alphabet[(bits >>> 2) & 63]);
+            dst.put(alphabet[(bits << 4) & 63]);
+
+            if (pad) {
+                dst.put((byte) '=');
+                dst.put((byte) '=');
+            }
+        }
+        else if (pending == 2) {
+            dst.put(alphabet[(bits >>> 10) & 63]);
+            dst.put(alphabet[(bits >>> 4) & 63]);
+            dst.put(alphabet[(bits << 2) & 63]);
+
+            if (pad) {
+                dst.put((byte) '=');
+            }
+        }
+
+        if (newline) {
+            putLineSeparator(dst);
+        }
+
+        bits    = 0;
+        pending = 0;
+        column  = 0;
+    }
+
+    // The room needed to write the next group, along with the line separator
+    // if the group ends the line
+    private int groupRoom() {
+        if (lineLength > 0 && column + 4 >= lineLength) {
+            return 6;
+        }
+
+        return 4;
+    }
+
+    private void putGroup(Buffer dst, int group) {
+        dst.putIntBigEndian(chars(group));
+        advanceColumn(4, dst);
+    }
+
+    private void advanceColumn(int len, Buffer dst) {
+        if (lineLength > 0) {
+            column += len;
+
+            if (column == lineLength) {
+                putLineSeparator(dst);
+            }
+        }
+    }
+
+    private void putLineSeparator(Buffer dst) {
+        dst.put((byte) '\r');
+        dst.put((byte) '\n');
+        column = 0;
+    }
+
+    // Returns the four characters of a 3 byte group packed into an int
+    private int chars(int group) {
+        return alphabet[(group >>> 18) & 63] << 24 |
+               alphabet[(group >>> 12) & 63] << 16 |
+               alphabet[(group >>> 6)  & 63] << 8  |
+               alphabet[group & 63];
+    }
+
+    private void encodeGroups(Buffer src, Buffer dst) {
+        int n = Math.min(src.remaining() / 3, dst.remaining() / 4);
+
+        if (lineLength > 0) {
+            n = Math.min(n, (lineLength - column) / 4);
+
+            // Keep room for the line separator
+            if (column + n * 4 == lineLength && dst.remaining() < n * 4 + 2) {
+                --n;
+            }
+        }
+
+        int p = src.position();
+        int q = dst.position();
+
+        for (int i = 0; i < n; ++i, p += 3, q += 4) {
+            int group;
+
+            // Read a whole word whenever a fourth byte is known to be there
+            if (i < n - 1) {
+                group = src.getIntBigEndian(p) >>> 8;
+            }
+            else {
+                group = (src.get(p) & 0xFF) << 16 | (src.get(p + 1) & 0xFF) << 8 | (src.get(p + 2) & 0xFF);
+            }
+
+            dst.putIntBigEndian(q, chars(group));
+        }
+
+        src.position(p);
+        dst.position(q);
+
+        advanceColumn(n * 4, dst);
+    }
+}
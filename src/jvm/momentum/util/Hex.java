@@ -6,8 +6,8 @@ import momentum.buffer.Buffer;
 public class Hex {
 
     public static final short[] TO_HEX = new short[] {
-        12336, 12592, 12848, 13104, 13360, 13616, 13872, 14128,
-        14384, 14640, 24880, 25136, 25392, 25648, 25904, 26160,
+        12336, 12337, 12338, 12339, 12340, 12341, 12342, 12343,
+        12344, 12345, 12385, 12386, 12387, 12388, 12389, 12390,
         12592, 12593, 12594, 12595, 12596, 12597, 12598, 12599,
         12600, 12601, 12641, 12642, 12643, 12644, 12645, 12646,
         12848, 12849, 12850, 12851, 12852, 12853, 12854, 12855,
@@ -53,53 +53,29 @@ public class Hex {
 
 
     public static Buffer hexEncode(Buffer src) {
-        int remaining = src.remaining();
-        Buffer dst    = Buffer.allocate(remaining * 2);
+        Buffer dst = Buffer.allocate(src.remaining() * 2);
 
-        for (int i = src.position(); i < remaining; ++i) {
-            dst.putShort(TO_HEX[src.get(i) & 0xFF]);
-        }
-
-        dst.flip();
+        new HexEncoder().encode(src.slice(), dst);
 
-        return dst;
+        return dst.flip();
     }
 
     public static Buffer hexDecode(String src) throws UnsupportedEncodingException {
-        return hexEncode(Buffer.wrap(src.getBytes("UTF-8")));
+        return hexDecode(Buffer.wrap(src.getBytes("UTF-8")));
     }
 
     public static Buffer hexDecode(Buffer src) {
-        int remaining = src.remaining();
-
-        if (remaining % 2 != 0) {
+        if (src.remaining() % 2 != 0) {
             throw new IllegalArgumentException("The src buffer must have an even number of bytes.");
         }
 
-        Buffer dst = Buffer.allocate(remaining / 2);
-
-        while (src.hasRemaining()) {
-            int  b = 0;
-            byte c = FROM_HEX[src.get()];
-
-            if (c < 0) {
-                throw new IllegalArgumentException("Src buffer not valid hex");
-            }
-
-            b = c * 16;
-
-            c = FROM_HEX[src.get()];
-
-            if (c < 0) {
-                throw new IllegalArgumentException("Src buffer not valid hex");
-            }
-
-            dst.put((byte) (b + c));
-        }
+        Buffer dst         = Buffer.allocate(src.remaining() / 2);
+        HexDecoder decoder = new HexDecoder();
 
-        dst.flip();
+        decoder.decode(src.slice(), dst);
+        decoder.finish();
 
-        return dst;
+        return dst.flip();
     }
 
 }
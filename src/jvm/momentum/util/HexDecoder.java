@@ -0,0 +1,74 @@
+package momentum.util;
+
+import momentum.buffer.Buffer;
+
+/*
+ * Decodes a stream of hex one chunk at a time, reading straight from one
+ * buffer and writing straight into another. A chunk may end halfway through
+ * a byte, the dangling digit is held on to until the next chunk comes in.
+ * Both upper and lower case digits are accepted.
+ */
+public final class HexDecoder {
+
+    // The high digit of a byte split across chunks, or -1
+    int high = -1;
+
+    /*
+     * Decodes the remaining digits of src into dst. Stops early if dst fills
+     * up, in which case src is left positioned at the first digit that still
+     * needs decoding.
+     *
+     * @throws IllegalArgumentException
+     *         If src holds anything but hex digits
+     */
+    public void decode(Buffer src, Buffer dst) {
+        if (high >= 0 && src.hasRemaining() && dst.hasRemaining()) {
+            dst.put((byte) (high << 4 | digit(src.get())));
+            high = -1;
+        }
+
+        int n = Math.min(src.remaining() / 2, dst.remaining());
+        int p = src.position();
+        int q = dst.position();
+
+        for (int i = 0; i < n; ++i, p += 2, ++q) {
+            short w = src.getShortBigEndian(p);
+            dst.put(q, (byte) (digit((byte) (w >>> 8)) << 4 | digit((byte) w)));
+        }
+
+        src.position(p);
+        dst.position(q);
+
+        // Hold on to the first half of a byte that the next chunk completes
+        if (src.remaining() == 1 && dst.hasRemaining()) {
+            high = digit(src.get());
+        }
+    }
+
+    /*
+     * Checks that the stream did not end halfway through a byte. The decoder
+     * can be used for a new stream afterwards.
+     *
+     * @throws IllegalArgumentException
+     *         If the stream had an odd number of digits
+     */
+    public void finish() {
+        boolean dangling = high >= 0;
+
+        high = -1;
+
+        if (dangling) {
+            throw new IllegalArgumentException("Hex input must have an even number of digits");
+        }
+    }
+
+    private static int digit(byte c) {
+        int ret = c < 0 ? -1 : Hex.FROM_HEX[c];
+
+        if (ret < 0) {
+            throw new IllegalArgumentException("Not a hex digit: " + (char) (c & 0xFF));
+        }
+
+        return ret;
+    }
+}
@@ -0,0 +1,41 @@
+package momentum.util;
+
+import momentum.buffer.Buffer;
+
+/*
+ * Encodes a stream of bytes to lower case hex one chunk at a time, reading
+ * straight from one buffer and writing straight into another. Each byte is
+ * looked up in Hex.TO_HEX, which holds both of its characters at once, and
+ * four bytes are encoded per word.
+ */
+public final class HexEncoder {
+
+    /*
+     * Encodes the remaining bytes of src into dst. Stops early if dst fills
+     * up, in which case src is left positioned at the first byte that still
+     * needs encoding.
+     */
+    public void encode(Buffer src, Buffer dst) {
+        int n = Math.min(src.remaining(), dst.remaining() / 2);
+        int p = src.position();
+        int q = dst.position();
+        int i = 0;
+
+        for (; i <= n - 4; i += 4, p += 4, q += 8) {
+            int w = src.getIntBigEndian(p);
+
+            dst.putLongBigEndian(q,
+                (long) Hex.TO_HEX[w >>> 24]          << 48 |
+                (long) Hex.TO_HEX[(w >>> 16) & 0xFF] << 32 |
+                (long) Hex.TO_HEX[(w >>> 8) & 0xFF]  << 16 |
+                (long) Hex.TO_HEX[w & 0xFF]);
+        }
+
+        for (; i < n; ++i, ++p, q += 2) {
+            dst.putShortBigEndian(q, Hex.TO_HEX[src.get(p) & 0xFF]);
+        }
+
+        src.position(p);
+        dst.position(q);
+    }
+}
@@ -5,6 +5,7 @@ import java.net.URISyntaxException;
 import java.util.Queue;
 import clojure.lang.AFn;
 import momentum.buffer.Buffer;
+import momentum.buffer.BufferPool;
 
 /**
  * TODO:
@@ -406,7 +407,7 @@ public final class HttpParser extends AFn {
           // If the entire body is less than a set maximum (default 4kb), just
           // allocate a new buffer and copy the chunks into it.
           else if (contentLength <= MAX_BUFFERED && !isExpectingContinue()) {
-            body   = Buffer.allocate((int) contentLength);
+            body   = Buffer.allocate((int) contentLength, bufferPool);
             toRead = remaining - 1;
 
             if (remaining > 1) {
@@ -661,6 +662,12 @@ public final class HttpParser extends AFn {
    */
   private Buffer body;
 
+  /*
+   * When set, aggregated bodies are drawn from this pool. The application that
+   * receives the body is then responsible for releasing it.
+   */
+  private BufferPool bufferPool;
+
   /*
    * A queue of the HTTP methods from the requests that generated the responses
    * being parsed.
@@ -697,6 +704,10 @@ public final class HttpParser extends AFn {
     reset();
   }
 
+  public void setBufferPool(BufferPool pool) {
+    bufferPool = pool;
+  }
+
   public boolean isHttp11() {
     return httpMajor == 1 && httpMinor == 1;
   }
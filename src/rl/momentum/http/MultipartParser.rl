@@ -99,7 +99,16 @@ public final class MultipartParser {
                 }
             }
             else {
-                bodyEnd = fpc + 1;
+                // The delimiter can't start before the next CR, so skip
+                // straight to it.
+                int next = buf.indexOf(fpc + 1, pe, CR);
+
+                if (next < 0) {
+                    next = pe;
+                }
+
+                bodyEnd = next;
+                fexec next;
             }
         }
 
@@ -7,7 +7,9 @@
     AsyncTransferQueue
     TimeoutException]
    [java.io
-    IOException]))
+    IOException]
+   [java.util.concurrent
+    Executors]))
 
 ;; ==== Helpers
 
@@ -34,6 +36,12 @@
 
 (def BOOM (RuntimeException. "BOOM"))
 
+(defn- waiters
+  [val]
+  (let [f (doto (.getDeclaredField momentum.async.Async "state")
+            (.setAccessible true))]
+    (.get f val)))
+
 (defn- boom
   [& args]
   (throw BOOM))
@@ -549,6 +557,68 @@
     (is (= (blocking (seq ch))
            [:hello :world]))))
 
+(deftest using-bounded-channels
+  (let [ch (bounded-channel 3)]
+    (is (put ch 1))
+    (is (= [4 5] (put-all ch [2 3 4 5])))
+    (is (not (put ch 6)))
+    (is (= 3 (count ch)))
+
+    ;; Everything available comes in as one chunk
+    (let [s (seq ch)]
+      (is (chunked-seq? @s))
+      (is (= 3 (count (chunk-first @s))))
+      (is (= [1 2 3] (take 3 s)))
+      (is (put ch 4))
+      (close ch)
+      (is (= [1 2 3 4] (blocking s)))))
+
+  (let [ch (bounded-channel nil 8 2)]
+    (put-all ch (range 5))
+    (close ch)
+    (let [s (seq ch)]
+      (is (= (range 5) (blocking s)))
+      (is (= 2 (count (chunk-first @s))))))
+
+  (let [ch (bounded-channel 2)]
+    (future
+      (dotimes [i 100]
+        (while (not (put ch i))
+          (Thread/sleep 1)))
+      (close ch))
+
+    (is (= (range 100) (blocking (seq ch))))))
+
+(deftest pausing-full-bounded-channels
+  (let [evts (atom [])
+        ch   (bounded-channel (fn [evt _] (swap! evts conj evt)) 2)]
+    (put ch :a)
+    (is (= [] @evts))
+    (put-all ch [:b :c])
+    (is (= [:pause] @evts))
+    (is (= [:a :b] @(take-batch ch 10)))
+    (is (= [:pause :resume] @evts))))
+
+(deftest taking-batches-from-channels
+  (let [ch  (bounded-channel 10)
+        val (take-batch ch 3)]
+    (is (not (realized? val)))
+    (put-all ch [1 2 3 4])
+    (is (= [1 2 3] @val))
+    (is (= [4] @(take-batch ch 5)))
+    (close ch)
+    (is (nil? @(take-batch ch 5))))
+
+  (let [ch (channel)]
+    (put ch :hello)
+    (is (nil? (put-all ch [:world])))
+    (is (= [:hello] @(take-batch ch 5)))
+    (is (= [:world] @(take-batch ch 5))))
+
+  (let [ch (bounded-channel 10)]
+    (abort ch BOOM)
+    (is (thrown-with-msg? Exception #"BOOM" @(take-batch ch 1)))))
+
 ;; ==== join
 
 (deftest synchronous-joins
@@ -609,6 +679,162 @@
     (is (= true (abort (join val1 val3) (Exception.))))
     (is (aborted? val1 val2 val3))))
 
+(deftest joining-large-fan-outs
+  (let [vals   (doall (map (fn [_] (async-val)) (range 500)))
+        joined (apply join (concat vals [:done] (take 3 vals)))]
+    (doseq [[i val] (reverse (map-indexed vector vals))]
+      (is (not (realized? joined)))
+      (put val i))
+    (is (= (concat (range 500) [:done] (range 3)) @joined)))
+
+  (let [vals   (doall (map (fn [_] (async-val)) (range 200)))
+        joined (apply join vals)]
+    (put (nth vals 3) :hello)
+    (abort (nth vals 150) BOOM)
+    (is (thrown-with-msg? Exception #"BOOM" @joined))
+    (is (not (aborted? (nth vals 3))))
+    (is (every? aborted? (remove #(= (nth vals 3) %) vals)))))
+
+(deftest joining-a-quorum
+  (let [val1 (async-val)
+        val2 (async-val)
+        val3 (async-val)
+        joined (join-n 2 val1 val2 val3)]
+    (put val3 :three)
+    (is (not (realized? joined)))
+    (put val1 :one)
+    (is (= [:three :one] @joined))
+    (is (not (realized? val2))))
+
+  ;; Plain values count towards quorum first
+  (let [val1 (async-val)]
+    (is (= [:a :b] @(join-n 2 :a val1 :b)))
+    (is (not (realized? val1)))
+    (is (= [] @(join-n 0 val1))))
+
+  (is (thrown? IllegalArgumentException (join-n 3 1 2))))
+
+(deftest aborting-a-quorum
+  ;; Quorum is still reachable after one error
+  (let [val1 (async-val)
+        val2 (async-val)
+        val3 (async-val)
+        joined (join-n 2 val1 val2 val3)]
+    (abort val1 BOOM)
+    (is (not (realized? joined)))
+    (put val2 2)
+    (put val3 3)
+    (is (= [2 3] @joined)))
+
+  ;; Once quorum can no longer be reached, the rest are aborted
+  (let [val1 (async-val)
+        val2 (async-val)
+        val3 (async-val)
+        joined (join-n 2 val1 val2 val3)]
+    (abort val1 BOOM)
+    (abort val2 (Exception. "Other"))
+    (is (thrown-with-msg? Exception #"Other" @joined))
+    (is (aborted? val3)))
+
+  (let [val1 (async-val)
+        val2 (async-val)
+        joined (join-n 1 val1 val2)]
+    (is (= true (abort joined BOOM)))
+    (is (aborted? val1 val2))))
+
+;; ==== cancellation
+
+(deftest removing-receivers
+  (let [val  (async-val)
+        res  (atom [])
+        rcvr (fn [x]
+               (reify momentum.async.Receiver
+                 (success [_ v] (swap! res conj x))
+                 (error [_ _])))
+        rs   (map rcvr [:a :b :c])]
+    (doseq [r rs] (.receive val r))
+    (is (= true (.removeReceiver val (second rs))))
+    (is (= false (.removeReceiver val (second rs))))
+    (put val :hello)
+    (is (= #{:a :c} (set @res)))
+    (is (= false (.removeReceiver val (first rs))))))
+
+(deftest aborting-a-pipeline-releases-its-pending-value
+  (let [seed (async-val)
+        val  (doasync seed inc)]
+    (is (waiters seed))
+    (abort val BOOM)
+    (is (aborted? seed))
+    (is (thrown-with-msg? Exception #"BOOM" @val))))
+
+(deftest a-quorum-releases-the-stragglers
+  (let [val1 (async-val)
+        val2 (async-val)
+        val3 (async-val)
+        res  (join-n 1 val1 val2 val3)]
+    (put val2 :two)
+    (is (= [:two] @res))
+    (is (nil? (waiters val1)))
+    (is (nil? (waiters val3)))))
+
+(deftest interrupting-producers
+  (let [val  (async-val)
+        errs (atom [])]
+    (on-abort val #(swap! errs conj %))
+    (put val :hello)
+    (is (= [] @errs)))
+
+  (let [val  (async-val)
+        errs (atom [])]
+    (on-abort val #(swap! errs conj %))
+    (abort (doasync val inc) BOOM)
+    (is (= 1 (count @errs)))
+    (is (instance? InterruptedException (first @errs)))))
+
+;; ==== timeouts
+
+(deftest timing-out-async-values
+  (let [val (timeout (async-val) 20)]
+    (is (thrown? TimeoutException (deref val 2000 nil)))
+    (is (aborted? val)))
+
+  (let [val (timeout (async-val) 2000)]
+    (put val :hello)
+    (is (= :hello @val)))
+
+  ;; Realized values are left alone
+  (let [val (async-val)]
+    (put val :hello)
+    (is (= val (timeout val 1)))
+    (Thread/sleep 50)
+    (is (= :hello @val)))
+
+  ;; A deadline in the past aborts right away
+  (let [val (with-deadline (async-val) (deadline -1))]
+    (is (aborted? val))))
+
+(deftest timing-out-a-whole-doasync-chain
+  (let [stages (atom [])
+        seed   (async-val)
+        stuck  (async-val)
+        res    (doasync seed :timeout 30
+                 (fn [v]
+                   (swap! stages conj v)
+                   (future* v))
+                 (fn [v]
+                   (swap! stages conj v)
+                   stuck)
+                 (catch TimeoutException e
+                   :timed-out))]
+    (put seed 1)
+    (is (= :timed-out (deref res 2000 nil)))
+    (is (= [1 1] @stages))
+    (is (aborted? stuck)))
+
+  (let [res (doasync (defer 1) :timeout 2000
+              inc)]
+    (is (= 2 @res))))
+
 ;; ==== batch
 
 (deftest batching-regular-seqs
@@ -643,8 +869,177 @@
 
 ;; ==== map*
 
-;; (deftest mapping-async-seq
-;;   (is true))
+(deftest mapping-seqs
+  (is (= [2 3 4] @(batch (map* inc [1 2 3]))))
+  (is (= [2 3 4] @(batch (map* inc (list 1 2 3)))))
+  (is (nil? @(map* inc nil)))
+  (is (= [4 3 2] @(batch (map* inc (async-dec-seq 3))))))
+
+(deftest mapping-chunks
+  (let [ch  (channel nil 0 32)
+        res (map* inc (seq ch))]
+    (enqueue ch 1 2 3)
+    (close ch)
+    (is (chunked-seq? @res))
+    (is (= 3 (count (chunk-first @res))))
+    (is (= [2 3 4] @(batch res))))
+
+  (let [res (map* inc (range 100))]
+    (is (= (range 1 101) @(batch res)))))
+
+;; ==== async seq combinators
+
+(deftest mapping-multiple-seqs
+  (is (= [5 7 9] @(batch (map* + [1 2 3] [4 5 6]))))
+  (is (= [4 5] @(batch (map* + [1 2 3] (async-dec-seq 2) [1 2 3 4])))
+      "Stops at the shortest coll")
+  (is (nil? @(map* + [1 2] nil)))
+
+  (let [ch  (channel)
+        res (map* vector (seq ch) [:a :b])]
+    (is (not (realized? res)))
+    (put ch 1)
+    (put ch 2)
+    (is (= [[1 :a] [2 :b]] @(batch res)))))
+
+(deftest filtering-seqs
+  (is (= [2 4] @(batch (filter* even? [1 2 3 4 5]))))
+  (is (= [4 2] @(batch (filter* even? (async-dec-seq 5)))))
+  (is (nil? @(filter* even? [1 3 5])))
+  (is (= (range 0 100 2) @(batch (filter* even? (range 100))))))
+
+(deftest taking-from-seqs
+  (is (= [1 2] @(batch (take* 2 [1 2 3]))))
+  (is (= [5 4] @(batch (take* 2 (async-dec-seq 5)))))
+  (is (= [1 2 3] @(batch (take* 10 [1 2 3]))))
+  (is (nil? @(take* 0 [1 2 3])))
+  (is (= (range 40) @(batch (take* 40 (range 100))))))
+
+(deftest taking-does-not-pull-past-n
+  (let [pulled (atom 0)
+        src    (map* #(do (swap! pulled inc) %) (async-dec-seq 5))]
+    (is (= [5 4] @(batch (take* 2 src))))
+    (is (= 2 @pulled))))
+
+(deftest concatenating-seqs
+  (is (= [1 2 3 2 1 4] @(batch (concat* [1] '(2 3) (async-dec-seq 2) nil [4]))))
+  (is (nil? @(concat*)))
+  (is (nil? @(concat* nil []))))
+
+(deftest merging-seqs
+  (let [ch1 (channel)
+        ch2 (channel)
+        res (atom [])]
+    (doseq* [v (merge* (seq ch1) (seq ch2))]
+      (swap! res conj v))
+    (put ch2 :a)
+    (put ch1 :b)
+    (put ch2 :c)
+    (close ch2)
+    (put ch1 :d)
+    (close ch1)
+    (is (= [:a :b :c :d] @res)))
+
+  (is (= [1 2 3 4] @(batch (merge* [1 2] [3 4]))) "Prefers earlier colls")
+  (is (= #{1 2 3 :a} (set @(batch (merge* (async-dec-seq 3) [:a])))))
+  (is (nil? @(merge* nil []))))
+
+(deftest merging-seqs-propagates-errors
+  (let [ch1 (channel)
+        ch2 (channel)
+        res (merge* (seq ch1) (seq ch2))]
+    (abort ch2 BOOM)
+    (is (thrown-with-msg? Exception #"BOOM" @(batch res)))))
+
+(deftest aborting-merged-seqs-aborts-sources
+  (let [ch1 (channel)
+        ch2 (channel)
+        s1  (seq ch1)
+        s2  (seq ch2)
+        res (merge* s1 s2)]
+    (is (not (realized? res)))
+    (abort res BOOM)
+    (is (aborted? s1))
+    (is (aborted? s2))))
+
+(deftest partitioning-seqs-by-size
+  (is (= [[1 2] [3 4] [5]] @(batch (partition-by-size* 2 (constantly 1) [1 2 3 4 5]))))
+  (is (= [["ab" "c"] ["defg"] ["h"]]
+         @(batch (partition-by-size* 3 ["ab" "c" "defg" "h"]))))
+  (is (= [[(buffer "hello") (buffer "!")]]
+         @(batch (partition-by-size* 6 [(buffer "hello") (buffer "!")]))))
+  (is (= [[5 4] [3 2] [1]] @(batch (partition-by-size* 2 (constantly 1) (async-dec-seq 5)))))
+  (is (nil? @(partition-by-size* 2 nil)))
+  (is (thrown? IllegalArgumentException (partition-by-size* 0 [1]))))
+
+(deftest reducing-seqs
+  (is (= 6 @(reduce* + [1 2 3])))
+  (is (= 16 @(reduce* + 10 [1 2 3])))
+  (is (= 15 @(reduce* + (async-dec-seq 5))))
+  (is (= 0 @(reduce* + nil)))
+  (is (= :init @(reduce* + :init nil)))
+  (is (= 4950 @(reduce* + (range 100))))
+  (is (= [5 4 3 2 1] @(reduce* conj [] (async-dec-seq 5)))))
+
+(deftest reducing-seqs-propagates-errors
+  (is (thrown-with-msg? Exception #"BOOM" @(reduce* boom 0 [1])))
+
+  (let [ch  (channel)
+        res (reduce* + (seq ch))]
+    (put ch 1)
+    (abort ch BOOM)
+    (is (thrown-with-msg? Exception #"BOOM" @res))))
+
+(deftest combining-combinators
+  (let [ch  (channel)
+        res (->> (seq ch)
+                 (map* inc)
+                 (filter* odd?)
+                 (take* 3)
+                 (reduce* +))]
+    (future
+      (doseq [i (range 10)]
+        (put ch i)))
+    (is (= 9 @res))))
+
+;; ==== chunked channel seqs
+
+(deftest channel-seqs-hand-over-chunks
+  (let [ch (channel)]
+    (enqueue ch :a :b)
+    (is (not (chunked-seq? @(seq ch))))
+    (is (= :b (first (seq ch)))))
+
+  (let [ch (channel nil 0 32)]
+    (enqueue ch :a :b :c)
+    (let [s @(seq ch)]
+      (is (chunked-seq? s))
+      (is (= 3 (count (chunk-first s))))
+      (is (= [:a :b :c] (take 3 s)))
+      (put ch :d)
+      (close ch)
+      (is (= [:d] @(batch (chunk-rest s))))))
+
+  (let [ch (channel nil 0 32)]
+    (dotimes [i 100] (put ch i))
+    (close ch)
+    (is (= (range 100) @(batch (seq ch))))))
+
+(deftest doseq-over-chunks
+  (let [ch  (channel nil 0 32)
+        res (atom [])]
+    (dotimes [i 40] (put ch i))
+    (let [done (doseq* [v (seq ch)]
+                 (swap! res conj v))]
+      (put ch 40)
+      (close ch)
+      @done
+      (is (= (range 41) @res))))
+
+  (let [res (atom [])]
+    @(doseq* [[k v] (map vector (range 50) (range 50))]
+       (swap! res conj (+ k v)))
+    (is (= (range 0 100 2) @res))))
 
 ;; ==== AsyncTransferQueue
 
@@ -672,6 +1067,202 @@
       (is (= (take 750 (incrementing))
              (sort (map #(deref % 50 -1) vs)))))))
 
+;; Two racing puts and takes per item, so that both sides queue up
+(deftest contending-on-transfer-queue
+  (let [q  (AsyncTransferQueue. -1)
+        n  8
+        vs (atom [])
+        fs (doall
+            (concat
+             (for [i (range n)]
+               (future
+                 (dotimes [j 1000]
+                   (.put q (+ (* i 1000) j)))))
+             (for [_ (range n)]
+               (future
+                 (dotimes [_ 1000]
+                   (let [v (.take q)]
+                     (swap! vs conj v)))))))]
+    (doseq [f fs] @f)
+    (is (= (range (* n 1000))
+           (sort (map #(deref % 1000 -1) @vs))))
+    (is (= 0 (.count q)))))
+
+(deftest closing-transfer-queue
+  (let [q (AsyncTransferQueue. :closed)]
+    (is (.put q 1))
+    (is (.put q 2))
+    (is (= 2 (.count q)))
+    (is (.close q))
+    (is (.isClosed q))
+    (is (not (.close q)))
+    (is (not (.put q 3)))
+
+    ;; Data already in the queue can still be taken
+    (is (= 1 @(.take q)))
+    (is (= 2 @(.take q)))
+    (is (= :closed @(.take q)))
+    (is (= 0 (.count q))))
+
+  (let [q  (AsyncTransferQueue. :closed)
+        v1 (.take q)
+        v2 (.take q)]
+    (is (= -2 (.count q)))
+    (is (.abort q BOOM))
+    (is (aborted? v1))
+    (is (aborted? v2))
+    (is (aborted? (.take q)))
+    (is (= 0 (.count q)))))
+
+;; ==== sink
+
+(deftest sinking-collections
+  (let [evts (atom [])
+        up   (sink #(swap! evts conj [%1 %2]) [1 2 3])]
+    (is (= [[:body 1] [:body 2] [:body 3] [:body nil]] @evts)))
+
+  ;; In memory collections are sunk in constant stack
+  (let [n (atom 0)]
+    (sink (fn [evt v] (when v (swap! n inc))) (range 200000))
+    (is (= 200000 @n))))
+
+(deftest sinking-async-seqs
+  (let [evts (atom [])
+        ch   (channel)
+        up   (sink #(swap! evts conj [%1 %2]) (seq ch))]
+    (put ch :a)
+    (is (= [[:body :a]] @evts))
+
+    (up :pause nil)
+    (put ch :b)
+    (put ch :c)
+    (is (= [[:body :a]] @evts))
+
+    (up :resume nil)
+    (is (= [[:body :a] [:body :b] [:body :c]] @evts))
+
+    (close ch)
+    (is (= [:body nil] (last @evts))))
+
+  (let [evts (atom [])
+        ch   (channel)
+        up   (sink (fn [evt _] (swap! evts conj evt)) (seq ch))]
+    (put ch :a)
+    (up :abort BOOM)
+    (is (= [:body :abort] @evts))))
+
+(deftest sinking-does-not-pile-receivers-up-on-events
+  (let [ch   (channel)
+        evts (seq (channel))
+        n    (atom 0)]
+    (doseq* [_ (#'momentum.core.async/sink-seq (seq ch) evts)]
+      (swap! n inc))
+    (dotimes [i 1000]
+      (put ch i))
+    (is (= 1000 @n))
+    (is (instance? momentum.async.Receiver (waiters evts)))))
+
+(deftest recurring-over-realized-values
+  (is (= 1000000
+         @(doasync [0 (range 1000000)]
+            (fn [[i s]]
+              (if s
+                (recur* [(inc i) (next s)])
+                i)))))
+
+  ;; Realized async values are looped over in place
+  (is (= 100000
+         @(doasync 0
+            (fn [i]
+              (if (< i 100000)
+                (recur* (doto (async-val) (put (inc i))))
+                i)))))
+
+  (is (thrown-with-msg? Exception #"BOOM"
+        @(doasync 0
+           (fn [i]
+             (if (< i 10)
+               (recur* (inc i))
+               (doto (async-val) (abort BOOM))))))))
+
+;; ==== Dispatching
+
+(defn- chain
+  "Returns the first and last of n async values, each of which puts
+  its value into the next one as soon as it is realized"
+  [n policy]
+  (let [vals (vec (repeatedly (inc n) async-val))]
+    (doseq [[curr nxt] (partition 2 1 vals)]
+      (doasync curr :dispatch policy
+        (fn [v] (put nxt (inc v)))))
+    [(first vals) (last vals)]))
+
+(deftest dispatching-callbacks-inline
+  (let [val    (async-val)
+        thread (doasync val
+                 (fn [_] (Thread/currentThread)))]
+    @(future (put val :hello))
+    (is (not= (Thread/currentThread) @thread))
+    (is (realized? thread))))
+
+(deftest dispatching-callbacks-to-an-executor
+  (let [pool (Executors/newSingleThreadExecutor)]
+    (try
+      (let [val    (async-val)
+            thread (doasync val :dispatch pool
+                     (fn [_] (Thread/currentThread)))
+            task   (reify Callable (call [_] (Thread/currentThread)))
+            pooled (.get (.submit pool ^Callable task))]
+        (put val :hello)
+        (is (= pooled (deref thread 1000 nil))))
+
+      ;; Callbacks registered on the value itself
+      (let [val    (async-val pool)
+            thread (promise)]
+        (doasync val (fn [_] (deliver thread (Thread/currentThread))))
+        (put val :hello)
+        (is (not= (Thread/currentThread) (deref thread 1000 nil))))
+
+      (finally
+       (.shutdown pool)))))
+
+(deftest running-futures-on-an-executor
+  (let [pool (Executors/newSingleThreadExecutor)]
+    (try
+      (let [task   (reify Callable (call [_] (Thread/currentThread)))
+            pooled (.get (.submit pool ^Callable task))]
+        (is (= pooled (deref (future-call* pool #(Thread/currentThread)) 1000 nil)))
+
+        (binding [momentum.core.async/*blocking-executor* pool]
+          (is (= pooled (deref (future* (Thread/currentThread)) 1000 nil)))))
+
+      (let [val (future-call* pool #(throw BOOM))]
+        (is (thrown-with-msg? Exception #"BOOM" @val)))
+
+      (finally
+       (.shutdown pool)))))
+
+(deftest running-futures-on-virtual-threads
+  (let [executor (blocking-executor :virtual)
+        vals     (doall (map (fn [i] (future-call* executor #(do (Thread/sleep 20) i)))
+                             (range 200)))]
+    (is (= (range 200) (map #(deref % 5000 nil) vals)))
+    (is (= (virtual-threads?)
+           (not= (blocking-executor :threads) executor)))))
+
+(deftest future-conveys-bindings
+  (binding [*print-length* 7]
+    (is (= 7 @(future* *print-length*)))))
+
+(deftest trampolining-deep-callback-chains
+  (let [[head tail] (chain 20000 :trampoline)]
+    (put head 0)
+    (is (= 20000 (deref tail 1000 nil))))
+
+  (let [[head tail] (chain 100 (dispatcher :trampoline 3))]
+    (put head 0)
+    (is (= 100 (deref tail 1000 nil)))))
+
 ;; ==== Various helpers
 
 (deftest async-success?-aborted?-realized?
@@ -749,6 +1340,28 @@
     (is (aborted? val1))
     (is (aborted? val2))))
 
+(deftest stepping-a-splice-releases-the-other-sources
+  (let [val1 (async-val)
+        val2 (async-val)
+        val3 (async-val)]
+    (doasync (splice {:a val1 :b val2 :c val3}))
+    (put val2 :two)
+    (is (nil? (waiters val1)))
+    (is (nil? (waiters val3))))
+
+  ;; Walking a long seq does not pile receivers up on a quiet source
+  (let [ch    (channel)
+        quiet (async-val)
+        res   (atom [])]
+    (doasync (splice {:ch (seq ch) :quiet quiet})
+      (fn [[[k v] & more]]
+        (when k
+          (swap! res conj v)
+          (recur* more))))
+    (dotimes [i 100] (put ch i))
+    (is (= (range 100) @res))
+    (is (instance? momentum.async.Receiver (waiters quiet)))))
+
 (deftest splice-two-synchronous-seqs
   (is (= (map
           (fn [[k v]] [k v])
@@ -15,7 +15,10 @@
     ChannelBuffer
     ChannelBuffers]
    [momentum.buffer
-    Buffer]))
+    Buffer
+    BufferPool
+    DirectBuffer
+    GrowthPolicy]))
 
 ;; ==== HELPERS
 
@@ -685,6 +688,62 @@
     (.limit buf 150)
     (test-buffer (Buffer/wrap (.slice buf)))))
 
+(deftest direct-buffers-address-memory-directly
+  (when (DirectBuffer/isSupported)
+    (let [buf (Buffer/allocateDirect 100)]
+      (is (instance? DirectBuffer buf))
+      (is (instance? DirectBuffer (.slice buf 10 20)))
+      (is (instance? DirectBuffer (Buffer/wrap (ByteBuffer/allocateDirect 10))))
+      (is (instance? DirectBuffer
+                     (Buffer/wrap (ChannelBuffers/wrappedBuffer (ByteBuffer/allocateDirect 10)))))
+
+      ;; Exposing the buffer to Netty doesn't copy it
+      (let [cb (.toChannelBuffer buf)]
+        (.put buf 5 (byte 42))
+        (is (= 42 (.getByte cb 5))))
+
+      (.putInt buf 1 (int 0x01020304))
+      (is (= 0x01020304 (.getInt buf 1)))
+      (is (= 0x04030201 (.getIntLittleEndian buf 1)))
+      (.putLongLittleEndian buf 3 0x0102030405060708)
+      (is (= 0x0807060504030201 (.getLong buf 3))))))
+
+(deftest wrapping-read-only-direct-memory
+  (when (DirectBuffer/isSupported)
+    (let [src (doto (ByteBuffer/allocateDirect 10) (.put 0 (byte 7)))]
+      (doseq [buf [(Buffer/wrap (.asReadOnlyBuffer src))
+                   (Buffer/wrap (ChannelBuffers/wrappedBuffer (.asReadOnlyBuffer src)))]]
+        (is (read-only? buf))
+        (is (= 7 (.get buf 0)))
+        (is (thrown? ReadOnlyBufferException (.put buf 0 (byte 1))))
+        (is (thrown? ReadOnlyBufferException (.putInt buf 0 1)))
+        (is (thrown? ReadOnlyBufferException (.putLong buf 0 1)))
+        (is (thrown? ReadOnlyBufferException (.put buf 0 (byte-array 2) 0 2)))
+        (is (= 7 (.get src 0)))))))
+
+(deftest freeing-direct-buffers
+  (when (DirectBuffer/isSupported)
+    (let [buf (Buffer/allocateDirect 100)]
+      (is (not (.isFreed buf)))
+      (is (free buf))
+      (is (.isFreed buf))
+      (is (.isFreed (.slice buf 10 20)))
+      (is (not (free buf))))
+    (testing "using freed memory"
+      (let [buf   (doto (Buffer/allocateDirect 100) (.put 0 (byte 1)))
+            slice (.slice buf 10 10)]
+        (free buf)
+        (is (thrown? IllegalStateException (.get buf 0)))
+        (is (thrown? IllegalStateException (.getInt buf 0)))
+        (is (thrown? IllegalStateException (.put buf 0 (byte 2))))
+        (is (thrown? IllegalStateException (.get slice 0)))
+        (is (thrown? IllegalStateException (.indexOf buf (byte 1))))
+        (is (thrown? IllegalStateException (.toByteBuffer buf)))
+        (is (thrown? IllegalStateException (.put (Buffer/allocateDirect 10) slice)))
+        (is (thrown? IllegalStateException (= (Buffer/wrap (byte-array 10)) slice)))))
+    (is (thrown? UnsupportedOperationException
+                 (.free (Buffer/wrap (ByteBuffer/allocateDirect 10)))))))
+
 (deftest byte-buffer-backed-buffers-usage
   (test-buffer (Buffer/wrap (ByteBuffer/allocate 100)))
   (let [buf (ByteBuffer/allocate 200)]
@@ -715,6 +774,14 @@
     (is (= ByteOrder/LITTLE_ENDIAN
            (.order (.toChannelBuffer buf))))))
 
+;; The backing buffer's own byte order must not leak into the buffer
+(deftest little-endian-backed-buffers-usage
+  (test-buffer
+   (Buffer/wrap (.order (ByteBuffer/allocate 100) ByteOrder/LITTLE_ENDIAN)))
+  (let [cb (ChannelBuffers/buffer ByteOrder/LITTLE_ENDIAN 100)]
+    (.writerIndex cb 100)
+    (test-buffer (Buffer/wrap cb))))
+
 (deftest composite-buffer-usage
   (test-buffer
    (Buffer/wrap
@@ -724,6 +791,16 @@
     (Buffer/allocate 20)
     (Buffer/allocate 20))))
 
+(deftest multibyte-values-straddling-segments
+  (let [buf (Buffer/wrap (Buffer/allocate 3) (Buffer/allocate 3) (Buffer/allocate 10))]
+    (.putLongBigEndian buf 1 0x0102030405060708)
+    (is (= 0x0102030405060708 (.getLongBigEndian buf 1)))
+    (is (= 0x08070605 (.getIntLittleEndian buf 5)))
+    (.putShortLittleEndian buf 2 (short 0x0A0B))
+    (is (= 0x0B0A (.getShortBigEndian buf 2)))
+    (.putIntBigEndian buf 6 0x11223344)
+    (is (= 0x44332211 (.getIntLittleEndian buf 6)))))
+
 (deftest composite-buffer-with-windowed-buffers
   (let [buf1 (Buffer/wrap (Arrays/copyOf increasing 100))
         buf2 (Buffer/wrap (Arrays/copyOf decreasing 100))]
@@ -759,6 +836,277 @@
     (.put buf 1000 1)
     (is (= 1 (.get buf 1000)))))
 
+(deftest pooled-buffer-usage
+  (let [pool (BufferPool. 4)]
+    (test-buffer (Buffer/allocate 100 pool))
+    (test-buffer (Buffer/dynamic 1 100 pool))))
+
+(deftest releasing-pooled-buffers
+  (let [pool (BufferPool. 4)
+        buf  (Buffer/allocate 64 pool)
+        arr  (.toByteArray buf)]
+    (is (.isPooled buf))
+    (is (= 1 (.refCount buf)))
+
+    ;; Derived buffers share the reference count
+    (let [dup (.retain (.slice buf 10 20))]
+      (is (= 2 (.refCount buf)))
+      (is (not (.release dup))))
+
+    (is (.release buf))
+    (is (thrown? IllegalStateException (.release buf)))
+
+    ;; The array gets reused by the next allocation of the same size class
+    (is (identical? arr (.toByteArray (Buffer/allocate 64 pool)))))
+
+  (let [buf (Buffer/allocate 100)]
+    (is (not (.isPooled buf)))
+    (is (not (.release buf)))
+    (is (= 1 (.refCount buf)))))
+
+(deftest releasing-composites-of-pooled-buffers
+  (let [pool (BufferPool. 4)
+        a    (Buffer/allocate 20 pool)
+        b    (Buffer/allocate 20 pool)
+        buf  (Buffer/wrap a (Buffer/allocate 20) b a)]
+    (is (.isPooled buf))
+    (is (= 2 (.refCount a) (.refCount b)))
+    (is (.release buf))
+    (is (= 1 (.refCount a) (.refCount b)))
+    (is (.release a))
+    (is (.release b)))
+
+  (let [pool (BufferPool. 4)
+        buf  (Buffer/dynamic 64 Integer/MAX_VALUE pool)]
+    ;; Grow the buffer past its initial segment
+    (.put buf (byte-array 1000))
+    (is (= 1000 (.position buf)))
+    (is (.release (.slice (.flip buf))))
+    (is (thrown? IllegalStateException (.retain buf)))))
+
+(defn- parts
+  [buf]
+  (second (re-find #"parts=(\d+)" (str buf))))
+
+(deftest wrapping-composites-flattens-them
+  (let [a   (Buffer/wrap (Buffer/wrap (byte-array 300 (byte 1)))
+                         (Buffer/wrap (byte-array 300 (byte 2))))
+        b   (Buffer/wrap (Buffer/wrap (byte-array 300 (byte 3)))
+                         (Buffer/wrap (byte-array 300 (byte 4))))
+        buf (Buffer/wrap a b)]
+    (is (= "4" (parts buf)))
+    (is (= 1200 (.remaining buf)))
+    (doseq [[idx val] [[0 1] [299 1] [300 2] [900 4] [301 2] [1199 4] [0 1]]]
+      (is (= val (.get buf idx))))))
+
+(deftest wrapping-composites-of-pooled-buffers
+  (let [pool (BufferPool. 4)
+        a    (Buffer/allocate 300 pool)
+        b    (Buffer/allocate 300 pool)
+        inner (Buffer/wrap a b)
+        buf   (Buffer/wrap inner (Buffer/allocate 300))]
+    (is (= "3" (parts buf)))
+    ;; The outer buffer keeps the inner one alive
+    (is (not (.release inner)))
+    (is (= 2 (.refCount a) (.refCount b)))
+    (is (.release buf))
+    (is (= 1 (.refCount a) (.refCount b)))))
+
+(deftest wrapping-still-live-pooled-slices
+  (let [pool (BufferPool. 4)
+        a    (doto (Buffer/allocate 100 pool) (.put (byte-array 100 (byte 7))))
+        sl   (.slice a 10 20)
+        buf  (Buffer/wrap sl (Buffer/allocate 10))]
+    (is (.release buf))
+    (is (= 1 (.refCount sl)))
+    (is (= 7 (.get sl 0)))
+    (is (.release a))
+    (is (thrown? IllegalStateException (.release sl))))
+
+  (testing "that were already released"
+    (let [a (Buffer/allocate 100 (BufferPool. 4))]
+      (.release a)
+      (is (thrown? IllegalStateException (Buffer/wrap a a))))))
+
+(deftest compacting-composite-buffers
+  (let [bufs (concat (map #(Buffer/wrap (byte-array 5 (byte %))) (range 10))
+                     [(Buffer/wrap (byte-array 300 (byte 10)))]
+                     (map #(Buffer/wrap (byte-array 5 (byte %))) (range 11 13)))
+        buf  (Buffer/wrap (vec bufs))]
+    (.position buf 7)
+    (is (= "13" (parts buf)))
+    (is (= buf (.compact buf)))
+    (is (= "3" (parts buf)))
+    (is (= 7 (.position buf)))
+    (is (= 360 (.limit buf)))
+    (is (= [0 1 9 10 10 11 12]
+           (map #(.get buf %) [0 5 49 50 349 350 359]))))
+
+  (let [pool (BufferPool. 4)
+        a    (Buffer/allocate 10 pool)
+        b    (Buffer/allocate 10 pool)
+        buf  (Buffer/wrap a b (Buffer/allocate 300))]
+    (.compact buf)
+    (is (= 2 (.refCount a) (.refCount b)))
+    (is (.release buf))
+    (is (= 1 (.refCount a) (.refCount b)))))
+
+(deftest compacting-keeps-pooled-segments-alive-for-views
+  ;; Slices of more than 256 bytes across segments are views, not copies
+  (let [pool (BufferPool. 4)
+        a    (doto (Buffer/allocate 200 pool) (.put (byte-array 200 (byte 7))))
+        b    (doto (Buffer/allocate 200 pool) (.put (byte-array 200 (byte 8))))
+        buf  (Buffer/wrap (.flip a) (.flip b))
+        view (.slice buf 0 400)]
+    (.release a)
+    (.release b)
+    (.compact buf)
+    (is (= "1" (parts buf)))
+    (is (= 1 (.refCount a) (.refCount b)))
+
+    ;; Nothing that the view reads can be handed out by the pool
+    (dotimes [_ 4]
+      (.put (Buffer/allocate 200 pool) (byte-array 200 (byte 99))))
+    (is (= [7 7 8 8] (map #(.get view %) [0 199 200 399])))
+
+    (is (.release view))
+    (is (= 0 (.refCount a) (.refCount b))))
+
+  (testing "compacting a duplicate"
+    (let [pool (BufferPool. 4)
+          a    (Buffer/allocate 200 pool)
+          b    (Buffer/allocate 200 pool)
+          buf  (Buffer/wrap a b)
+          dup  (.duplicate buf)]
+      (.compact dup)
+      (is (= "1" (parts dup)))
+      (is (= "2" (parts buf)))
+      (is (.release buf))
+      (is (= 1 (.refCount a) (.refCount b))))))
+
+(defn- allocated
+  [buf]
+  (Integer. (second (re-find #"allocated=(\d+)" (str buf)))))
+
+(deftest growing-dynamic-buffers
+  (testing "geometrically"
+    (let [buf (Buffer/dynamic 64 Integer/MAX_VALUE nil (GrowthPolicy. 4 Integer/MAX_VALUE 100))]
+      (.put buf (byte-array 65))
+      (is (= 256 (allocated buf)))
+      (.put buf (byte-array 200))
+      (is (= 1024 (allocated buf)))
+      (is (= "3" (parts buf)))))
+
+  (testing "with a cap on the segment size"
+    (let [buf (Buffer/dynamic 64 Integer/MAX_VALUE nil (GrowthPolicy. 2 100 100))]
+      (doseq [i (range 300)]
+        (.put buf (byte 1)))
+      (is (= 328 (allocated buf)))
+      (is (= "4" (parts buf)))
+
+      ;; Single writes still get all the room they need
+      (.put buf (byte-array 500))
+      (is (= 800 (allocated buf)))))
+
+  (testing "never past the capacity"
+    (let [buf (Buffer/dynamic 64 100)]
+      (.put buf (byte-array 100))
+      (is (= 100 (allocated buf)))))
+
+  (testing "consolidating segments"
+    (let [buf (Buffer/dynamic 64 Integer/MAX_VALUE nil (GrowthPolicy. 2 64 3))]
+      (doseq [i (range 300)]
+        (.put buf (unchecked-byte i)))
+      (is (= 320 (allocated buf)))
+      (is (>= 3 (Integer. (parts buf))))
+      (is (= (map unchecked-byte (range 300))
+             (map #(.get buf %) (range 300))))))
+
+  (testing "consolidating pooled segments"
+    (let [pool (BufferPool. 4)
+          buf  (Buffer/dynamic 64 Integer/MAX_VALUE pool (GrowthPolicy. 2 64 2))
+          arr  (.toByteArray (.slice buf 0 64))]
+      (doseq [i (range 200)]
+        (.put buf (byte 1)))
+      (is (= "2" (parts buf)))
+      (is (= 256 (allocated buf)))
+      (is (= 1 (.get buf 0) (.get buf 199)))
+      (is (.release buf))
+
+      ;; The replaced segments went back to the pool with the buffer
+      (is (some #(identical? arr %)
+                [(.toByteArray (.allocate pool 64))
+                 (.toByteArray (.allocate pool 64))]))))
+
+  (testing "consolidating with a view held across it"
+    (let [pool (BufferPool. 4)
+          buf  (Buffer/dynamic 300 Integer/MAX_VALUE pool (GrowthPolicy. 2 300 2))]
+      (.put buf (byte-array 300 (byte 7)))
+      (.put buf (byte-array 300 (byte 8)))
+      (is (= "2" (parts buf)))
+
+      ;; Slices of more than 256 bytes across segments are views
+      (let [view (.slice buf 0 600)]
+        (.put buf (byte-array 300 (byte 9)))
+        (is (= "1" (parts buf)))
+
+        (dotimes [_ 4]
+          (.put (Buffer/allocate 300 pool) (byte-array 300 (byte 99))))
+        (is (= [7 7 8 8] (map #(.get view %) [0 299 300 599])))
+        (is (= [7 8 9] (map #(.get buf %) [0 300 600])))
+        (is (.release view)))))
+
+  (testing "with the default policy"
+    (let [buf (dynamic-buffer 1 Integer/MAX_VALUE nil (growth-policy))]
+      (.putAscii buf "Hello world")
+      (is (= (buffer "Hello world") (flip buf))))))
+
+(deftest resetting-buffers
+  (let [buf (Buffer/dynamic 64 1000)]
+    (.put buf (byte-array 500 (byte 1)))
+    (let [alloc (allocated buf)
+          segs  (parts buf)]
+      (is (= buf (.reset buf)))
+      (is (= 0 (.position buf)))
+      (is (= 1000 (.limit buf)))
+      (.put buf (byte-array 500 (byte 2)))
+      (is (= alloc (allocated buf)))
+      (is (= segs (parts buf)))
+      (is (= (Buffer/wrap (byte-array 500 (byte 2))) (flip buf)))))
+
+  (let [buf (buffer "Hello")]
+    (reset buf)
+    (is (= 5 (remaining buf)))))
+
+(deftest converting-to-byte-buffers
+  (let [a   (Buffer/wrap (.getBytes "Hello " "UTF-8"))
+        b   (Buffer/wrap (.getBytes "world" "UTF-8"))
+        buf (Buffer/wrap a b)
+        bbs (.toByteBuffers buf)]
+    (is (= 2 (count bbs)))
+    (is (= [6 5] (map #(.remaining %) bbs)))
+
+    ;; The views share memory with the buffer
+    (.put (first bbs) 0 (byte 74))
+    (is (= 74 (.get buf 0)))
+
+    (.position buf 3)
+    (.limit buf 8)
+    (is (= [3 2] (map #(.remaining %) (.toByteBuffers buf))))
+
+    (.order buf ByteOrder/LITTLE_ENDIAN)
+    (is (every? #(= ByteOrder/LITTLE_ENDIAN (.order %)) (.toByteBuffers buf))))
+
+  (let [buf (Buffer/dynamic 4 100)]
+    (.putInt buf 1)
+    (.flip buf)
+    (.limit buf 100)
+    (let [bbs (.toByteBuffers buf)]
+      (is (= 100 (reduce + (map #(.remaining %) bbs))))
+      (is (= 1 (.getInt (first bbs))))))
+
+  (is (= [10] (map #(.remaining %) (.toByteBuffers (Buffer/allocate 10))))))
+
 (deftest slicing-dynamic-buffers
   (let [buf (wrap "foo" "bar" "baz")]
     (is (= (buffer "foo") (.slice buf 0 3)))
@@ -783,6 +1131,164 @@
     (is (= (.slice exp 50 400)
            (.slice buf 50 400)))))
 
+(defn- test-searching
+  [buf]
+  (.put buf (.getBytes "Hello world\r\n--boundary\r\n--boundary--" "UTF-8"))
+  (.flip buf)
+  (is (= 0  (.indexOf buf (byte 72))))
+  (is (= 11 (.indexOf buf (byte 13))))
+  (is (= 13 (.indexOf buf (Buffer/wrap (.getBytes "--boundary" "UTF-8")))))
+  (is (= 23 (.indexOf buf 14 (.limit buf) (Buffer/wrap (.getBytes "\r\n--b" "UTF-8")))))
+  (is (= 6  (.indexOfAny buf (.getBytes "\rw" "UTF-8"))))
+  (is (= 11 (.indexOfAny buf 7 (.limit buf) (.getBytes "\n\r" "UTF-8"))))
+  (is (= -1 (.indexOf buf (byte 0))))
+  (is (= -1 (.indexOf buf 12 (.limit buf) (byte 72))))
+  (is (= -1 (.indexOf buf (Buffer/wrap (.getBytes "--boundary---" "UTF-8")))))
+  (is (= -1 (.indexOfAny buf (.getBytes "XYZ" "UTF-8"))))
+  (is (thrown? IndexOutOfBoundsException (.indexOf buf -1 10 (byte 0))))
+  (is (thrown? IndexOutOfBoundsException (.indexOf buf 0 1000 (byte 0)))))
+
+(deftest searching-buffers
+  (test-searching (Buffer/allocate 100))
+  (test-searching (Buffer/allocateDirect 100))
+  (test-searching (Buffer/wrap (ByteBuffer/allocate 100)))
+  (test-searching (Buffer/wrap (doto (ChannelBuffers/buffer 100) (.writerIndex 100))))
+  (test-searching (Buffer/wrap (Buffer/allocate 7) (Buffer/allocate 5) (Buffer/allocate 88)))
+  (test-searching (Buffer/dynamic 3 100))
+
+  (testing "past the allocated segments of a dynamic buffer"
+    (let [buf (Buffer/dynamic 0 100)]
+      (is (= 0  (.indexOf buf (byte 0))))
+      (is (= 0  (.indexOfAny buf (byte-array [(byte 1) (byte 0)]))))
+      (is (= -1 (.indexOf buf (byte 1))))))
+
+  (testing "every position of the word"
+    (doseq [i (range 20)]
+      (let [buf (Buffer/allocate 20)]
+        (.put buf i (byte 1))
+        (is (= i (.indexOf buf (byte 1))))
+        (is (= i (.indexOfAny buf (byte-array [(byte 2) (byte 1)]))))))))
+
+(deftest mapping-files
+  (let [f (java.io.File/createTempFile "momentum" ".txt")]
+    (.deleteOnExit f)
+    (spit f "Hello world")
+    (let [buf (mapped-buffer f)]
+      (is (= (buffer "Hello world") buf))
+      (is (thrown? ReadOnlyBufferException (.put buf 0 (byte 1)))))
+    (is (= (buffer "world") (mapped-buffer (str f) 6 5)))))
+
+(defn- test-encoding-strings
+  [^Buffer buf]
+  (.putAscii buf "GET ")
+  (.putUtf8 buf "/caf\u00e9/\u20ac/\ud83d\ude00")
+  (.putAscii buf "!")
+  (.putAscii buf 0 "P")
+  (is (= 20 (.position buf)))
+  (is (= "PET /caf" (.getAscii buf 0 8)))
+  (is (= (buffer "PET /caf\u00e9/\u20ac/\ud83d\ude00!")
+         (flip buf)))
+
+  (.clear buf)
+  (.putUtf8 buf 0 "a\ud83db")
+  (is (= (buffer "a?b") (.slice buf 0 3)))
+
+  (is (thrown? BufferUnderflowException
+               (.putAscii (.limit buf 2) "abc")))
+  (is (thrown? IllegalArgumentException (.getAscii buf 0 -1))))
+
+(deftest encoding-strings
+  (test-encoding-strings (Buffer/allocate 30))
+  (test-encoding-strings (Buffer/allocateDirect 30))
+  (test-encoding-strings (Buffer/wrap (ByteBuffer/allocate 30)))
+  (test-encoding-strings (Buffer/wrap (Buffer/allocate 3) (Buffer/allocate 6) (Buffer/allocate 21)))
+
+  (testing "into dynamic buffers"
+    (let [buf (Buffer/dynamic 2 100)]
+      (.putUtf8 buf "hello \u00e9")
+      (is (= (buffer "hello \u00e9") (flip buf)))
+      (is (= "hello " (.getAscii buf 0 6)))))
+
+  (testing "non ascii characters"
+    (let [buf (Buffer/allocate 3)]
+      (.putAscii buf "\u00e9a")
+      (is (= (buffer "?a") (.slice buf 0 2)))))
+
+  (testing "utf-8 lengths"
+    (is (= 0 (Buffer/utf8Length "")))
+    (is (= 3 (Buffer/utf8Length "abc")))
+    (is (= 2 (Buffer/utf8Length "\u00e9")))
+    (is (= 3 (Buffer/utf8Length "\u20ac")))
+    (is (= 4 (Buffer/utf8Length "\ud83d\ude00")))
+    (is (= 1 (Buffer/utf8Length "\ud83d")))))
+
+(defn- same-bytes
+  "Returns the bytes held by each kind of buffer"
+  [^bytes arr]
+  (let [len (alength arr)
+        at  (quot len 3)]
+    [(Buffer/wrap arr)
+     (doto (Buffer/allocateDirect len) (.put arr) (.flip))
+     (Buffer/wrap (ByteBuffer/wrap arr))
+     (Buffer/wrap (ChannelBuffers/wrappedBuffer arr))
+     (Buffer/wrap (Buffer/wrapArray arr 0 at) (Buffer/wrapArray arr at (- len at)))
+     (Buffer/wrap (map #(Buffer/wrap (byte-array [%])) (seq arr)))
+     (doto (Buffer/dynamic 3 100) (.put arr) (.flip))
+     (.asReadOnly (Buffer/wrap arr))
+     (.slice (Buffer/wrap (byte-array (concat [(byte 1) (byte 2)] arr))) 2 len)]))
+
+(deftest comparing-buffers
+  (doseq [len [0 1 7 8 9 31 64]]
+    (let [arr  (byte-array (map #(unchecked-byte (- 128 (* 7 %))) (range len)))
+          bufs (same-bytes arr)]
+      (doseq [a bufs b bufs]
+        (is (= a b))
+        (is (= (hash a) (hash b)))
+        (is (= 0 (compare a b))))
+
+      (when (< 0 len)
+        (doseq [i [0 (quot len 2) (dec len)]]
+          (let [other (aclone arr)]
+            (aset-byte other i (unchecked-byte (inc (aget other i))))
+            (doseq [a bufs b (same-bytes other)]
+              (is (not= a b))
+              (is (not= (hash a) (hash b)))
+              (is (neg? (compare a b)))
+              (is (pos? (compare b a)))))))))
+
+  (testing "bytes compare as unsigned values"
+    (is (neg? (compare (buffer :byte 1) (buffer :byte -1))))
+    (is (neg? (compare (buffer "abc") (buffer "abd"))))
+    (is (neg? (compare (buffer "ab") (buffer "abc"))))
+    (is (pos? (compare (buffer "b") (buffer "abc")))))
+
+  (testing "only the remaining bytes count"
+    (let [buf (buffer "Hello world")]
+      (is (= (hash (buffer "world")) (hash (.position buf 6))))))
+
+  (testing "immutable buffers remember their hash per range"
+    (let [buf (immutable (buffer "Hello world"))]
+      (is (= (hash (buffer "Hello world")) (hash buf)))
+      (.position buf 6)
+      (is (= (hash (buffer "world")) (hash buf)))))
+
+  (testing "read-only views hash their current contents"
+    (let [src (buffer "Hello world")
+          ro  (read-only src)
+          m   {(buffer "Hello world") 1}]
+      (is (= 1 (m ro)))
+      (.put src 0 (byte 74))
+      (is (= src ro))
+      (is (= (hash src) (hash ro)))
+      (is (= 2 ({(buffer "Jello world") 2} ro)))))
+
+  (testing "buffers as map keys"
+    (let [m {(buffer "content-type") 1 (buffer "content-length") 2}]
+      (is (= 1 (m (wrap "content" "-type"))))
+      (is (= 2 (m (read-only (buffer "content-length")))))
+      (is (= [(buffer "a") (buffer "b") (buffer "c")]
+             (sort [(buffer "c") (buffer "a") (buffer "b")]))))))
+
 (deftest wrapping
   (is (thrown? IllegalArgumentException (Buffer/wrap (Object.)))))
 
@@ -1016,16 +1522,83 @@
 ;;   (is (frozen (wrap (freeze (buffer 10)) (buffer 10))))
 ;;   (is (frozen (wrap (buffer 10) (freeze (buffer 10))))))
 
-;; (deftest duplicating-frozen-buffer-stays-frozen
-;;   (is (frozen (-> (buffer 10) freeze duplicate)))
-;;   (is (frozen (-> (mk-channel-buffer 10) buffer freeze duplicate)))
-;;   (is (frozen (-> (direct-buffer 10) freeze duplicate)))
-;;   (is (frozen (-> (wrap (buffer 10) (buffer 10)) freeze duplicate))))
-
-;; (deftest throws-when-writing-to-frozen-buffer
-;;   (is (thrown?
-;;        ReadOnlyBufferException
-;;        (.put (freeze (buffer 10)) (byte 1)))))
+(deftest duplicating-read-only-buffer-stays-read-only
+  (is (read-only? (-> (buffer 10) read-only duplicate)))
+  (is (read-only? (-> (mk-channel-buffer 10) buffer read-only duplicate)))
+  (is (read-only? (-> (direct-buffer 10) read-only duplicate)))
+  (is (read-only? (-> (wrap (buffer 10) (buffer 10)) read-only duplicate)))
+  (is (read-only? (-> (buffer 10) read-only (slice 2 5))))
+  (is (read-only? (-> (buffer 10) read-only read-only)))
+  (is (not (read-only? (buffer 10)))))
+
+(deftest throws-when-writing-to-read-only-buffer
+  (doseq [buf [(buffer 10) (direct-buffer 10) (wrap (buffer 5) (buffer 5))
+               (Buffer/wrap (ByteBuffer/allocate 10))]]
+    (let [ro (read-only buf)]
+      (is (thrown? ReadOnlyBufferException (.put ro (byte 1))))
+      (is (thrown? ReadOnlyBufferException (.put ro 0 (byte 1))))
+      (is (thrown? ReadOnlyBufferException (.putInt ro 0 1)))
+      (is (thrown? ReadOnlyBufferException (.putLong ro 0 1)))
+      (is (thrown? ReadOnlyBufferException (.putAscii ro "a")))
+      (is (thrown? ReadOnlyBufferException (.put ro (byte-array 2))))
+      (is (thrown? ReadOnlyBufferException (.put ro (buffer "ab"))))
+      (is (thrown? ReadOnlyBufferException (.put (.toByteBuffer ro) (byte 1))))
+      (is (thrown? ReadOnlyBufferException (.put (first (.toByteBuffers ro)) (byte 1))))
+      (is (thrown? ReadOnlyBufferException
+                   (.setByte (.toChannelBuffer ro) 0 1)))
+      (.put buf 0 (byte 1))
+      (aset-byte (.toByteArray ro) 0 2)
+      (is (= 1 (.get ro 0))))))
+
+(deftest read-only-views-share-contents
+  (let [buf (buffer "Hello world")
+        ro  (read-only buf)
+        a   (duplicate ro)
+        b   (duplicate ro)]
+    (is (= buf ro))
+    (is (= (.getLong buf 3) (.getLong ro 3)))
+    (.position a 6)
+    (is (= (buffer "world") a))
+    (is (= (buffer "Hello world") b))
+    (.put buf 0 (byte 74))
+    (is (= (buffer "Jello world") b))
+    (is (= 6 (.indexOf ro (byte 119))))
+    (is (= "Jello" (.getAscii ro 0 5)))
+    (is (= (buffer "Jello world!") (wrap ro "!")))
+    (is (read-only? (Buffer/wrap ro)))))
+
+(deftest immutable-buffers-own-their-contents
+  (doseq [buf [(buffer "Hello world")
+               (doto (direct-buffer 11) (.put (.getBytes "Hello world")) flip)
+               (wrap (buffer "Hello") (buffer " world"))]]
+    (.position buf 6)
+    (let [im (immutable buf)]
+      (is (immutable? im))
+      (is (read-only? im))
+      (is (= 6 (.position im)))
+      (is (= (buffer "world") im))
+
+      ;; Writes to the source are not seen
+      (.put buf 6 (byte 87))
+      (is (= (buffer "world") im))
+      (is (= (buffer "Hello world") (doto (duplicate im) (.position 0))))
+
+      (is (thrown? ReadOnlyBufferException (.put im 0 (byte 1))))
+      (is (immutable? (duplicate im)))
+      (is (immutable? (slice im 1 2)))
+      (is (immutable? (read-only im)))
+      (is (immutable? (immutable im)))))
+
+  (is (not (immutable? (read-only (buffer "Hello")))))
+  (is (not (immutable? (buffer "Hello")))))
+
+(deftest read-only-mapped-files-are-addressed-directly
+  (let [f (java.io.File/createTempFile "momentum" ".txt")]
+    (.deleteOnExit f)
+    (spit f "Hello world")
+    (let [buf (mapped-buffer f)]
+      (is (read-only? buf))
+      (is (re-find #"DirectBuffer" (str buf))))))
 
 ;;
 ;; === Clojure interface ===
@@ -805,3 +805,15 @@
 
 ;; (defcoretest exception-handling-request-body)
 ;; Sending request w/ content-length and invalid body length
+
+(defcoretest aborting-the-response-closes-the-connection
+  [ch1]
+  (server/start
+   (fn [dn _]
+     (fn [evt val]
+       (enqueue ch1 [evt val]))))
+
+  (let [resp (GET "http://localhost:4040/")]
+    (is (next-msgs ch1 :request [#(includes-hdrs {:path-info "/"} %) nil]))
+    (abort resp (Exception. "Nobody is waiting"))
+    (is (next-msgs ch1 :abort #(instance? Exception %)))))
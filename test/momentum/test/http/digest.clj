@@ -0,0 +1,74 @@
+(ns momentum.test.http.digest
+  (:use
+   clojure.test
+   momentum.core
+   momentum.http.test)
+  (:require
+   [momentum.http.digest  :as digest]
+   [momentum.util.base64  :as base64]
+   [momentum.util.digest  :as util]))
+
+(defn- echo-app
+  [opts]
+  (digest/middleware
+   (fn [dn _]
+     (fn [evt val]
+       (cond
+        (= :request evt)
+        (let [[hdrs body] val]
+          (dn :response [200 (select-keys hdrs ["content-md5"]) body]))
+
+        :else
+        (dn evt val))))
+   opts))
+
+(defn- body-chunks
+  []
+  (map #(and % (to-string %)) (response-body-chunks)))
+
+(defn- md5-header
+  [s]
+  (to-string (base64/encode (util/md5 s))))
+
+(deftest digests-chunked-bodies-as-they-pass
+  (let [digests (atom [])]
+    (with-app (echo-app {:algorithms ["SHA-256" "MD5"]
+                         :on-digest  #(swap! digests conj [%1 %3])})
+      (let [conn (POST "/" :chunked)]
+        (conn :body (buffer "Hello"))
+        (conn :body (buffer "World"))
+
+        (is (empty? @digests))
+
+        (conn :body nil)
+
+        (is (= [[:request {"SHA-256" (util/sha256 "HelloWorld")
+                           "MD5"     (util/md5 "HelloWorld")}]
+                [:response {"SHA-256" (util/sha256 "HelloWorld")
+                            "MD5"     (util/md5 "HelloWorld")}]]
+               @digests))
+
+        (is (= ["Hello" "World" nil] (body-chunks)))))))
+
+(deftest digests-simple-bodies
+  (let [digests (atom [])]
+    (with-app (echo-app {:upstream  false
+                         :on-digest #(swap! digests conj [%1 %3])})
+      (POST "/" "ZOMG")
+      (is (= [[:response {"MD5" (util/md5 "ZOMG")}]] @digests)))))
+
+(deftest verifies-content-md5
+  (with-app (echo-app {})
+    (let [conn (POST "/" {"content-md5" (md5-header "HelloWorld")} :chunked)]
+      (conn :body (buffer "Hello"))
+      (conn :body (buffer "World"))
+      (conn :body nil)
+      (is (= ["Hello" "World" nil] (body-chunks)))))
+
+  (with-app (echo-app {:downstream false})
+    (let [conn (POST "/" {"content-md5" (md5-header "ZOMG")} :chunked)]
+      (conn :body (buffer "Hello"))
+      (conn :body nil)
+      ;; The app is aborted instead of seeing the end of the body
+      (is (= ["Hello"] (body-chunks)))
+      (is (closed? conn)))))
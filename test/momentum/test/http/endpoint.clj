@@ -59,6 +59,48 @@
       (is (= (buffer "Done") (response-body)))
       (is (= (map #(buffer %) ["one" "two" "three"]) @res)))))
 
+(deftest blocking-on-the-request-body
+  (let [res (atom nil)]
+    (with-app
+      (endpoint
+       {:blocking :virtual}
+       (POST "/foo" [request]
+         (reset! res (doall (blocking (request :input) 1000)))
+         (respond :text "Done")))
+
+      (POST "/foo" :chunked)
+      (send-chunks "one" "two" "three" nil)
+
+      (is (= 200 (response-status)))
+      (is (= (buffer "Done") (response-body)))
+      (is (= (map #(buffer %) ["one" "two" "three"]) @res)))))
+
+(deftest blocking-endpoints-run-off-the-io-thread
+  (let [thread (atom nil)]
+    (with-app
+      (endpoint
+       {:blocking true}
+       (GET "/foo" [request]
+         (reset! thread (Thread/currentThread))
+         (respond :text "Done")))
+
+      (GET "/foo")
+      (is (= 200 (response-status)))
+      (is (not= (Thread/currentThread) @thread)))))
+
+(deftest blocking-endpoints-returning-deferred-values
+  (with-app
+    (endpoint
+     {:blocking true}
+     (GET "/foo" [request]
+       (doasync (future* (Thread/sleep 10) "Hello")
+         (fn [msg]
+           (respond :text msg)))))
+
+    (GET "/foo")
+    (is (= 200 (response-status)))
+    (is (= (buffer "Hello") (response-body)))))
+
 (deftest streaming-response-body
   (with-app
     (endpoint
@@ -3,7 +3,19 @@
    clojure.test
    support.helpers
    momentum.core
-   momentum.http.server))
+   momentum.http.server)
+  (:import
+   [java.io
+    File]
+   [org.jboss.netty.channel
+    SimpleChannelHandler]))
+
+(defn- tmp-file
+  [contents]
+  (let [f (File/createTempFile "momentum" ".txt")]
+    (.deleteOnExit f)
+    (spit f contents)
+    f))
 
 (defn- start-hello-world-app
   [ch]
@@ -694,6 +706,125 @@
 
     (is (closed-socket?))))
 
+(defcoretest chunked-response-with-pooled-buffers
+  [ch1]
+  (start
+   (fn [dn _]
+     (fn [evt val]
+       (enqueue ch1 [evt val])
+       (when (= :request evt)
+         (dn :response [200 {"transfer-encoding" "chunked"} :chunked])
+         (dn :body (doto (pooled-buffer 5) (.put (buffer "Hello")) flip))
+         (dn :body nil))))
+   {:buffer-pool true})
+
+  (with-socket
+    (write-socket "POST / HTTP/1.1\r\n"
+                  "Connection: close\r\n"
+                  "Content-Length: 5\r\n\r\n"
+                  "Hello")
+
+    (is (next-msgs
+         ch1
+         :request [#(includes-hdrs {"content-length" "5"} %) "Hello"]
+         :done    nil))
+
+    (is (receiving
+         "HTTP/1.1 200 OK\r\n"
+         "transfer-encoding: chunked\r\n\r\n"
+         "5\r\nHello\r\n0\r\n\r\n"))
+
+    (is (closed-socket?))))
+
+(defn- start-file-app
+  [ch opts]
+  (start
+   (fn [dn _]
+     (fn [evt val]
+       (enqueue ch [evt val])
+       (when (= :request evt)
+         (let [file (tmp-file "Hello world")]
+           (dn :response [200 {"content-length" (str (.length file))
+                               "connection"     "close"} file])))))
+   opts))
+
+(defcoretest sending-file-bodies
+  [ch1]
+  (start-file-app ch1 {})
+
+  (with-socket
+    (write-socket "GET / HTTP/1.1\r\n\r\n")
+    (is (next-msgs ch1 :request :dont-care :done nil))
+    (is (receiving
+         "HTTP/1.1 200 OK\r\n"
+         "content-length: 11\r\n"
+         "connection: close\r\n\r\n"
+         "Hello world"))
+    (is (closed-socket?))))
+
+(defcoretest sending-file-bodies-through-other-handlers
+  [ch1]
+  (start-file-app
+   ch1 {:pipeline-fn (fn [p _] (.addLast p "noop" (SimpleChannelHandler.)))})
+
+  (with-socket
+    (write-socket "GET / HTTP/1.1\r\n\r\n")
+    (is (next-msgs ch1 :request :dont-care :done nil))
+    (is (receiving
+         "HTTP/1.1 200 OK\r\n"
+         "content-length: 11\r\n"
+         "connection: close\r\n\r\n"
+         "Hello world"))
+    (is (closed-socket?))))
+
+(defcoretest sending-file-chunks
+  [ch1]
+  (start
+   (fn [dn _]
+     (fn [evt val]
+       (enqueue ch1 [evt val])
+       (when (= :request evt)
+         (dn :response [200 {"transfer-encoding" "chunked"} :chunked])
+         (dn :body (tmp-file "Hello world, this is a file"))
+         (dn :body (buffer "!"))
+         (dn :body nil)))))
+
+  (with-socket
+    (write-socket "GET / HTTP/1.1\r\nConnection: close\r\n\r\n")
+    (is (next-msgs ch1 :request :dont-care :done nil))
+    (is (receiving
+         "HTTP/1.1 200 OK\r\n"
+         "transfer-encoding: chunked\r\n\r\n"
+         "1b\r\nHello world, this is a file\r\n"
+         "1\r\n!\r\n0\r\n\r\n"))
+    (is (closed-socket?))))
+
+(defcoretest sending-file-chunks-larger-than-a-mapping
+  [ch1]
+  (start
+   (fn [dn _]
+     (fn [evt val]
+       (enqueue ch1 [evt val])
+       (when (= :request evt)
+         (dn :response [200 {"transfer-encoding" "chunked"} :chunked])
+         (dn :body (tmp-file "Hello world, this is a file"))
+         (dn :body (buffer "!"))
+         (dn :body nil))))
+   {:pipeline-fn (fn [p _] (.addLast p "noop" (SimpleChannelHandler.)))})
+
+  ;; The file is mapped and written a few bytes at a time, anything
+  ;; written after it has to wait its turn
+  (with-redefs [momentum.net.core/max-mapped-chunk 4]
+    (with-socket
+      (write-socket "GET / HTTP/1.1\r\nConnection: close\r\n\r\n")
+      (is (next-msgs ch1 :request :dont-care :done nil))
+      (is (receiving
+           "HTTP/1.1 200 OK\r\n"
+           "transfer-encoding: chunked\r\n\r\n"
+           "1b\r\nHello world, this is a file\r\n"
+           "1\r\n!\r\n0\r\n\r\n"))
+      (is (closed-socket?)))))
+
 (defcoretest chunked-response-with-content-length
   [ch1 ch2]
   (start
@@ -70,6 +70,75 @@
          :open  addr-info
          :close nil))))
 
+(defcoretest sending-composite-buffers
+  [ch1]
+  (start
+   (fn [dn _]
+     (fn [evt val]
+       (enqueue ch1 [evt val])
+       (when (= :open evt)
+         (dn :message (wrap "Hello" (doto (direct-buffer 1) (.put 0 (byte 32))) "world!"))
+         (dn :close nil)))))
+
+  (with-socket
+    (is (receiving "Hello world!"))
+    (is (next-msgs
+         ch1
+         :open  addr-info
+         :close nil))))
+
+(defcoretest writing-the-same-pooled-buffer-twice
+  [ch1]
+  (start
+   (let [buf (doto (pooled-buffer 5 (buffer-pool 4)) (.putAscii "Hello") flip)]
+     (fn [dn _]
+       (fn [evt val]
+         (cond
+          (= :open evt)
+          (do (enqueue ch1 [evt val])
+              (dn :message buf)
+              (dn :message buf)
+              (dn :close nil))
+
+          ;; The application still holds its reference once the
+          ;; writes are done
+          (= :close evt)
+          (enqueue ch1 [evt [(.refCount buf) (.release buf)]]))))))
+
+  (with-socket
+    (is (receiving "HelloHello"))
+    (is (next-msgs
+         ch1
+         :open  addr-info
+         :close [1 true]))))
+
+(defcoretest writing-composites-of-live-pooled-slices
+  [ch1]
+  (start
+   (let [buf (doto (pooled-buffer 11 (buffer-pool 4)) (.putAscii "Hello world") flip)]
+     (fn [dn _]
+       (fn [evt val]
+         (cond
+          (= :open evt)
+          (do (enqueue ch1 [evt val])
+              ;; Netty holds on to the composites until they are
+              ;; written
+              (doseq [msg [(wrap (.slice buf 0 6) "there")
+                           (wrap (.slice buf 5 6) "!")]]
+                (dn :message msg)
+                (.release msg))
+              (dn :close nil))
+
+          (= :close evt)
+          (enqueue ch1 [evt [(.refCount buf) (.release buf)]]))))))
+
+  (with-socket
+    (is (receiving "Hello there world!"))
+    (is (next-msgs
+         ch1
+         :open  addr-info
+         :close [1 true]))))
+
 (defcoretest writing-to-closed-socket
   [ch1]
   (start
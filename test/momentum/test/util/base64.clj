@@ -4,6 +4,12 @@
    momentum.core.buffer
    momentum.util.base64)
   (:import
+   [momentum.buffer
+    Buffer]
+   [momentum.util
+    Base64
+    Base64Decoder
+    Base64Encoder]
    java.nio.ByteBuffer
    java.util.Arrays))
 
@@ -30,3 +36,75 @@
 (deftest decoding-strings
   (is (= (buffer "") (decode "")))
   (is (= (buffer "ZOMG") (decode "Wk9NRw=="))))
+
+(defn- random-bytes
+  [len]
+  (let [arr (byte-array len)]
+    (.nextBytes (java.util.Random. len) arr)
+    arr))
+
+(defn- chunks
+  "Splits the buffer into slices of n bytes"
+  [^Buffer buf n]
+  (for [i (range 0 (.remaining buf) n)]
+    (.slice buf i (min n (- (.remaining buf) i)))))
+
+(defn- stream
+  "Runs the chunks through the codec with a small output buffer, the
+  way a body stream would"
+  [chunks f finish]
+  (let [out (java.io.ByteArrayOutputStream.)
+        dst (Buffer/allocate 7)]
+    (doseq [^Buffer chunk chunks]
+      (while (.hasRemaining chunk)
+        (f chunk dst)
+        (.write out (.toByteArray (.slice (.flip dst))) 0 (.remaining dst))
+        (.clear dst)))
+    (let [dst (Buffer/allocate 16)]
+      (finish dst)
+      (.write out (.toByteArray (.slice (.flip dst))) 0 (.remaining dst)))
+    (Buffer/wrap (.toByteArray out))))
+
+(deftest encoding-buffers
+  (is (= (buffer "Wk9NRw==") (encode (buffer "ZOMG"))))
+  (is (= (buffer "Wk9NRw==") (encode (.getBytes "ZOMG"))))
+
+  (doseq [len [0 1 2 3 4 5 56 57 58 100 300]
+          chunked? [false true]]
+    (let [arr (random-bytes len)]
+      (is (= (buffer (Base64/encodeBase64 arr chunked?))
+             (encode arr chunked?))))))
+
+(deftest decoding-buffers
+  (is (= (buffer "ZOMG") (decode (buffer "Wk9NRw=="))))
+  (is (= (buffer "ZOMG") (decode (buffer "Wk9N\r\nRw"))))
+  (is (= (buffer "ZOMG") (decode (buffer "Wk9NRw==garbage"))))
+
+  (doseq [len [0 1 2 3 4 5 56 57 58 100 300]
+          chunked? [false true]]
+    (let [arr (random-bytes len)]
+      (is (= (Buffer/wrap arr)
+             (decode (Base64/encodeBase64 arr chunked?))))
+      (is (= (Buffer/wrap arr)
+             (decode (Base64/encodeBase64URLSafe arr)))))))
+
+(deftest streaming-chunk-by-chunk
+  (doseq [len [0 1 2 3 4 100 301]
+          n   [1 2 3 5 64]
+          chunked? [false true]]
+    (let [arr     (random-bytes len)
+          enc     (Base64Encoder. false (if chunked? 76 0))
+          encoded (stream (chunks (Buffer/wrap arr) n)
+                          #(.encode enc %1 %2) #(.finish enc %))
+          dec     (Base64Decoder.)]
+      (is (= (buffer (Base64/encodeBase64 arr chunked?)) encoded))
+      (is (= (Buffer/wrap arr)
+             (stream (chunks encoded n)
+                     #(.decode dec %1 %2) #(.finish dec %))))))
+
+  (testing "url safe"
+    (let [arr (random-bytes 100)
+          enc (Base64Encoder. true 0)]
+      (is (= (buffer (Base64/encodeBase64URLSafe arr))
+             (stream (chunks (Buffer/wrap arr) 7)
+                     #(.encode enc %1 %2) #(.finish enc %)))))))
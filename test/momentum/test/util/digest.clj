@@ -17,3 +17,18 @@
     (is (= expected (sha1 "ZOMG!")))
     (is (= expected (sha1 (.getBytes "ZOMG!" "UTF-8"))))
     (is (= expected (sha1 (buffer "ZOMG!"))))))
+
+(deftest digesting-buffers-in-place
+  (let [expected (sha256 "Hello world")
+        buf      (wrap (buffer "Hello") (buffer " ") (buffer "world"))]
+    (is (= expected (sha256 buf)))
+    (is (= 0 (position buf)))
+    (is (= expected (sha256 (.toByteBuffer (buffer "Hello world")))))
+    (is (= expected (sha256 (.position (buffer "xxHello world") 2))))))
+
+(deftest digesting-incrementally
+  (let [digest (md5)]
+    (doseq [chunk ["Hello" (buffer " ") (.getBytes "world")]]
+      (update digest chunk))
+    (is (= (md5 "Hello world") (finish digest)))
+    (is (= (base64/decode "PiWWCnnbxptnTNTsZ6csYg==") (md5 "Hello world")))))
@@ -4,7 +4,42 @@
   momentum.core.buffer
   momentum.util.hex)
  (:require
-  [momentum.util.hex :as hex]))
+  [momentum.util.hex :as hex])
+ (:import
+  [momentum.buffer
+   Buffer]))
 
 ;; (deftest zomg
 ;;   (println (to-string (hex/encode "HELLO"))))
+
+(deftest encoding-hex
+  (is (= (buffer "") (encode "")))
+  (is (= (buffer "48454c4c4f") (encode "HELLO")))
+  (is (= (buffer "00017f80ff") (encode (buffer :byte 0 1 127 -128 -1))))
+  (is (= (buffer "4c4c4f") (encode (.position (buffer "HELLO") 2)))))
+
+(deftest decoding-hex
+  (is (= (buffer "HELLO") (decode "48454c4c4f")))
+  (is (= (buffer "HELLO") (decode "48454C4C4F")))
+  (is (thrown? IllegalArgumentException (decode "484")))
+  (is (thrown? IllegalArgumentException (decode "4g"))))
+
+(deftest streaming-hex-chunk-by-chunk
+  (let [enc (hex/encoder)
+        dec (hex/decoder)
+        src (buffer "Hello world, this is hex")
+        hex (buffer 100)
+        out (buffer 100)]
+    (doseq [i (range 0 (remaining src) 5)]
+      (.encode enc (.slice src i (min 5 (- (remaining src) i))) hex))
+    (flip hex)
+    (is (= (encode src) hex))
+
+    ;; Split the digits of a byte across chunks
+    (doseq [i (range 0 (remaining hex) 3)]
+      (.decode dec (.slice hex i (min 3 (- (remaining hex) i))) out))
+    (.finish dec)
+    (is (= src (flip out)))
+
+    (.decode dec (buffer "4") out)
+    (is (thrown? IllegalArgumentException (.finish dec)))))